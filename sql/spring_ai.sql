@@ -29,9 +29,24 @@ CREATE TABLE `message`  (
   `creation_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `deleted` tinyint(1) NOT NULL DEFAULT 0 COMMENT '逻辑删除（0：未删除，1：已删除）',
   PRIMARY KEY (`id`) USING BTREE,
-  INDEX `idx_session_id`(`session_id` ASC) USING BTREE
+  INDEX `idx_session_time`(`session_id` ASC, `creation_time` ASC, `id` ASC) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 23 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '对话消息表' ROW_FORMAT = Dynamic;
 
+-- ----------------------------
+-- Table structure for message_archive
+-- ----------------------------
+DROP TABLE IF EXISTS `message_archive`;
+CREATE TABLE `message_archive`  (
+  `session_id` bigint NOT NULL COMMENT '会话ID',
+  `message_count` int NOT NULL COMMENT '归档的消息条数',
+  `last_message_id` bigint NOT NULL COMMENT '归档的最后一条消息ID',
+  `raw_bytes` bigint NOT NULL COMMENT '消息内容压缩前的字节数',
+  `compressed_bytes` bigint NOT NULL COMMENT '压缩后的字节数',
+  `content` longblob NOT NULL COMMENT 'gzip 压缩的消息列表（JSON 数组）',
+  `archive_time` datetime NOT NULL COMMENT '归档时间',
+  PRIMARY KEY (`session_id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '消息归档表' ROW_FORMAT = Dynamic;
+
 -- ----------------------------
 -- Table structure for session
 -- ----------------------------
@@ -42,7 +57,29 @@ CREATE TABLE `session`  (
   `creation_time` datetime NOT NULL COMMENT '创建时间',
   `update_time` datetime NOT NULL COMMENT '更新时间',
   `deleted` tinyint(1) NOT NULL DEFAULT 0 COMMENT '逻辑删除（0：未删除，1：已删除）',
-  PRIMARY KEY (`session_id`) USING BTREE
+  PRIMARY KEY (`session_id`) USING BTREE,
+  INDEX `idx_deleted_update_time`(`deleted` ASC, `update_time` ASC, `session_id` ASC) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 10 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '会话表' ROW_FORMAT = Dynamic;
 
+-- ----------------------------
+-- Table structure for session_summary
+-- ----------------------------
+DROP TABLE IF EXISTS `session_summary`;
+CREATE TABLE `session_summary`  (
+  `session_id` bigint NOT NULL COMMENT '会话ID',
+  `content` text CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_ai_ci NOT NULL COMMENT '较早对话的摘要',
+  `last_message_id` bigint NOT NULL COMMENT '摘要覆盖的最后一条消息ID',
+  `message_count` int NOT NULL COMMENT '摘要累计覆盖的消息条数',
+  `update_time` datetime NOT NULL COMMENT '更新时间',
+  PRIMARY KEY (`session_id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '会话摘要表' ROW_FORMAT = Dynamic;
+
+-- ----------------------------
+-- 已有数据库升级（游标分页所需索引）
+-- ----------------------------
+-- ALTER TABLE `message` DROP INDEX `idx_session_id`, ADD INDEX `idx_session_time`(`session_id`, `creation_time`, `id`);
+-- ALTER TABLE `session` ADD INDEX `idx_deleted_update_time`(`deleted`, `update_time`, `session_id`);
+-- 冷会话归档需先执行上方 message_archive 的建表语句
+-- 长会话摘要需先执行上方 session_summary 的建表语句
+
 SET FOREIGN_KEY_CHECKS = 1;
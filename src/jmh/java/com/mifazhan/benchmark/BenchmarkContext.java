@@ -0,0 +1,82 @@
+package com.mifazhan.benchmark;
+
+import com.mifazhan.SpringAiApplication;
+import com.mifazhan.support.persist.MessageWriteBehind;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基准测试用的应用上下文
+ * <p>
+ * 以非 Web 方式启动完整的应用，数据源替换为 MySQL 兼容模式的 H2 内存库，
+ * 关闭 OpenAI 自动配置并注册 {@link StubChatModel}，不依赖外部数据库和模型服务。
+ * 死信文件、回复日志和检索索引写入 target 下每次启动新建的目录，不改动工作区，各次运行互不影响。
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * 启动应用上下文
+     *
+     * @param chatModel  替代真实模型的实现
+     * @param properties 额外的配置项，覆盖默认值
+     * @return 已启动的上下文，使用完毕后需关闭
+     */
+    static ConfigurableApplicationContext start(ChatModel chatModel, Map<String, Object> properties) {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("spring.datasource.url", "jdbc:h2:mem:bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+        defaults.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        defaults.put("spring.datasource.username", "sa");
+        defaults.put("spring.datasource.password", "");
+        defaults.put("spring.sql.init.mode", "always");
+        defaults.put("spring.sql.init.schema-locations", "classpath:bench-schema.sql");
+        defaults.put("spring.ai.model.chat", "none");
+        defaults.put("spring.devtools.restart.enabled", "false");
+        // devtools 会在关闭时对内存库执行 SHUTDOWN，由 stop 负责先刷出异步写入的消息再关闭
+        defaults.put("spring.autoconfigure.exclude", "org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration");
+        defaults.put("mybatis-plus.configuration.log-impl", "org.apache.ibatis.logging.nologging.NoLoggingImpl");
+        defaults.put("logging.level.root", "WARN");
+        Path dataDir = dataDir();
+        defaults.put("chat.persist.dead-letter-file", dataDir.resolve("message-dead-letter.jsonl").toString());
+        defaults.put("chat.journal.dir", dataDir.resolve("reply-journal").toString());
+        defaults.put("chat.search.dir", dataDir.resolve("search-index").toString());
+        defaults.putAll(properties);
+
+        // 默认属性优先级最低，这里以命令行参数的形式传入以覆盖 application.yml
+        String[] args = defaults.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(SpringAiApplication.class)
+                .web(WebApplicationType.NONE)
+                .initializers(context -> context.getBeanFactory().registerSingleton("stubChatModel", chatModel))
+                .run(args);
+    }
+
+    /**
+     * 先刷出异步写入队列中的消息再关闭上下文：关闭时内存库可能先于异步写入的关闭回调被关闭，剩余的消息会被写入死信文件
+     */
+    static void stop(ConfigurableApplicationContext context) {
+        context.getBean(MessageWriteBehind.class).flush();
+        context.close();
+    }
+
+    private static Path dataDir() {
+        try {
+            Path parent = Files.createDirectories(Path.of("target", "benchmark-data"));
+            return Files.createTempDirectory(parent, "run-");
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建基准测试数据目录失败", e);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.mifazhan.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 流式对话接口压测工具
+ * <p>
+ * 保持 N 个并发的 SSE 流，直到完成指定的请求数，统计首片段延迟、片段间隔、吞吐量，
+ * 并通过 actuator 定时采样服务端的堆内存、线程数和进行中的流数量。
+ * 通常配合 mock-llm profile 启动的服务使用，排除模型服务本身的波动。
+ * <p>
+ * 运行：mvn -Pbenchmark test-compile exec:exec@load-test -Dload.args="--concurrency=200 --requests=2000"
+ * <p>
+ * 参数（均为 --key=value 形式）：
+ * <ul>
+ *     <li>url：服务地址，默认 http://localhost:8080</li>
+ *     <li>path：流式接口路径，默认 /api/chat/stream</li>
+ *     <li>concurrency：并发流数量，默认 50</li>
+ *     <li>requests：总请求数，默认 500</li>
+ *     <li>message：发送的消息内容</li>
+ *     <li>session-id：固定使用的会话ID，默认每个请求新建会话</li>
+ *     <li>sample-interval-ms：服务端指标采样间隔，默认 1000</li>
+ * </ul>
+ */
+public final class ChatLoadDriver {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String baseUrl;
+    private final String path;
+    private final int concurrency;
+    private final int requests;
+    private final String message;
+    private final Long sessionId;
+    private final long sampleIntervalMs;
+
+    private final HttpClient client;
+
+    private final Samples timeToFirstChunk = new Samples();
+    private final Samples interChunk = new Samples();
+    private final Samples total = new Samples();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong chunks = new AtomicLong();
+    private final Map<String, AtomicInteger> failures = new HashMap<>();
+
+    private final ServerGauge heapUsed;
+    private final ServerGauge liveThreads;
+    private final ServerGauge activeStreams;
+
+    private ChatLoadDriver(Map<String, String> options) {
+        this.baseUrl = options.getOrDefault("url", "http://localhost:8080");
+        this.path = options.getOrDefault("path", "/api/chat/stream");
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "50"));
+        this.requests = Integer.parseInt(options.getOrDefault("requests", "500"));
+        this.message = options.getOrDefault("message", "请介绍一下你自己");
+        this.sessionId = options.containsKey("session-id") ? Long.valueOf(options.get("session-id")) : null;
+        this.sampleIntervalMs = Long.parseLong(options.getOrDefault("sample-interval-ms", "1000"));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.heapUsed = new ServerGauge("jvm.memory.used", "area:heap");
+        this.liveThreads = new ServerGauge("jvm.threads.live", null);
+        this.activeStreams = new ServerGauge("chat.stream.active", null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("参数格式应为 --key=value: " + arg);
+            }
+            int split = arg.indexOf('=');
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        new ChatLoadDriver(options).run();
+    }
+
+    private void run() throws Exception {
+        System.out.printf("压测 %s%s，并发 %d，请求数 %d%n", baseUrl, path, concurrency, requests);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(this::sampleServer, 0, sampleIntervalMs, TimeUnit.MILLISECONDS);
+
+        AtomicInteger remaining = new AtomicInteger(requests);
+        long start = System.nanoTime();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                workers.submit(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        runOne();
+                    }
+                });
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        sampler.shutdown();
+        sampler.awaitTermination(5, TimeUnit.SECONDS);
+        sampleServer();
+        report(elapsedNanos);
+    }
+
+    private void runOne() {
+        long start = System.nanoTime();
+        try {
+            ObjectNode body = OBJECT_MAPPER.createObjectNode();
+            body.put("sessionId", sessionId);
+            body.put("content", message);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .POST(HttpRequest.BodyPublishers.ofString(OBJECT_MAPPER.writeValueAsString(body)))
+                    .build();
+            HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() != 200) {
+                    fail("HTTP " + response.statusCode());
+                    return;
+                }
+                consume(lines.iterator(), start);
+            }
+        } catch (Exception e) {
+            fail(e.getClass().getSimpleName());
+        }
+    }
+
+    private void consume(Iterator<String> lines, long start) {
+        long last = 0;
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            long now = System.nanoTime();
+            if ("[DONE]".equals(data)) {
+                total.add(now - start);
+                succeeded.incrementAndGet();
+                return;
+            }
+            if (data.startsWith("{\"error\"")) {
+                fail("error 事件");
+                return;
+            }
+            if (last == 0) {
+                timeToFirstChunk.add(now - start);
+            } else {
+                interChunk.add(now - last);
+            }
+            last = now;
+            chunks.incrementAndGet();
+        }
+        fail("未收到 [DONE]");
+    }
+
+    private void fail(String reason) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            failures.computeIfAbsent(reason, k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    private void sampleServer() {
+        heapUsed.sample();
+        liveThreads.sample();
+        activeStreams.sample();
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("耗时 %.1f s，成功 %d，失败 %d%n", seconds, succeeded.get(), failed.get());
+        failures.forEach((reason, count) -> System.out.printf("  失败原因 %s：%d%n", reason, count.get()));
+        System.out.printf("吞吐量      %.1f 流/s，%.1f 片段/s%n", succeeded.get() / seconds, chunks.get() / seconds);
+        System.out.printf("首片段延迟  %s%n", timeToFirstChunk.summary());
+        System.out.printf("片段间隔    %s%n", interChunk.summary());
+        System.out.printf("完整响应    %s%n", total.summary());
+        System.out.printf("服务端堆内存 峰值 %.1f MB，最终 %.1f MB%n", heapUsed.max / 1048576, heapUsed.last / 1048576);
+        System.out.printf("服务端线程数 峰值 %.0f，最终 %.0f%n", liveThreads.max, liveThreads.last);
+        System.out.printf("进行中的流   峰值 %.0f%n", activeStreams.max);
+    }
+
+    /**
+     * 延迟样本（纳秒），压测结束后统一排序计算分位数
+     */
+    private static final class Samples {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized String summary() {
+            if (size == 0) {
+                return "无样本";
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format("p50 %.1f ms，p90 %.1f ms，p99 %.1f ms，最大 %.1f ms（%d 个样本）",
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    sorted[sorted.length - 1] / 1e6, size);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    /**
+     * 通过 actuator 采样的服务端指标，记录峰值和最近一次的值
+     */
+    private final class ServerGauge {
+
+        private final String uri;
+        private volatile double max;
+        private volatile double last;
+
+        ServerGauge(String name, String tag) {
+            this.uri = baseUrl + "/actuator/metrics/" + name + (tag == null ? "" : "?tag=" + tag);
+        }
+
+        void sample() {
+            try {
+                HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    return;
+                }
+                JsonNode measurement = OBJECT_MAPPER.readTree(response.body()).path("measurements").path(0);
+                last = measurement.path("value").asDouble();
+                max = Math.max(max, last);
+            } catch (Exception e) {
+                // 采样失败不影响压测
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.mifazhan.benchmark;
+
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.service.ChatService;
+import com.mifazhan.service.SessionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ChatServiceImpl.chatStream 单轮对话基准
+ * <p>
+ * 模型替换为 {@link StubChatModel}，测得的是会话检查、上下文组装、消息入库和片段回调等服务自身的开销。
+ * tokensPerSecond 为 0 时模型不做延迟；设为实际模型的速率（如 -p tokensPerSecond=50）可观察端到端耗时。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatStreamBenchmark {
+
+    @Param({"32"})
+    private int tokensPerReply;
+
+    @Param({"0"})
+    private int tokensPerSecond;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private Long sessionId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkContext.start(new StubChatModel(tokensPerReply, tokensPerSecond), Map.of());
+        chatService = context.getBean(ChatService.class);
+
+        Session session = new Session();
+        session.setTitle("benchmark");
+        context.getBean(SessionService.class).save(session);
+        sessionId = session.getSessionId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public void chatStream(Blackhole blackhole) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> error = new AtomicReference<>();
+        chatService.chatStream(sessionId, "介绍一下你自己",
+                blackhole::consume,
+                done::countDown,
+                message -> {
+                    error.set(message);
+                    done.countDown();
+                });
+        if (!done.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("对话未在 30 秒内完成");
+        }
+        if (error.get() != null) {
+            throw new IllegalStateException(error.get());
+        }
+    }
+}
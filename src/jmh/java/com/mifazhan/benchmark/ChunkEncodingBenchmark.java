@@ -0,0 +1,84 @@
+package com.mifazhan.benchmark;
+
+import com.mifazhan.support.stream.ChatCompletionEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SSE 片段编码基准：对比原先的 String.format + 链式 replace 与 ChatCompletionEncoder
+ * <p>
+ * 配合 -prof gc 查看每次编码的分配量：mvn -Pbenchmark test-compile exec:exec -Djmh.args="ChunkEncoding -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkEncodingBenchmark {
+
+    private static final String MODEL_NAME = "glm-4.5-flash";
+
+    /**
+     * 典型的模型增量片段
+     */
+    private static final Map<String, String> SAMPLES = Map.of(
+            "cjk", "你好，我是一个智能助手",
+            "code", "```java\n\tSystem.out.println(\"hi\");\n```"
+    );
+
+    @Param({"cjk", "code"})
+    private String sample;
+
+    private String content;
+    private ChatCompletionEncoder encoder;
+
+    @Setup
+    public void setup() {
+        content = SAMPLES.get(sample);
+        encoder = new ChatCompletionEncoder(MODEL_NAME);
+    }
+
+    @Benchmark
+    public String legacyFormat() {
+        long created = System.currentTimeMillis() / 1000;
+        return String.format(
+                "{\"id\":\"chatcmpl-%d\",\"object\":\"chat.completion.chunk\",\"created\":%d,\"model\":\"%s\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"%s\"},\"finish_reason\":null}]}",
+                System.currentTimeMillis(),
+                created,
+                MODEL_NAME,
+                legacyEscapeJson(content)
+        );
+    }
+
+    @Benchmark
+    public String encoder() {
+        return encoder.encode(content);
+    }
+
+    /**
+     * 原 ChatController.escapeJson 的实现
+     */
+    private static String legacyEscapeJson(String str) {
+        if (str == null) {
+            return "";
+        }
+        return str.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,86 @@
+package com.mifazhan.benchmark;
+
+import com.mifazhan.domain.dto.MessageDTO;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.service.MessageService;
+import com.mifazhan.service.SessionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageServiceImpl.getBySessionId 基准，数据存放在 MySQL 兼容模式的 H2 内存库中
+ * <p>
+ * historyCache=false 时每次都走数据库查询与转换，true 时测得的是缓存命中的开销。
+ * H2 与生产 MySQL 的绝对耗时不同，结果用于版本之间的相对比较。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageHistoryBenchmark {
+
+    @Param({"50", "500"})
+    private int messages;
+
+    @Param({"false", "true"})
+    private boolean historyCache;
+
+    private ConfigurableApplicationContext context;
+    private MessageService messageService;
+    private Long sessionId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkContext.start(new StubChatModel(1, 0),
+                Map.of("chat.history-cache.enabled", historyCache));
+        messageService = context.getBean(MessageService.class);
+
+        Session session = new Session();
+        session.setTitle("benchmark");
+        context.getBean(SessionService.class).save(session);
+        sessionId = session.getSessionId();
+
+        LocalDateTime start = LocalDateTime.now().withNano(0).minusSeconds(messages);
+        List<Message> batch = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            Message message = new Message();
+            message.setSessionId(sessionId);
+            message.setRole(i % 2 == 0 ? "user" : "assistant");
+            message.setContent("第 " + i + " 条消息，用于模拟一段长度适中的对话内容。");
+            message.setCreationTime(start.plusSeconds(i));
+            batch.add(message);
+        }
+        messageService.saveBatch(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public List<MessageDTO> getBySessionId() {
+        return messageService.getBySessionId(sessionId);
+    }
+}
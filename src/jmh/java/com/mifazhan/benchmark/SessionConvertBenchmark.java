@@ -0,0 +1,60 @@
+package com.mifazhan.benchmark;
+
+import com.mifazhan.domain.convert.SessionConvert;
+import com.mifazhan.domain.convert.SessionConvertImpl;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.vo.SessionVO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionConvert 映射基准，size 对应会话列表每页条数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionConvertBenchmark {
+
+    @Param({"20", "100"})
+    private int size;
+
+    private final SessionConvert sessionConvert = new SessionConvertImpl();
+    private List<Session> sessions;
+
+    @Setup
+    public void setup() {
+        LocalDateTime now = LocalDateTime.now();
+        sessions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Session session = new Session();
+            session.setSessionId((long) i);
+            session.setTitle("会话标题 " + i);
+            session.setCreationTime(now.minusMinutes(i));
+            session.setUpdateTime(now);
+            session.setDeleted(0);
+            sessions.add(session);
+        }
+    }
+
+    @Benchmark
+    public List<SessionVO> toSessionVOList() {
+        return sessionConvert.toSessionVOList(sessions);
+    }
+}
@@ -0,0 +1,57 @@
+package com.mifazhan.benchmark;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 按固定速率返回预置片段的模型桩
+ * <p>
+ * 每个片段对应一个 token，tokensPerSecond 不大于 0 时不做延迟，用于单独测量服务自身的开销。
+ */
+final class StubChatModel implements ChatModel {
+
+    /**
+     * 典型的中文回复片段，循环使用
+     */
+    private static final String[] TOKENS = {
+            "你好", "，", "我是", "一个", "智能", "助手", "。", "有什么", "可以", "帮", "你", "的", "吗", "？"
+    };
+
+    private final int tokensPerReply;
+    private final int tokensPerSecond;
+
+    StubChatModel(int tokensPerReply, int tokensPerSecond) {
+        this.tokensPerReply = tokensPerReply;
+        this.tokensPerSecond = tokensPerSecond;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < tokensPerReply; i++) {
+            reply.append(TOKENS[i % TOKENS.length]);
+        }
+        return response(reply.toString());
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        Flux<ChatResponse> chunks = Flux.range(0, tokensPerReply)
+                .map(i -> response(TOKENS[i % TOKENS.length]));
+        if (tokensPerSecond <= 0) {
+            return chunks;
+        }
+        return chunks.delayElements(Duration.ofNanos(1_000_000_000L / tokensPerSecond));
+    }
+
+    private static ChatResponse response(String content) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(content))));
+    }
+}
@@ -0,0 +1,45 @@
+-- 基准测试使用的 H2 表结构（MySQL 兼容模式），与 sql/spring_ai.sql 保持一致
+DROP TABLE IF EXISTS `message`;
+CREATE TABLE `message` (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `session_id` bigint NOT NULL,
+  `role` varchar(20) NOT NULL,
+  `content` text NOT NULL,
+  `creation_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `deleted` tinyint NOT NULL DEFAULT 0,
+  PRIMARY KEY (`id`)
+);
+CREATE INDEX `idx_session_time` ON `message` (`session_id`, `creation_time`, `id`);
+
+DROP TABLE IF EXISTS `message_archive`;
+CREATE TABLE `message_archive` (
+  `session_id` bigint NOT NULL,
+  `message_count` int NOT NULL,
+  `last_message_id` bigint NOT NULL,
+  `raw_bytes` bigint NOT NULL,
+  `compressed_bytes` bigint NOT NULL,
+  `content` blob NOT NULL,
+  `archive_time` datetime NOT NULL,
+  PRIMARY KEY (`session_id`)
+);
+
+DROP TABLE IF EXISTS `session_summary`;
+CREATE TABLE `session_summary` (
+  `session_id` bigint NOT NULL,
+  `content` text NOT NULL,
+  `last_message_id` bigint NOT NULL,
+  `message_count` int NOT NULL,
+  `update_time` datetime NOT NULL,
+  PRIMARY KEY (`session_id`)
+);
+
+DROP TABLE IF EXISTS `session`;
+CREATE TABLE `session` (
+  `session_id` bigint NOT NULL AUTO_INCREMENT,
+  `title` varchar(255) NULL DEFAULT NULL,
+  `creation_time` datetime NOT NULL,
+  `update_time` datetime NOT NULL,
+  `deleted` tinyint NOT NULL DEFAULT 0,
+  PRIMARY KEY (`session_id`)
+);
+CREATE INDEX `idx_deleted_update_time` ON `session` (`deleted`, `update_time`, `session_id`);
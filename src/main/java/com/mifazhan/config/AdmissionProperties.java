@@ -0,0 +1,44 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 模型调用准入控制配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.admission")
+public class AdmissionProperties {
+
+    /**
+     * 是否启用，启用后按每分钟请求数和 token 数限制对模型的调用
+     */
+    private boolean enabled = false;
+
+    /**
+     * 每条线路每分钟最多发起的模型请求数，线路未单独配置时使用，0 表示不限制
+     */
+    private long requestsPerMinute = 0;
+
+    /**
+     * 每条线路每分钟最多消耗的 token 数（估算值，含提示词和回复），线路未单独配置时使用，0 表示不限制
+     */
+    private long tokensPerMinute = 0;
+
+    /**
+     * 调用前为回复预留的 token 数，调用结束后按实际回复长度多退少补
+     */
+    private int expectedReplyTokens = 512;
+
+    /**
+     * 最多排队等待配额的请求数，超过时直接拒绝
+     */
+    private int maxQueued = 200;
+
+    /**
+     * 排队等待配额的最长时间（毫秒）；预计等待超过该时间的请求直接拒绝，已排队的请求到期后拒绝
+     */
+    private long maxWaitMs = 10000;
+}
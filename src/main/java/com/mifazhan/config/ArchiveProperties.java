@@ -0,0 +1,39 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 冷会话消息归档配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.archive")
+public class ArchiveProperties {
+
+    /**
+     * 是否启用后台归档，关闭后已归档的会话仍可正常读取
+     */
+    private boolean enabled = false;
+
+    /**
+     * 会话超过多少天未更新视为冷会话
+     */
+    private int idleDays = 30;
+
+    /**
+     * 两次归档之间的间隔（秒）
+     */
+    private long intervalSeconds = 600;
+
+    /**
+     * 每次归档最多处理的会话数
+     */
+    private int maxSessionsPerRun = 200;
+
+    /**
+     * 两个会话之间的停顿（毫秒），降低对线上读写的影响
+     */
+    private long sessionPauseMs = 20;
+}
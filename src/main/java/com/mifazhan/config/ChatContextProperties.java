@@ -0,0 +1,77 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话上下文（历史消息）配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.context")
+public class ChatContextProperties {
+
+    /**
+     * 是否携带历史消息，关闭后只发送本轮用户消息
+     */
+    private boolean enabled = true;
+
+    /**
+     * 历史消息的 token 预算（估算值）
+     */
+    private int maxTokens = 4000;
+
+    /**
+     * 单个会话最多读取和保留的历史消息条数
+     */
+    private int maxMessages = 50;
+
+    /**
+     * 内存中最多保留的会话窗口数，超出后淘汰最久未使用的会话
+     */
+    private int maxCachedSessions = 10000;
+
+    /**
+     * 长会话摘要
+     */
+    private Summary summary = new Summary();
+
+    @Data
+    public static class Summary {
+        /**
+         * 是否启用，启用后长会话较早的对话压缩为摘要，之后的轮次发送摘要加最近的消息
+         */
+        private boolean enabled = false;
+
+        /**
+         * 摘要之后的历史消息超过多少 token（估算值）时触发摘要，应小于 maxTokens，避免消息在摘要前被挤出窗口
+         */
+        private int triggerTokens = 3000;
+
+        /**
+         * 摘要时原样保留的最近消息条数
+         */
+        private int keepRecentMessages = 6;
+
+        /**
+         * 摘要的最大字数
+         */
+        private int maxChars = 500;
+
+        /**
+         * 执行摘要的线程数
+         */
+        private int threads = 1;
+
+        /**
+         * 等待执行的摘要任务上限，超出时丢弃，待会话下一轮结束后再触发
+         */
+        private int queueCapacity = 100;
+
+        /**
+         * 单次摘要调用模型的超时时间（秒）
+         */
+        private long timeoutSeconds = 60;
+    }
+}
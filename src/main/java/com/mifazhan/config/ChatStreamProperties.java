@@ -0,0 +1,210 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 流式对话（SSE）执行配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.stream")
+public class ChatStreamProperties {
+
+    /**
+     * 执行模式：VIRTUAL 虚拟线程（默认），BOUNDED 有界线程池
+     */
+    private ExecutorMode executorMode = ExecutorMode.VIRTUAL;
+
+    /**
+     * 同时进行中的流式对话上限，超出后直接拒绝
+     */
+    private int maxConcurrentStreams = 1000;
+
+    /**
+     * 关闭时等待任务结束的最长时间（毫秒）
+     */
+    private long shutdownTimeoutMs = 10000;
+
+    /**
+     * 模型两次输出（含首个片段）之间的最长等待时间（毫秒），超时后终止本轮对话，0 表示不限制
+     */
+    private long idleTimeoutMs = 60000;
+
+    /**
+     * 单轮对话的最长时间（毫秒），超时后终止本轮对话，0 表示不限制
+     */
+    private long totalTimeoutMs = 300000;
+
+    /**
+     * 对话被取消、超时或出错时，已生成的部分回复的处理方式
+     */
+    private PartialReplyPolicy partialReplyPolicy = PartialReplyPolicy.SAVE;
+
+    /**
+     * 有界线程池配置，仅 BOUNDED 模式生效
+     */
+    private Pool pool = new Pool();
+
+    /**
+     * 片段合并配置
+     */
+    private Coalesce coalesce = new Coalesce();
+
+    /**
+     * 断线续传配置
+     */
+    private Replay replay = new Replay();
+
+    /**
+     * 相同请求合并配置
+     */
+    private SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 同一会话的对话轮次调度配置
+     */
+    private Turn turn = new Turn();
+
+    public enum ExecutorMode {
+        VIRTUAL,
+        BOUNDED
+    }
+
+    public enum PartialReplyPolicy {
+        /**
+         * 丢弃，不保存
+         */
+        DISCARD,
+        /**
+         * 作为 AI 回复保存
+         */
+        SAVE
+    }
+
+    public enum TurnPolicy {
+        /**
+         * 排队，等前一轮结束后再执行
+         */
+        QUEUE,
+        /**
+         * 拒绝新的请求
+         */
+        REJECT,
+        /**
+         * 取消进行中和排队中的轮次，执行新的请求
+         */
+        CANCEL_PREVIOUS
+    }
+
+    @Data
+    public static class Pool {
+        /**
+         * 核心线程数
+         */
+        private int coreSize = 16;
+
+        /**
+         * 最大线程数
+         */
+        private int maxSize = 64;
+
+        /**
+         * 等待队列容量
+         */
+        private int queueCapacity = 256;
+
+        /**
+         * 空闲线程存活时间（秒）
+         */
+        private int keepAliveSeconds = 60;
+    }
+
+    @Data
+    public static class Coalesce {
+        /**
+         * 是否默认启用片段合并，请求中可单独覆盖
+         */
+        private boolean enabled = false;
+
+        /**
+         * 合并时间窗口（毫秒），从缓冲第一个片段开始计时
+         */
+        private int windowMs = 20;
+
+        /**
+         * 缓冲内容达到该字节数（UTF-8）时立即发送
+         */
+        private int maxBytes = 256;
+
+        /**
+         * 请求中可指定的最大时间窗口（毫秒），超出时按该值处理
+         */
+        private int maxWindowMs = 1000;
+
+        /**
+         * 请求中可指定的最大字节阈值，超出时按该值处理
+         */
+        private int maxBytesLimit = 65536;
+
+        /**
+         * 定时发送所用的线程数
+         */
+        private int schedulerThreads = 2;
+    }
+
+    @Data
+    public static class Replay {
+        /**
+         * 是否启用断线续传，关闭后客户端断开即取消模型请求
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个流最多缓存的事件数，超出后丢弃最早的事件
+         */
+        private int maxEventsPerStream = 2048;
+
+        /**
+         * 所有流缓存内容的内存上限（字节），超出后优先淘汰最早结束的流
+         */
+        private long maxBytes = 32 * 1024 * 1024;
+
+        /**
+         * 流结束后缓存保留的时间（秒）
+         */
+        private int ttlSeconds = 300;
+
+        /**
+         * 所有客户端断开后继续等待重连的时间（毫秒），超时仍无人重连则取消模型请求
+         */
+        private long graceMs = 15000;
+    }
+
+    @Data
+    public static class SingleFlight {
+        /**
+         * 是否合并历史消息和用户消息都相同的并发请求，共用一次模型调用
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Turn {
+        /**
+         * 同一会话已有进行中的对话时，新请求的处理方式
+         */
+        private TurnPolicy policy = TurnPolicy.QUEUE;
+
+        /**
+         * 每个会话最多排队的请求数，超出后拒绝，仅 QUEUE 生效
+         */
+        private int maxQueued = 4;
+
+        /**
+         * 排队等待的最长时间（毫秒），超时后拒绝，0 表示不限制
+         */
+        private long queueTimeoutMs = 60000;
+    }
+}
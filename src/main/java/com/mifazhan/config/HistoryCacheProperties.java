@@ -0,0 +1,34 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话历史消息缓存配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.history-cache")
+public class HistoryCacheProperties {
+
+    /**
+     * 是否启用缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最多缓存的会话数
+     */
+    private int maxSessions = 5000;
+
+    /**
+     * 缓存内容占用内存上限（字节）
+     */
+    private long maxWeightBytes = 64L * 1024 * 1024;
+
+    /**
+     * 会话未被访问多久后过期（分钟）
+     */
+    private long expireAfterAccessMinutes = 30;
+}
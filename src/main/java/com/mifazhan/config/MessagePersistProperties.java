@@ -0,0 +1,59 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 消息持久化（异步批量写入）配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.persist")
+public class MessagePersistProperties {
+
+    /**
+     * 是否启用异步批量写入，关闭后每次写入都直接落库
+     */
+    private boolean writeBehind = true;
+
+    /**
+     * 单批写入的最大条数，队列积压达到该值时立即触发刷盘
+     */
+    private int batchSize = 100;
+
+    /**
+     * 定时刷盘间隔（毫秒）
+     */
+    private long flushIntervalMs = 200;
+
+    /**
+     * 待写入队列容量，队列满时退化为同步写入
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * 关闭应用时是否同步刷出队列中剩余的数据
+     */
+    private boolean flushOnShutdown = true;
+
+    /**
+     * 单条消息因自身数据问题写入失败后最多随后续刷盘重试的次数，仍失败时写入死信文件；数据库不可用导致的失败不计入
+     */
+    private int maxRetries = 3;
+
+    /**
+     * 数据库不可用时持续重试的最长时间（毫秒），超过后写入死信文件，0 表示一直重试
+     */
+    private long retryWindowMs = 300000;
+
+    /**
+     * 数据库不可用时定时刷盘的最大退避间隔（毫秒），退避间隔从 flushIntervalMs 起逐次翻倍
+     */
+    private long maxBackoffMs = 5000;
+
+    /**
+     * 死信文件，每行一条最终写入失败的消息（JSON），需人工核对后补录
+     */
+    private String deadLetterFile = "./data/message-dead-letter.jsonl";
+}
@@ -0,0 +1,41 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地模拟模型服务配置，仅 mock-llm profile 生效
+ */
+@Data
+@Component
+@Profile("mock-llm")
+@ConfigurationProperties(prefix = "mock-llm")
+public class MockLlmProperties {
+
+    /**
+     * 模型名称，写入返回的片段中
+     */
+    private String model = "mock-llm";
+
+    /**
+     * 首个 token 的延迟（毫秒）
+     */
+    private long timeToFirstTokenMs = 300;
+
+    /**
+     * 首个 token 之后每秒输出的 token 数，不大于 0 时不做延迟
+     */
+    private int tokensPerSecond = 50;
+
+    /**
+     * 每次回复的 token 数
+     */
+    private int replyTokens = 100;
+
+    /**
+     * 请求失败的概率（0~1），失败时返回 500 和 OpenAI 格式的错误
+     */
+    private double errorRate = 0.0;
+}
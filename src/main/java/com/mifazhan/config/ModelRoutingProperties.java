@@ -0,0 +1,90 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多模型线路路由配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.routing")
+public class ModelRoutingProperties {
+
+    /**
+     * 是否启用多线路路由，关闭或未配置线路时只使用 spring.ai.openai 的配置
+     */
+    private boolean enabled = false;
+
+    /**
+     * 模型线路，均需兼容 OpenAI chat completions 接口
+     */
+    private List<Route> routes = new ArrayList<>();
+
+    /**
+     * 首字延迟指数加权平均的平滑系数（0~1），越大越偏重最近的请求
+     */
+    private double ewmaAlpha = 0.3;
+
+    /**
+     * 单次请求最多尝试的线路数，首个片段之前出错时切换到下一条线路
+     */
+    private int maxAttempts = 2;
+
+    /**
+     * 单条线路等待首个片段的最长时间（毫秒），超时后视为失败并切换线路，0 表示不限制
+     */
+    private long firstTokenTimeoutMs = 0;
+
+    /**
+     * 连续失败多少次后熔断线路，返回 429 时立即熔断
+     */
+    private int failureThreshold = 5;
+
+    /**
+     * 熔断持续时间（秒），期满后放行一个探测请求，成功则恢复
+     */
+    private long openSeconds = 30;
+
+    @Data
+    public static class Route {
+        /**
+         * 线路名称，用作监控指标标签
+         */
+        private String name;
+
+        /**
+         * 服务基础 URL
+         */
+        private String baseUrl;
+
+        /**
+         * API 密钥
+         */
+        private String apiKey;
+
+        /**
+         * 对话补全接口路径
+         */
+        private String completionsPath = "/v1/chat/completions";
+
+        /**
+         * 模型名称
+         */
+        private String model;
+
+        /**
+         * 本线路每分钟请求数配额，未配置时使用 chat.admission.requests-per-minute，0 表示不限制
+         */
+        private Long requestsPerMinute;
+
+        /**
+         * 本线路每分钟 token 数配额，未配置时使用 chat.admission.tokens-per-minute，0 表示不限制
+         */
+        private Long tokensPerMinute;
+    }
+}
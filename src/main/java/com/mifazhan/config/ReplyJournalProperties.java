@@ -0,0 +1,44 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * AI 回复本地日志配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.journal")
+public class ReplyJournalProperties {
+
+    /**
+     * 是否启用，启用后 AI 回复先写入本地日志再入库，数据库不可用时不丢失
+     */
+    private boolean enabled = false;
+
+    /**
+     * 日志文件目录
+     */
+    private String dir = "./data/reply-journal";
+
+    /**
+     * 单个日志段文件的大小（字节）
+     */
+    private int segmentSizeBytes = 16 * 1024 * 1024;
+
+    /**
+     * 定时将日志刷到磁盘的间隔（毫秒），0 表示每次写入都立即刷盘
+     */
+    private long forceIntervalMs = 200;
+
+    /**
+     * 写入日志后超过该时间（秒）仍未确认入库的回复会重新提交
+     */
+    private long retryAfterSeconds = 60;
+
+    /**
+     * 同一条回复最多重新提交的次数（含启动时的恢复），仍未确认入库时写入死信文件并从日志中移除
+     */
+    private int maxResubmits = 5;
+}
@@ -0,0 +1,67 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 无会话首轮提问的回复缓存配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.response-cache")
+public class ResponseCacheProperties {
+
+    /**
+     * 是否启用缓存
+     */
+    private boolean enabled = false;
+
+    /**
+     * 回复写入后的有效期（秒）
+     */
+    private long ttlSeconds = 3600;
+
+    /**
+     * 最多缓存的回复数
+     */
+    private int maxEntries = 10000;
+
+    /**
+     * 缓存内容占用内存上限（字节）
+     */
+    private long maxWeightBytes = 32L * 1024 * 1024;
+
+    /**
+     * 超过该长度（字符）的回复不缓存
+     */
+    private int maxReplyChars = 16000;
+
+    /**
+     * 回放缓存时每个片段的字符数
+     */
+    private int replayChunkChars = 4;
+
+    /**
+     * 回放缓存时片段之间的间隔（毫秒），0 表示一次性发出
+     */
+    private long replayIntervalMs = 0;
+
+    /**
+     * 近似提问匹配配置
+     */
+    private Similarity similarity = new Similarity();
+
+    @Data
+    public static class Similarity {
+        /**
+         * 是否启用内置的近似提问匹配，精确匹配未命中时查找相似度最高的已缓存提问
+         */
+        private boolean enabled = false;
+
+        /**
+         * 判定为近似提问的最低相似度（0~1）
+         */
+        private double threshold = 0.95;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 历史消息全文检索配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.search")
+public class SearchProperties {
+
+    /**
+     * 是否启用，启用后消息落库时同步写入本地倒排索引
+     */
+    private boolean enabled = false;
+
+    /**
+     * 索引目录
+     */
+    private String dir = "./data/search-index";
+
+    /**
+     * 新写入的消息对检索可见的最大延迟（毫秒）
+     */
+    private long refreshIntervalMs = 1000;
+
+    /**
+     * 索引提交到磁盘的间隔（秒），进程崩溃时最多丢失这段时间内的索引更新
+     */
+    private long commitIntervalSeconds = 30;
+
+    /**
+     * 单次检索最多返回的条数
+     */
+    private int maxResults = 50;
+
+    /**
+     * 关键词切分出的词元（中文为相邻二字组）至少命中的比例，1 表示全部命中
+     */
+    private float minimumShouldMatch = 0.6f;
+
+    /**
+     * 摘要的字符数
+     */
+    private int snippetChars = 80;
+
+    /**
+     * 索引为空时是否在后台从消息表补建索引
+     */
+    private boolean backfillOnEmpty = true;
+
+    /**
+     * 补建索引时每批读取的消息数
+     */
+    private int backfillBatchSize = 1000;
+}
@@ -0,0 +1,49 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 已删除会话的后台清理配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.purge")
+public class SessionPurgeProperties {
+
+    /**
+     * 是否启用后台清理，关闭后已删除会话的消息保留在库中
+     */
+    private boolean enabled = true;
+
+    /**
+     * 两次清理之间的间隔（秒）
+     */
+    private long intervalSeconds = 60;
+
+    /**
+     * 会话删除后等待多久再清理（秒），留给尚未落库的异步写入
+     */
+    private long graceSeconds = 60;
+
+    /**
+     * 单条 DELETE 语句最多删除的消息数
+     */
+    private int chunkSize = 500;
+
+    /**
+     * 两条 DELETE 语句之间的停顿（毫秒），降低对线上读写的影响
+     */
+    private long chunkPauseMs = 50;
+
+    /**
+     * 每次清理最多处理的会话数
+     */
+    private int maxSessionsPerRun = 100;
+
+    /**
+     * 批量删除接口单次最多接受的会话数
+     */
+    private int maxBatchDelete = 1000;
+}
@@ -0,0 +1,64 @@
+package com.mifazhan.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话标题生成配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.title")
+public class TitleProperties {
+
+    /**
+     * 是否启用，启用后新会话在后台由模型生成标题，生成前后均以首条消息截断的标题兜底
+     */
+    private boolean enabled = false;
+
+    /**
+     * 收集新会话的间隔（毫秒），每个间隔批量生成一次
+     */
+    private long batchIntervalMs = 2000;
+
+    /**
+     * 单批最多生成的标题数，待生成的会话达到该数量时立即开始
+     */
+    private int batchSize = 16;
+
+    /**
+     * 最多等待生成标题的会话数，超出时保留截断的标题
+     */
+    private int maxQueued = 1000;
+
+    /**
+     * 同一批内并发调用模型的数量
+     */
+    private int concurrency = 4;
+
+    /**
+     * 单次调用模型最多输出的 token 数
+     */
+    private int maxTokens = 32;
+
+    /**
+     * 标题的最大字数
+     */
+    private int maxChars = 20;
+
+    /**
+     * 提示词中首条消息的最大字数
+     */
+    private int maxPromptChars = 500;
+
+    /**
+     * 单次调用模型的超时时间（秒）
+     */
+    private long timeoutSeconds = 30;
+
+    /**
+     * 会话事件订阅的心跳间隔（秒），用于发现并清理已断开的连接，0 表示不发送
+     */
+    private long eventsHeartbeatSeconds = 15;
+}
@@ -1,19 +1,37 @@
 package com.mifazhan.controller;
 
 import com.mifazhan.domain.dto.ChatMessageDTO;
+import com.mifazhan.exception.BusinessException;
 import com.mifazhan.service.ChatService;
+import com.mifazhan.support.route.ModelRouter;
+import com.mifazhan.support.stream.ChatCompletionEncoder;
+import com.mifazhan.support.stream.ChatMetrics;
+import com.mifazhan.support.stream.ChatStreamExecutor;
+import com.mifazhan.support.stream.ChunkCoalescer;
+import com.mifazhan.support.stream.ChunkCoalescerFactory;
+import com.mifazhan.support.stream.ReplayableStream;
+import com.mifazhan.support.stream.StreamReplayRegistry;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @RestController
@@ -22,86 +40,232 @@ import java.util.concurrent.Executors;
 public class ChatController {
 
     private final ChatService chatService;
-    // 使用单独的线程池来处理 SSE 请求，避免阻塞 Servlet 线程
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-    private static final String MODEL_NAME = "glm-4.5-flash";
+    // 使用独立的执行器处理 SSE 请求，避免阻塞 Servlet 线程，并限制同时进行中的流数量
+    private final ChatStreamExecutor chatStreamExecutor;
+    private final ChunkCoalescerFactory chunkCoalescerFactory;
+    private final ChatMetrics chatMetrics;
+    private final StreamReplayRegistry streamReplayRegistry;
+    private final ModelRouter modelRouter;
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
 
     /**
      * 发送消息并获取流式响应
+     * <p>
+     * 每个事件都带有 id，断线后携带 Last-Event-ID 请求头重新调用本接口（或续传接口），
+     * 会接续原来的回复而不会重新调用模型。
      *
      * @param chatMessageDTO 聊天消息
-     * @return SseEmitter
+     * @param lastEventId    断线前收到的最后一个事件 id，为空表示发起新的对话
+     * @param cacheControl   no-cache 表示不读取回复缓存，no-store 表示既不读取也不写入
+     * @return SseEmitter，超出并发上限时返回 429，续传的流已过期时返回 410
      */
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter chat(@RequestBody ChatMessageDTO chatMessageDTO) {
+    public ResponseEntity<SseEmitter> chat(@Valid @RequestBody ChatMessageDTO chatMessageDTO,
+                                           @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+                                           @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) {
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            return resume(lastEventId);
+        }
         // 设置超时时间，0 表示不过期
         SseEmitter emitter = new SseEmitter(0L);
 
-        executorService.execute(() -> {
-            try {
-                chatService.chatStream(
-                        chatMessageDTO.getSessionId(),
-                        chatMessageDTO.getContent(),
-                        chunk -> sendChunk(emitter, chunk, false),
-                        () -> {
-                            sendChunk(emitter, "", true);
-                            emitter.complete();
-                        },
-                        error -> {
-                            sendError(emitter, error);
-                            emitter.complete();
-                        }
-                );
-            } catch (Exception e) {
-                log.error("SSE 处理异常", e);
-                sendError(emitter, "系统异常: " + e.getMessage());
-                emitter.completeWithError(e);
+        ChatStreamExecutor.StreamPermit permit = chatStreamExecutor.tryAcquire();
+        if (permit == null) {
+            return rejectOverload(emitter);
+        }
+        // 模型调用的生命周期由流管理：正常结束或所有客户端断开且宽限期内无人重连时归还许可
+        ReplayableStream stream = streamReplayRegistry.open();
+        stream.onTermination(permit::release);
+        attach(emitter, stream);
+
+        // 每次补全使用独立的编码器，所有片段共用同一个 id
+        // 路由确定实际使用的模型后，之后的片段改用该模型名称
+        ChatCompletionEncoder encoder = new ChatCompletionEncoder(modelRouter.defaultModel());
+        ChatService.ChunkCallback sink = new ChatService.ChunkCallback() {
+            @Override
+            public void onChunk(String chunk) {
+                stream.append(encoder.encode(chunk));
+            }
+
+            @Override
+            public void onModel(String model) {
+                encoder.setModel(model);
             }
+        };
+        // 可选的片段合并，结束和出错前先发出缓冲中的内容
+        ChunkCoalescer coalescer = chunkCoalescerFactory.create(
+                sink,
+                chatMessageDTO.getCoalesceWindowMs(),
+                chatMessageDTO.getCoalesceMaxBytes());
+        try {
+            chatStreamExecutor.execute(() -> {
+                try {
+                    // 若此时流已被取消，返回的订阅会被立即取消
+                    stream.setUpstream(chatService.chatStream(
+                            chatMessageDTO.getSessionId(),
+                            chatMessageDTO.getContent(),
+                            ChatService.CacheMode.fromCacheControl(cacheControl),
+                            coalescer,
+                            () -> {
+                                coalescer.flush();
+                                stream.complete("[DONE]");
+                            },
+                            error -> {
+                                coalescer.flush();
+                                stream.complete(ChatCompletionEncoder.encodeError(error, "invalid_request_error"));
+                            }
+                    ));
+                } catch (Exception e) {
+                    log.error("SSE 处理异常", e);
+                    stream.complete(ChatCompletionEncoder.encodeError("系统异常: " + e.getMessage(), "invalid_request_error"));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stream.cancel();
+            return rejectOverload(emitter);
+        }
+
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * 断线续传：补发 Last-Event-ID 之后的事件，并继续接收进行中的回复
+     * <p>
+     * 供无法在 POST 请求中携带请求头的客户端使用，也可通过 lastEventId 参数传入。
+     *
+     * @param lastEventId 断线前收到的最后一个事件 id
+     * @return SseEmitter，流已过期时返回 410
+     */
+    @GetMapping(value = "/stream/resume", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> resumeStream(@RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+                                                   @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        return resume(lastEventId != null && !lastEventId.isBlank() ? lastEventId : lastEventIdParam);
+    }
+
+    private ResponseEntity<SseEmitter> resume(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(0L);
+        ChatMetrics.OpenEmitter openEmitter = chatMetrics.emitterOpened();
+        ReplayableStream.Listener listener = listener(emitter, openEmitter);
+        ReplayableStream stream = streamReplayRegistry.resume(lastEventId, listener);
+        if (stream == null) {
+            log.info("续传失败，流不存在或已过期，Last-Event-ID={}", lastEventId);
+            openEmitter.close();
+            sendError(emitter, "流已过期，请重新发送消息", "stream_expired");
+            return ResponseEntity.status(HttpStatus.GONE).body(emitter);
+        }
+        bindLifecycle(emitter, stream, listener, openEmitter);
+        if (stream.isFinished()) {
+            // 客户端已收到最后一个事件，或刚补发完毕
+            emitter.complete();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * 将 SseEmitter 从头订阅到新建的流上
+     */
+    private void attach(SseEmitter emitter, ReplayableStream stream) {
+        ChatMetrics.OpenEmitter openEmitter = chatMetrics.emitterOpened();
+        ReplayableStream.Listener listener = listener(emitter, openEmitter);
+        bindLifecycle(emitter, stream, listener, openEmitter);
+        stream.subscribe(0, listener);
+    }
+
+    /**
+     * 连接结束时取消订阅；客户端断开不会立即取消模型请求，而是由流在宽限期后决定
+     */
+    private void bindLifecycle(SseEmitter emitter, ReplayableStream stream, ReplayableStream.Listener listener,
+                               ChatMetrics.OpenEmitter openEmitter) {
+        Runnable onClose = () -> {
+            stream.unsubscribe(listener);
+            openEmitter.close();
+        };
+        emitter.onCompletion(onClose);
+        emitter.onTimeout(onClose);
+        emitter.onError(error -> {
+            openEmitter.disconnected();
+            onClose.run();
         });
+    }
 
-        return emitter;
+    /**
+     * 把流事件写入 SseEmitter 的接收方，写入失败视为客户端已断开
+     */
+    private ReplayableStream.Listener listener(SseEmitter emitter, ChatMetrics.OpenEmitter openEmitter) {
+        return (eventId, data, last) -> {
+            try {
+                emitter.send(SseEmitter.event().id(eventId).data(data));
+                if (last) {
+                    emitter.complete();
+                }
+                return true;
+            } catch (IOException e) {
+                log.warn("SSE 发送消息失败: {}", e.getMessage());
+                // 连接已断开时容器不一定回调 onCompletion，这里直接登记关闭
+                openEmitter.disconnected();
+                openEmitter.close();
+                emitter.completeWithError(e);
+                return false;
+            } catch (IllegalStateException e) {
+                // 连接已结束
+                return false;
+            }
+        };
     }
 
-    private void sendChunk(SseEmitter emitter, String content, boolean done) {
-        try {
-            if (done) {
-                emitter.send(SseEmitter.event().data("[DONE]"));
-            } else {
-                long created = System.currentTimeMillis() / 1000;
-                String json = String.format(
-                        "{\"id\":\"chatcmpl-%d\",\"object\":\"chat.completion.chunk\",\"created\":%d,\"model\":\"%s\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"%s\"},\"finish_reason\":null}]}",
-                        System.currentTimeMillis(),
-                        created,
-                        MODEL_NAME,
-                        escapeJson(content)
-                );
-                emitter.send(SseEmitter.event().data(json));
+    /**
+     * 发送消息并获取流式响应（响应式版本）
+     * <p>
+     * 全程不占用执行器线程，客户端断开时自动取消上游模型请求。
+     *
+     * @param chatMessageDTO 聊天消息
+     * @param cacheControl   no-cache 表示不读取回复缓存，no-store 表示既不读取也不写入
+     * @return SSE 事件流
+     */
+    @PostMapping(value = "/stream/flux", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> chatFlux(@Valid @RequestBody ChatMessageDTO chatMessageDTO,
+                                                  @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) {
+        return Flux.defer(() -> {
+            ChatCompletionEncoder encoder = new ChatCompletionEncoder(modelRouter.defaultModel());
+            ChatMetrics.OpenEmitter openEmitter = chatMetrics.emitterOpened();
+            return chatService.chatFlux(chatMessageDTO.getSessionId(), chatMessageDTO.getContent(),
+                            ChatService.CacheMode.fromCacheControl(cacheControl))
+                    .map(chunk -> {
+                        if (chunk.isDone()) {
+                            return ServerSentEvent.builder("[DONE]").build();
+                        }
+                        encoder.setModel(chunk.getModel());
+                        return ServerSentEvent.builder(encoder.encode(chunk.getContent())).build();
+                    })
+                    .doOnCancel(openEmitter::disconnected)
+                    .doFinally(signal -> openEmitter.close());
+        }).onErrorResume(error -> {
+            if (error instanceof BusinessException) {
+                return Mono.just(ServerSentEvent.builder(ChatCompletionEncoder.encodeError(error.getMessage(), "invalid_request_error")).build());
             }
-        } catch (IOException e) {
-            log.warn("SSE 发送消息失败: {}", e.getMessage());
-            emitter.completeWithError(e);
-        }
+            log.error("响应式 SSE 处理异常", error);
+            return Mono.just(ServerSentEvent.builder(ChatCompletionEncoder.encodeError("AI 服务异常: " + error.getMessage(), "invalid_request_error")).build());
+        });
     }
 
-    private void sendError(SseEmitter emitter, String errorMessage) {
+    /**
+     * 服务过载时快速拒绝，返回 429 和一条 SSE 错误事件
+     */
+    private ResponseEntity<SseEmitter> rejectOverload(SseEmitter emitter) {
+        log.warn("流式对话数已达上限，拒绝本次请求");
+        sendError(emitter, "服务繁忙，请稍后重试", "rate_limit_error");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(emitter);
+    }
+
+    private void sendError(SseEmitter emitter, String errorMessage, String errorType) {
         try {
-            String json = String.format("{\"error\":{\"message\":\"%s\",\"type\":\"invalid_request_error\"}}", escapeJson(errorMessage));
-            emitter.send(SseEmitter.event().data(json));
+            emitter.send(SseEmitter.event().data(ChatCompletionEncoder.encodeError(errorMessage, errorType)));
             emitter.complete();
         } catch (IOException e) {
             log.warn("SSE 发送错误消息失败: {}", e.getMessage());
             emitter.completeWithError(e);
+        } catch (IllegalStateException e) {
+            log.debug("SSE 连接已结束，丢弃错误消息: {}", e.getMessage());
         }
     }
-
-    private String escapeJson(String str) {
-        if (str == null) {
-            return "";
-        }
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
-    }
 }
@@ -1,18 +1,30 @@
 package com.mifazhan.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.mifazhan.domain.dto.MessageDTO;
+import com.mifazhan.domain.vo.CursorPageVO;
+import com.mifazhan.domain.vo.MessageSearchVO;
 import com.mifazhan.domain.vo.Result;
 import com.mifazhan.domain.vo.SessionVO;
 import com.mifazhan.service.MessageService;
 import com.mifazhan.service.SessionService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 
@@ -20,17 +32,78 @@ import java.util.List;
 @RequestMapping("api/message")
 public class MessageController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    /**
+     * 每写出多少条消息刷新一次输出流
+     */
+    private static final int EXPORT_FLUSH_INTERVAL = 100;
+
     @Autowired
     private MessageService messageService;
+    @Autowired
+    private ObjectMapper objectMapper;
 
     /**
-     * 获取指定会话的所有消息
+     * 全文检索历史消息
+     *
+     * @param keyword   关键词
+     * @param sessionId 只检索该会话，为空时检索全部会话
+     * @param size      返回条数，默认及最大值为 chat.search.max-results
+     * @return 按相关度降序排列的命中消息及内容摘要
+     */
+    @GetMapping("/search")
+    public Result<List<MessageSearchVO>> search(@RequestParam String keyword,
+                                                @RequestParam(required = false) Long sessionId,
+                                                @RequestParam(required = false) Integer size) {
+        return Result.success(messageService.search(keyword, sessionId, size));
+    }
+
+    /**
+     * 获取指定会话的消息（游标分页，从最新的消息开始向前翻页）
      *
      * @param sessionId 会话ID
-     * @return 消息列表
+     * @param cursor    上一页返回的 nextCursor，为空表示第一页
+     * @param size      每页条数，默认 20，最大 100
+     * @return 当前页消息，页内按时间正序排列
      */
     @GetMapping("/{sessionId}")
-    public Result<List<MessageDTO>> getHistory(@PathVariable Long sessionId) {
-        return Result.success(messageService.getBySessionId(sessionId));
+    public Result<CursorPageVO<MessageDTO>> getHistory(@PathVariable Long sessionId,
+                                                       @RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer size) {
+        return Result.success(messageService.pageBySessionId(sessionId, cursor, size));
+    }
+
+    /**
+     * 流式导出指定会话的全部消息
+     * <p>
+     * 以 NDJSON 格式（每行一条消息）边读边写，内存占用与会话长度无关。
+     *
+     * @param sessionId 会话ID
+     * @return NDJSON 响应流
+     */
+    @GetMapping(value = "/{sessionId}/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable Long sessionId) {
+        StreamingResponseBody body = outputStream -> {
+            // 逐条写出时不自动刷新，按批刷新以减少网络写入次数
+            ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            int[] written = {0};
+            messageService.streamBySessionId(sessionId, message -> {
+                try {
+                    writer.writeValue(generator, message);
+                    generator.writeRaw('\n');
+                    if (++written[0] % EXPORT_FLUSH_INTERVAL == 0) {
+                        generator.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"session-" + sessionId + ".ndjson\"")
+                .body(body);
     }
 }
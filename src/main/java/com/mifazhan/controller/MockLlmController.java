@@ -0,0 +1,87 @@
+package com.mifazhan.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mifazhan.config.MockLlmProperties;
+import com.mifazhan.support.stream.ChatCompletionEncoder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 本地模拟模型服务，仅 mock-llm profile 生效
+ * <p>
+ * 实现 OpenAI chat completions 接口的流式协议，按配置的首 token 延迟、输出速率和回复长度返回预置内容，
+ * 并按概率注入错误。延迟基于 Reactor 定时器，不为每个请求占用线程，可用于本服务的离线压测。
+ */
+@Slf4j
+@Profile("mock-llm")
+@RestController
+@RequestMapping("/mock/v1")
+@RequiredArgsConstructor
+public class MockLlmController {
+
+    /**
+     * 预置的回复片段，循环使用
+     */
+    private static final String[] TOKENS = {
+            "这是", "一段", "模拟", "的", "模型", "回复", "，", "用于", "压力", "测试", "。"
+    };
+
+    private final MockLlmProperties properties;
+
+    /**
+     * 对话补全，仅支持 stream=true 的流式请求
+     *
+     * @param request OpenAI 格式的请求体
+     * @return SSE 事件流，注入错误时返回 500
+     */
+    @PostMapping(value = "/chat/completions", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<String>>> completions(@RequestBody JsonNode request) {
+        if (!request.path("stream").asBoolean(false)) {
+            return ResponseEntity.badRequest()
+                    .body(Flux.just(ServerSentEvent.builder(ChatCompletionEncoder.encodeError("模拟服务仅支持流式请求", "invalid_request_error")).build()));
+        }
+        if (properties.getErrorRate() > 0 && ThreadLocalRandom.current().nextDouble() < properties.getErrorRate()) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Flux.just(ServerSentEvent.builder(ChatCompletionEncoder.encodeError("模拟的服务异常", "server_error")).build()));
+        }
+        return ResponseEntity.ok(stream());
+    }
+
+    private Flux<ServerSentEvent<String>> stream() {
+        return Flux.defer(() -> {
+            ChatCompletionEncoder encoder = new ChatCompletionEncoder(properties.getModel());
+            int replyTokens = Math.max(1, properties.getReplyTokens());
+            Flux<Integer> ticks = Flux.range(0, replyTokens);
+            if (properties.getTokensPerSecond() > 0) {
+                Duration interval = Duration.ofNanos(1_000_000_000L / properties.getTokensPerSecond());
+                // 首个 token 立即发出，其余按固定间隔；写出较慢时先缓冲，保持输出节奏不受下游请求量影响
+                Flux<Integer> rest = Flux.interval(interval)
+                        .take(replyTokens - 1)
+                        .onBackpressureBuffer()
+                        .map(i -> (int) (i + 1));
+                ticks = Flux.concat(Mono.just(0), rest);
+            }
+            Flux<String> chunks = ticks.map(i -> encoder.encode(TOKENS[i % TOKENS.length]))
+                    .concatWith(Mono.fromSupplier(() -> encoder.encodeFinish("stop")))
+                    .concatWith(Mono.just("[DONE]"));
+            if (properties.getTimeToFirstTokenMs() > 0) {
+                chunks = chunks.delaySubscription(Duration.ofMillis(properties.getTimeToFirstTokenMs()));
+            }
+            return chunks.map(data -> ServerSentEvent.builder(data).build());
+        });
+    }
+}
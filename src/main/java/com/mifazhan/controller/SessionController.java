@@ -1,12 +1,16 @@
 package com.mifazhan.controller;
 
 import com.mifazhan.domain.dto.SessionDTO;
+import com.mifazhan.domain.vo.CursorPageVO;
 import com.mifazhan.domain.vo.Result;
 import com.mifazhan.domain.vo.SessionVO;
 import com.mifazhan.service.SessionService;
+import com.mifazhan.support.title.SessionEventBroadcaster;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -15,13 +19,19 @@ import java.util.List;
 public class SessionController {
     @Autowired
     private SessionService sessionService;
+    @Autowired
+    private SessionEventBroadcaster sessionEventBroadcaster;
 
     /**
-     * 查询会话列表（按更新时间倒序）
+     * 查询会话列表（按更新时间倒序，游标分页）
+     *
+     * @param cursor 上一页返回的 nextCursor，为空表示第一页
+     * @param size   每页条数，默认 20，最大 100
      */
     @GetMapping
-    public Result<List<SessionVO>> listSession() {
-        return Result.success(sessionService.listSession());
+    public Result<CursorPageVO<SessionVO>> listSession(@RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer size) {
+        return Result.success(sessionService.listSession(cursor, size));
     }
 
     /**
@@ -41,4 +51,25 @@ public class SessionController {
         return Result.success(sessionService.deleteSession(sessionId));
     }
 
+    /**
+     * 批量删除会话，会话立即不可见，消息由后台任务清理
+     *
+     * @param sessionIds 会话ID列表
+     * @return 实际删除的会话数
+     */
+    @DeleteMapping("/batch")
+    public Result<Integer> deleteSessions(@RequestBody List<Long> sessionIds) {
+        return Result.success(sessionService.deleteSessions(sessionIds));
+    }
+
+    /**
+     * 订阅会话事件（SSE），后台生成的会话标题写入后推送 title 事件
+     *
+     * @param sessionId 会话ID，只接收该会话的事件
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@RequestParam Long sessionId) {
+        return sessionEventBroadcaster.subscribe(sessionId);
+    }
+
 }
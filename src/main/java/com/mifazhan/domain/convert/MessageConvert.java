@@ -0,0 +1,19 @@
+package com.mifazhan.domain.convert;
+
+import com.mifazhan.domain.dto.MessageDTO;
+import com.mifazhan.domain.entity.Message;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+import java.util.List;
+
+@Mapper(componentModel = "spring")
+public interface MessageConvert {
+    MessageDTO toMessageDTO(Message message);
+
+    List<MessageDTO> toMessageDTOList(List<Message> messages);
+
+    @Mapping(target = "deleted", constant = "0")
+    @Mapping(target = "journalId", ignore = true)
+    Message toMessage(MessageDTO messageDTO);
+}
@@ -0,0 +1,42 @@
+package com.mifazhan.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 流式对话片段
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatChunk {
+
+    /**
+     * 所属会话ID
+     */
+    private Long sessionId;
+
+    /**
+     * 片段内容，结束片段为空字符串
+     */
+    private String content;
+
+    /**
+     * 是否为结束片段
+     */
+    private boolean done;
+
+    /**
+     * 生成片段的模型，未确定（如回放缓存的回复）时为 null
+     */
+    private String model;
+
+    public static ChatChunk of(Long sessionId, String content, String model) {
+        return new ChatChunk(sessionId, content, false, model);
+    }
+
+    public static ChatChunk done(Long sessionId) {
+        return new ChatChunk(sessionId, "", true, null);
+    }
+}
@@ -1,5 +1,6 @@
 package com.mifazhan.domain.dto;
 
+import jakarta.validation.constraints.Min;
 import lombok.Data;
 
 /**
@@ -17,5 +18,17 @@ public class ChatMessageDTO {
      * 用户输入内容
      */
     private String content;
+
+    /**
+     * 片段合并时间窗口（毫秒），为空使用默认配置，0 表示不合并，超过 chat.stream.coalesce.max-window-ms 时按该值处理
+     */
+    @Min(value = 0, message = "片段合并时间窗口不能为负数")
+    private Integer coalesceWindowMs;
+
+    /**
+     * 片段合并字节阈值，为空使用默认配置，超过 chat.stream.coalesce.max-bytes-limit 时按该值处理
+     */
+    @Min(value = 1, message = "片段合并字节阈值必须大于 0")
+    private Integer coalesceMaxBytes;
 }
 
@@ -2,11 +2,18 @@ package com.mifazhan.domain.dto;
 
 import lombok.Data;
 
+import java.time.LocalDateTime;
+
 /**
  * 对话消息DTO
  */
 @Data
 public class MessageDTO {
+    /**
+     * 消息ID
+     */
+    private Long id;
+
     /**
      * 所属会话ID
      */
@@ -21,4 +28,9 @@ public class MessageDTO {
      * 消息内容
      */
     private String content;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime creationTime;
 }
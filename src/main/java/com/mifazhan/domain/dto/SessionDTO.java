@@ -1,5 +1,8 @@
 package com.mifazhan.domain.dto;
 
+import lombok.Data;
+
+@Data
 public class SessionDTO {
     /**
      * 会话ID
@@ -43,4 +43,10 @@ public class Message {
      * 逻辑删除 0否 1是
      */
     private Integer deleted;
+
+    /**
+     * 本地回复日志中的记录ID，落库后据此确认，不对应数据库字段
+     */
+    @TableField(exist = false)
+    private Long journalId;
 }
\ No newline at end of file
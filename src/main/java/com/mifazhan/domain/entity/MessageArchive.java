@@ -0,0 +1,50 @@
+package com.mifazhan.domain.entity;
+
+import java.time.LocalDateTime;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+/**
+ * 消息归档表，一行保存一个会话的全部已归档消息
+ * @TableName message_archive
+ */
+@Data
+@TableName("message_archive")
+public class MessageArchive {
+    /**
+     * 会话ID
+     */
+    @TableId(type = IdType.INPUT)
+    private Long sessionId;
+
+    /**
+     * 归档的消息条数
+     */
+    private Integer messageCount;
+
+    /**
+     * 归档的最后一条消息ID
+     */
+    private Long lastMessageId;
+
+    /**
+     * 消息内容压缩前的字节数
+     */
+    private Long rawBytes;
+
+    /**
+     * 压缩后的字节数
+     */
+    private Long compressedBytes;
+
+    /**
+     * gzip 压缩的消息列表（JSON 数组）
+     */
+    private byte[] content;
+
+    /**
+     * 归档时间
+     */
+    private LocalDateTime archiveTime;
+}
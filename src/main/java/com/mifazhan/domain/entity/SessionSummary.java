@@ -0,0 +1,40 @@
+package com.mifazhan.domain.entity;
+
+import java.time.LocalDateTime;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+/**
+ * 会话摘要表，一行保存一个会话较早对话的滚动摘要
+ * @TableName session_summary
+ */
+@Data
+@TableName("session_summary")
+public class SessionSummary {
+    /**
+     * 会话ID
+     */
+    @TableId(type = IdType.INPUT)
+    private Long sessionId;
+
+    /**
+     * 较早对话的摘要
+     */
+    private String content;
+
+    /**
+     * 摘要覆盖的最后一条消息ID
+     */
+    private Long lastMessageId;
+
+    /**
+     * 摘要累计覆盖的消息条数
+     */
+    private Integer messageCount;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,20 @@
+package com.mifazhan.domain.event;
+
+import com.mifazhan.domain.entity.Message;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 消息落库事件，发布时消息已分配ID
+ */
+@Getter
+@AllArgsConstructor
+public class MessagesPersistedEvent {
+
+    /**
+     * 已写入数据库的消息，按写入顺序排列
+     */
+    private final List<Message> messages;
+}
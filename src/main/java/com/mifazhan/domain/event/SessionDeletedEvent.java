@@ -0,0 +1,17 @@
+package com.mifazhan.domain.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 会话删除事件，用于清理会话相关的内存状态
+ */
+@Getter
+@AllArgsConstructor
+public class SessionDeletedEvent {
+
+    /**
+     * 被删除的会话ID
+     */
+    private final Long sessionId;
+}
@@ -0,0 +1,22 @@
+package com.mifazhan.domain.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 会话标题生成事件，标题已写入数据库后发布，用于通知客户端
+ */
+@Getter
+@AllArgsConstructor
+public class SessionTitleGeneratedEvent {
+
+    /**
+     * 会话ID
+     */
+    private final Long sessionId;
+
+    /**
+     * 新标题
+     */
+    private final String title;
+}
@@ -0,0 +1,34 @@
+package com.mifazhan.domain.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CursorPageVO<T> {
+    /**
+     * 当前页数据
+     */
+    private List<T> list;
+
+    /**
+     * 下一页游标，没有更多数据时为 null
+     */
+    private String nextCursor;
+
+    /**
+     * 是否还有更多数据
+     */
+    private Boolean hasMore;
+
+    public static <T> CursorPageVO<T> of(List<T> list, String nextCursor) {
+        return new CursorPageVO<>(list, nextCursor, nextCursor != null);
+    }
+}
@@ -0,0 +1,38 @@
+package com.mifazhan.domain.vo;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class MessageSearchVO {
+    /**
+     * 消息ID
+     */
+    private Long messageId;
+
+    /**
+     * 所属会话ID
+     */
+    private Long sessionId;
+
+    /**
+     * 角色：user / assistant
+     */
+    private String role;
+
+    /**
+     * 命中位置附近的内容摘要
+     */
+    private String snippet;
+
+    /**
+     * 相关度得分，越大越相关
+     */
+    private Float score;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime creationTime;
+}
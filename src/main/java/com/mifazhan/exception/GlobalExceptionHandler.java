@@ -14,6 +14,7 @@ import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -109,6 +110,19 @@ public class GlobalExceptionHandler {
         return Result.error(400, "参数类型错误: " + e.getName());
     }
 
+    /**
+     * 处理缺少必填请求参数异常
+     * @param e 缺少请求参数异常
+     * @param request HTTP请求对象
+     * @return Result对象
+     */
+    @ExceptionHandler(MissingServletRequestParameterException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public Result<?> handleMissingServletRequestParameterException(MissingServletRequestParameterException e, HttpServletRequest request) {
+        log.error("缺少请求参数：{} - {}", request.getRequestURI(), e.getMessage());
+        return Result.error(400, "缺少参数: " + e.getParameterName());
+    }
+
     /**
      * 处理请求方法不支持异常
      * @param e 请求方法不支持异常
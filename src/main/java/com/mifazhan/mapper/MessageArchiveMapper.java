@@ -0,0 +1,12 @@
+package com.mifazhan.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.mifazhan.domain.entity.MessageArchive;
+
+/**
+ * 针对表【message_archive(消息归档表)】的数据库操作Mapper
+ * @Entity domain.entity.MessageArchive
+ */
+public interface MessageArchiveMapper extends BaseMapper<MessageArchive> {
+
+}
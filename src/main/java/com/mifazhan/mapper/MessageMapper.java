@@ -2,6 +2,10 @@ package com.mifazhan.mapper;
 
 import com.mifazhan.domain.entity.Message;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.List;
 
 /**
 * @author MIFAZHAN
@@ -11,6 +15,31 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 */
 public interface MessageMapper extends BaseMapper<Message> {
 
+    /**
+     * 按时间正序逐行读取会话消息，不在内存中构建完整结果集
+     *
+     * @param sessionId 会话ID
+     * @param handler   逐行处理器
+     */
+    void streamBySessionId(@Param("sessionId") Long sessionId, ResultHandler<Message> handler);
+
+    /**
+     * 物理删除会话的一部分消息
+     *
+     * @param sessionId 会话ID
+     * @param limit     最多删除的条数
+     * @return 删除的行数，小于 limit 表示已删除完毕
+     */
+    int purgeBySessionId(@Param("sessionId") Long sessionId, @Param("limit") int limit);
+
+    /**
+     * 物理删除会话中已归档的消息
+     *
+     * @param sessionId 会话ID
+     * @param ids       已归档的消息ID
+     * @return 删除的行数
+     */
+    int deleteArchived(@Param("sessionId") Long sessionId, @Param("ids") List<Long> ids);
 }
 
 
@@ -2,6 +2,10 @@ package com.mifazhan.mapper;
 
 import com.mifazhan.domain.entity.Session;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 /**
 * @author MIFAZHAN
@@ -11,6 +15,54 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 */
 public interface SessionMapper extends BaseMapper<Session> {
 
+    /**
+     * 查询已逻辑删除、且删除时间早于指定时间的会话ID
+     *
+     * @param deletedBefore 删除时间上限
+     * @param limit         最多返回的条数
+     * @return 会话ID列表，按删除时间正序
+     */
+    List<Long> selectDeletedIds(@Param("deletedBefore") LocalDateTime deletedBefore, @Param("limit") int limit);
+
+    /**
+     * 按更新时间正序查询长时间未更新的会话，从游标之后开始
+     *
+     * @param idleBefore 更新时间上限
+     * @param afterTime  游标：上一批最后一个会话的更新时间，为空表示从头开始
+     * @param afterId    游标：上一批最后一个会话的ID
+     * @param limit      最多返回的条数
+     * @return 会话列表
+     */
+    List<Session> selectIdleSessions(@Param("idleBefore") LocalDateTime idleBefore,
+                                     @Param("afterTime") LocalDateTime afterTime,
+                                     @Param("afterId") Long afterId,
+                                     @Param("limit") int limit);
+
+    /**
+     * 物理删除一个已逻辑删除的会话
+     *
+     * @param sessionId 会话ID
+     * @return 删除的行数
+     */
+    int purgeById(@Param("sessionId") Long sessionId);
+
+    /**
+     * 批量更新会话标题，标题已被修改（不再是生成前的标题）或会话已删除时不更新
+     *
+     * @param titles 会话ID、生成前的标题和新标题
+     * @return 更新的行数
+     */
+    int updateTitles(@Param("titles") List<TitleUpdate> titles);
+
+    /**
+     * 批量更新标题的一项
+     *
+     * @param sessionId     会话ID
+     * @param expectedTitle 生成前的标题
+     * @param title         新标题
+     */
+    record TitleUpdate(Long sessionId, String expectedTitle, String title) {
+    }
 }
 
 
@@ -0,0 +1,12 @@
+package com.mifazhan.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.mifazhan.domain.entity.SessionSummary;
+
+/**
+ * 针对表【session_summary(会话摘要表)】的数据库操作Mapper
+ * @Entity domain.entity.SessionSummary
+ */
+public interface SessionSummaryMapper extends BaseMapper<SessionSummary> {
+
+}
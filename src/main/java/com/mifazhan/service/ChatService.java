@@ -1,5 +1,9 @@
 package com.mifazhan.service;
 
+import com.mifazhan.domain.dto.ChatChunk;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
 /**
  * AI 聊天服务
  */
@@ -12,8 +16,84 @@ public interface ChatService {
      * @param userMessage  用户输入消息内容
      * @param chunkCallback 流式片段回调
      * @param doneCallback  完成回调
+     * @param errorCallback 错误回调，超时也通过它通知
+     * @return 本轮对话的订阅，客户端断开时调用 dispose 取消上游模型请求
+     */
+    default Disposable chatStream(Long sessionId, String userMessage, ChunkCallback chunkCallback, DoneCallback doneCallback, ErrorCallback errorCallback) {
+        return chatStream(sessionId, userMessage, CacheMode.DEFAULT, chunkCallback, doneCallback, errorCallback);
+    }
+
+    /**
+     * 流式对话，指定回复缓存的使用方式
+     *
+     * @param sessionId     会话ID，新会话时可以为 null；仅新会话的首轮提问使用回复缓存
+     * @param userMessage   用户输入消息内容
+     * @param cacheMode     回复缓存的使用方式
+     * @param chunkCallback 流式片段回调
+     * @param doneCallback  完成回调
+     * @param errorCallback 错误回调，超时也通过它通知
+     * @return 本轮对话的订阅，客户端断开时调用 dispose 取消上游模型请求
+     */
+    Disposable chatStream(Long sessionId, String userMessage, CacheMode cacheMode, ChunkCallback chunkCallback, DoneCallback doneCallback, ErrorCallback errorCallback);
+
+    /**
+     * 响应式流式对话
+     * <p>
+     * 取消订阅会同时取消上游模型请求；数据库操作在 boundedElastic 调度器上执行，不占用事件线程。
+     * 最后一个元素为结束片段（{@link ChatChunk#isDone()} 为 true），此时 AI 回复已保存。
+     *
+     * @param sessionId   会话ID，新会话时可以为 null
+     * @param userMessage 用户输入消息内容
+     * @return 对话片段流
      */
-    void chatStream(Long sessionId, String userMessage, ChunkCallback chunkCallback, DoneCallback doneCallback, ErrorCallback errorCallback);
+    default Flux<ChatChunk> chatFlux(Long sessionId, String userMessage) {
+        return chatFlux(sessionId, userMessage, CacheMode.DEFAULT);
+    }
+
+    /**
+     * 响应式流式对话，指定回复缓存的使用方式
+     *
+     * @param sessionId   会话ID，新会话时可以为 null；仅新会话的首轮提问使用回复缓存
+     * @param userMessage 用户输入消息内容
+     * @param cacheMode   回复缓存的使用方式
+     * @return 对话片段流
+     */
+    Flux<ChatChunk> chatFlux(Long sessionId, String userMessage, CacheMode cacheMode);
+
+    /**
+     * 回复缓存的使用方式，对应请求头 Cache-Control
+     */
+    enum CacheMode {
+        /**
+         * 优先使用缓存，未命中时调用模型并缓存回复
+         */
+        DEFAULT,
+        /**
+         * 不读取缓存，调用模型后刷新缓存（no-cache）
+         */
+        NO_CACHE,
+        /**
+         * 既不读取也不写入缓存（no-store）
+         */
+        NO_STORE;
+
+        /**
+         * 解析 Cache-Control 请求头
+         *
+         * @param cacheControl 请求头的值，可以为 null
+         * @return 缓存使用方式
+         */
+        public static CacheMode fromCacheControl(String cacheControl) {
+            if (cacheControl == null) {
+                return DEFAULT;
+            }
+            String directives = cacheControl.toLowerCase();
+            if (directives.contains("no-store")) {
+                return NO_STORE;
+            }
+            return directives.contains("no-cache") ? NO_CACHE : DEFAULT;
+        }
+    }
 
     /**
      * 流式片段回调接口
@@ -26,6 +106,14 @@ public interface ChatService {
          * @param chunk 片段内容
          */
         void onChunk(String chunk);
+
+        /**
+         * 确定本轮实际使用的模型，在首个片段之前调用；加入相同请求时为发起调用的请求所用的模型，回放缓存的回复时不调用
+         *
+         * @param model 模型名称
+         */
+        default void onModel(String model) {
+        }
     }
 
     /**
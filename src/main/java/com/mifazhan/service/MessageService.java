@@ -2,9 +2,12 @@ package com.mifazhan.service;
 
 import com.mifazhan.domain.dto.MessageDTO;
 import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.vo.CursorPageVO;
+import com.mifazhan.domain.vo.MessageSearchVO;
 import com.baomidou.mybatisplus.extension.service.IService;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
 * @author MIFAZHAN
@@ -20,4 +23,41 @@ public interface MessageService extends IService<Message> {
      * @return 消息列表
      */
     List<MessageDTO> getBySessionId(Long sessionId);
+
+    /**
+     * 按游标分页获取会话消息，从最新的消息开始向前翻页
+     *
+     * @param sessionId 会话ID
+     * @param cursor    上一页返回的游标，为空表示第一页（最新的消息）
+     * @param size      每页条数
+     * @return 当前页消息（页内按时间正序排列）及下一页游标
+     */
+    CursorPageVO<MessageDTO> pageBySessionId(Long sessionId, String cursor, Integer size);
+
+    /**
+     * 按时间正序逐条读取会话的全部消息，内存占用与会话长度无关
+     *
+     * @param sessionId 会话ID
+     * @param consumer  逐条处理消息
+     */
+    void streamBySessionId(Long sessionId, Consumer<MessageDTO> consumer);
+
+    /**
+     * 获取会话末尾的若干条消息
+     *
+     * @param sessionId 会话ID
+     * @param limit     最多返回的条数
+     * @return 按时间正序排列的消息
+     */
+    List<Message> getRecentBySessionId(Long sessionId, int limit);
+
+    /**
+     * 全文检索历史消息
+     *
+     * @param keyword   关键词
+     * @param sessionId 只检索该会话，为空时检索全部会话
+     * @param size      返回条数
+     * @return 按相关度降序排列的命中消息
+     */
+    List<MessageSearchVO> search(String keyword, Long sessionId, Integer size);
 }
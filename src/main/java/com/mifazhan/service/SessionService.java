@@ -3,6 +3,7 @@ package com.mifazhan.service;
 import com.mifazhan.domain.dto.SessionDTO;
 import com.mifazhan.domain.entity.Session;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.mifazhan.domain.vo.CursorPageVO;
 import com.mifazhan.domain.vo.SessionVO;
 
 import java.util.List;
@@ -14,12 +15,30 @@ import java.util.List;
 */
 public interface SessionService extends IService<Session> {
 
-    List<SessionVO> listSession();
+    /**
+     * 按游标分页查询会话列表（按更新时间倒序）
+     *
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @param size   每页条数
+     * @return 当前页会话及下一页游标
+     */
+    CursorPageVO<SessionVO> listSession(String cursor, Integer size);
 
     /**
      * 更新会话标题
      */
     SessionVO updateTitle(SessionDTO sessionDTO);
 
+    /**
+     * 删除会话，只标记会话为已删除，消息由后台任务清理
+     */
     Boolean deleteSession(Long sessionId);
+
+    /**
+     * 批量删除会话，只标记会话为已删除，耗时与会话中的消息数无关
+     *
+     * @param sessionIds 会话ID列表
+     * @return 实际删除的会话数，不存在或已删除的会话不计入
+     */
+    int deleteSessions(List<Long> sessionIds);
 }
@@ -1,17 +1,38 @@
 package com.mifazhan.service.impl;
 
+import com.mifazhan.config.ChatStreamProperties;
+import com.mifazhan.domain.dto.ChatChunk;
 import com.mifazhan.domain.entity.Message;
 import com.mifazhan.domain.entity.Session;
+import com.mifazhan.exception.BusinessException;
 import com.mifazhan.service.ChatService;
-import com.mifazhan.service.MessageService;
 import com.mifazhan.service.SessionService;
+import com.mifazhan.support.cache.ResponseCache;
+import com.mifazhan.support.context.ConversationContextAssembler;
+import com.mifazhan.support.context.ConversationSummarizer;
+import com.mifazhan.support.persist.MessageWriteBehind;
+import com.mifazhan.support.persist.ReplyJournal;
+import com.mifazhan.support.route.ModelRouter;
+import com.mifazhan.support.stream.ChatMetrics;
+import com.mifazhan.support.stream.ChatSingleFlight;
+import com.mifazhan.support.stream.SessionTurnScheduler;
+import com.mifazhan.support.title.SessionTitleGenerator;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * AI 聊天服务实现类
@@ -21,16 +42,43 @@ import java.time.LocalDateTime;
 public class ChatServiceImpl implements ChatService {
 
     private final SessionService sessionService;
-    private final MessageService messageService;
-    private final ChatClient chatClient;
+    private final MessageWriteBehind messageWriteBehind;
+    private final ConversationContextAssembler contextAssembler;
+    private final ChatMetrics chatMetrics;
+    private final ChatStreamProperties chatStreamProperties;
+    private final ChatSingleFlight singleFlight;
+    private final ResponseCache responseCache;
+    private final ReplyJournal replyJournal;
+    private final SessionTurnScheduler turnScheduler;
+    private final ModelRouter modelRouter;
+    private final ConversationSummarizer summarizer;
+    private final SessionTitleGenerator titleGenerator;
 
     @Autowired
     public ChatServiceImpl(SessionService sessionService,
-                           MessageService messageService,
-                           ChatClient.Builder chatClientBuilder) {
+                           MessageWriteBehind messageWriteBehind,
+                           ConversationContextAssembler contextAssembler,
+                           ChatMetrics chatMetrics,
+                           ChatStreamProperties chatStreamProperties,
+                           ChatSingleFlight singleFlight,
+                           ResponseCache responseCache,
+                           ReplyJournal replyJournal,
+                           SessionTurnScheduler turnScheduler,
+                           ModelRouter modelRouter,
+                           ConversationSummarizer summarizer,
+                           SessionTitleGenerator titleGenerator) {
         this.sessionService = sessionService;
-        this.messageService = messageService;
-        this.chatClient = chatClientBuilder.build();
+        this.messageWriteBehind = messageWriteBehind;
+        this.contextAssembler = contextAssembler;
+        this.chatMetrics = chatMetrics;
+        this.chatStreamProperties = chatStreamProperties;
+        this.singleFlight = singleFlight;
+        this.responseCache = responseCache;
+        this.replyJournal = replyJournal;
+        this.turnScheduler = turnScheduler;
+        this.modelRouter = modelRouter;
+        this.summarizer = summarizer;
+        this.titleGenerator = titleGenerator;
     }
 
     /**
@@ -38,57 +86,54 @@ public class ChatServiceImpl implements ChatService {
      *
      * @param sessionId     会话ID，新会话时可以为 null
      * @param userMessage   用户输入消息内容
+     * @param cacheMode     回复缓存的使用方式
      * @param chunkCallback 流式片段回调
      * @param doneCallback  完成回调
+     * @param errorCallback 错误回调
+     * @return 本轮对话的订阅，dispose 后取消上游模型请求
      */
     @Override
 //    @Transactional
-    public void chatStream(Long sessionId, String userMessage, ChunkCallback chunkCallback, DoneCallback doneCallback, ErrorCallback errorCallback) {
+    public Disposable chatStream(Long sessionId, String userMessage, CacheMode cacheMode, ChunkCallback chunkCallback, DoneCallback doneCallback, ErrorCallback errorCallback) {
         if (userMessage == null || userMessage.isBlank()) {
             log.warn("用户消息为空，忽略本次请求");
-            return;
+            if (errorCallback != null) {
+                errorCallback.onError("消息内容不能为空");
+            }
+            return Disposables.disposed();
         }
 
-        LocalDateTime now = LocalDateTime.now();
-
         // 1. 处理会话：新建或检查已有会话
-        Session session;
-        if (sessionId == null) {
-            session = new Session();
-            session.setCreationTime(now);
-            session.setUpdateTime(now);
-            session.setDeleted(0);
-            session.setTitle(generateTitleFromMessage(userMessage));
-            sessionService.save(session);
-            log.info("创建新会话，sessionId={}", session.getSessionId());
-        } else {
-            session = sessionService.getById(sessionId);
-            if (session == null || (session.getDeleted() != null && session.getDeleted() == 1)) {
-                throw new IllegalArgumentException("会话不存在或已删除，sessionId=" + sessionId);
-            }
-            session.setUpdateTime(now);
-            sessionService.updateById(session);
-        }
-        Long currentSessionId = session.getSessionId();
+        Long currentSessionId = chatMetrics.recordSessionPrepare(() -> prepareSession(sessionId, userMessage));
 
-        // 2. 保存用户消息
-        Message userMsg = new Message();
-        userMsg.setSessionId(currentSessionId);
-        userMsg.setRole("user");
-        userMsg.setContent(userMessage);
-        userMsg.setDeleted(0);
-        messageService.save(userMsg);
+        // 轮到本轮、发起模型请求时才开始计时，排队等待不计入首字延迟；排队中被拒绝或取消时为 null
+        AtomicReference<ChatMetrics.StreamRecorder> recorder = new AtomicReference<>();
 
+        // 2. 轮到本轮后组装历史消息（不含本轮），再保存用户消息
         // 3. 调用大模型进行流式输出
-        StringBuilder fullAiContent = new StringBuilder();
+        Flux<String> turn = Flux.defer(() -> {
+            List<org.springframework.ai.chat.messages.Message> history = contextAssembler.history(currentSessionId);
+            chatMetrics.recordUserMessageSave(() -> saveMessage(currentSessionId, "user", userMessage));
+            ChatMetrics.StreamRecorder current = chatMetrics.startStream();
+            recorder.set(current);
+            return modelStream(currentSessionId, history, userMessage, sessionId == null ? cacheMode : CacheMode.NO_STORE, model -> {
+                current.model(model);
+                if (chunkCallback != null) {
+                    chunkCallback.onModel(model);
+                }
+            });
+        });
+
+        // 取消可能发生在其他线程，使用线程安全的 StringBuffer 累积回复
+        StringBuffer fullAiContent = new StringBuffer();
 
-        chatClient.prompt()
-                .user(userMessage)
-                .stream()
-                .content()
+        // 同一会话的对话按轮次串行执行
+        return turnScheduler.serialize(sessionId, turn)
+                .doOnCancel(() -> abort(currentSessionId, fullAiContent, recorder.get(), ChatMetrics.Outcome.CANCELLED))
                 .subscribe(
                         chunk -> {
                             try {
+                                recorder.get().onChunk(chunk);
                                 fullAiContent.append(chunk);
                                 if (chunkCallback != null) {
                                     chunkCallback.onChunk(chunk);
@@ -101,32 +146,36 @@ public class ChatServiceImpl implements ChatService {
                             }
                         },
                         error -> {
-                            log.error("调用 AI 服务异常", error);
+                            boolean timeout = error instanceof TimeoutException;
+                            if (timeout) {
+                                log.warn("AI 响应超时，sessionId={}: {}", currentSessionId, error.getMessage());
+                            } else if (error instanceof BusinessException) {
+                                log.info("本轮对话未执行或被取代，sessionId={}: {}", currentSessionId, error.getMessage());
+                            } else {
+                                log.error("调用 AI 服务异常", error);
+                            }
+                            abort(currentSessionId, fullAiContent, recorder.get(), outcomeOf(error));
                             if (errorCallback != null) {
-                                errorCallback.onError("AI 服务异常: " + error.getMessage());
+                                errorCallback.onError(timeout ? "AI 响应超时"
+                                        : error instanceof BusinessException ? error.getMessage()
+                                        : "AI 服务异常: " + error.getMessage());
                             }
                         },
                         () -> {
                             try {
-                                // 4. 流结束，保存 AI 完整回复
-                                LocalDateTime finishTime = LocalDateTime.now();
-                                Message assistantMsg = new Message();
-                                assistantMsg.setSessionId(currentSessionId);
-                                assistantMsg.setRole("assistant");
-                                assistantMsg.setContent(fullAiContent.toString());
-                                assistantMsg.setDeleted(0);
-                                messageService.save(assistantMsg);
-
-                                Session updateSession = sessionService.getById(currentSessionId);
-                                if (updateSession != null) {
-                                    updateSession.setUpdateTime(finishTime);
-                                    sessionService.updateById(updateSession);
+                                // 4. 流结束，保存 AI 完整回复；与取消并发时只由先结束的一方保存
+                                ChatMetrics.StreamRecorder current = recorder.get();
+                                if (current != null && !current.finish(ChatMetrics.Outcome.SUCCESS)) {
+                                    return;
                                 }
+                                chatMetrics.recordAssistantMessageSave(() -> saveAssistantReply(currentSessionId, fullAiContent.toString()));
 
                                 if (doneCallback != null) {
                                     doneCallback.onDone();
                                 }
                                 log.info("AI 回复已保存，sessionId={}", currentSessionId);
+                                // 5. 长会话在后台压缩较早的对话
+                                summarizer.afterTurn(currentSessionId);
                             } catch (Exception e) {
                                 log.error("保存 AI 消息或触发完成回调异常", e);
                                 if (errorCallback != null) {
@@ -137,6 +186,191 @@ public class ChatServiceImpl implements ChatService {
                 );
     }
 
+    @Override
+    public Flux<ChatChunk> chatFlux(Long sessionId, String userMessage, CacheMode cacheMode) {
+        if (userMessage == null || userMessage.isBlank()) {
+            return Flux.error(new BusinessException(400, "消息内容不能为空"));
+        }
+
+        // 1. 处理会话，阻塞操作放到 boundedElastic 上执行
+        return Mono.fromCallable(() -> chatMetrics.recordSessionPrepare(() -> prepareSession(sessionId, userMessage)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(currentSessionId -> turnScheduler.serialize(sessionId,
+                        turnFlux(sessionId, currentSessionId, userMessage, cacheMode)));
+    }
+
+    /**
+     * 响应式对话的一轮：组装历史并保存用户消息，调用模型，结束后保存 AI 回复
+     */
+    private Flux<ChatChunk> turnFlux(Long sessionId, Long currentSessionId, String userMessage, CacheMode cacheMode) {
+        // 2. 轮到本轮后组装历史并保存用户消息
+        return Mono.fromCallable(() -> {
+                    List<org.springframework.ai.chat.messages.Message> history = contextAssembler.history(currentSessionId);
+                    chatMetrics.recordUserMessageSave(() -> saveMessage(currentSessionId, "user", userMessage));
+                    return history;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(history -> {
+                    // 每次订阅独立累积回复内容
+                    StringBuffer fullAiContent = new StringBuffer();
+                    ChatMetrics.StreamRecorder recorder = chatMetrics.startStream();
+                    AtomicReference<String> model = new AtomicReference<>();
+                    // 3. 调用大模型进行流式输出，下游取消时上游请求随之取消
+                    Flux<ChatChunk> chunks = modelStream(currentSessionId, history, userMessage,
+                            sessionId == null ? cacheMode : CacheMode.NO_STORE, routedModel -> {
+                                recorder.model(routedModel);
+                                model.set(routedModel);
+                            })
+                            .doOnNext(chunk -> {
+                                recorder.onChunk(chunk);
+                                fullAiContent.append(chunk);
+                            })
+                            .map(chunk -> ChatChunk.of(currentSessionId, chunk, model.get()));
+                    // 4. 流结束，保存 AI 完整回复后发出结束片段
+                    Mono<ChatChunk> done = Mono.fromCallable(() -> {
+                                if (recorder.finish(ChatMetrics.Outcome.SUCCESS)) {
+                                    chatMetrics.recordAssistantMessageSave(() -> saveAssistantReply(currentSessionId, fullAiContent.toString()));
+                                    log.info("AI 回复已保存，sessionId={}", currentSessionId);
+                                    // 5. 长会话在后台压缩较早的对话
+                                    summarizer.afterTurn(currentSessionId);
+                                }
+                                return ChatChunk.done(currentSessionId);
+                            })
+                            .subscribeOn(Schedulers.boundedElastic());
+                    return chunks.concatWith(done)
+                            .doOnError(error -> abort(currentSessionId, fullAiContent, recorder, outcomeOf(error)))
+                            .doOnCancel(() -> abort(currentSessionId, fullAiContent, recorder, ChatMetrics.Outcome.CANCELLED));
+                });
+    }
+
+    /**
+     * 调用大模型进行流式输出：优先回放缓存的回复，启用合并时相同的并发请求共用一次调用，
+     * 实际调用前申请模型调用配额，再由路由选择模型线路
+     *
+     * @param sessionId 当前会话ID，作为申请配额的调用方
+     * @param cacheMode 回复缓存的使用方式，已有会话的对话依赖上下文，固定为 NO_STORE
+     * @param onModel   本次调用实际使用的模型，加入相同请求时为发起调用的请求所用的模型，回放缓存时不调用
+     */
+    private Flux<String> modelStream(Long sessionId, List<org.springframework.ai.chat.messages.Message> history,
+                                     String userMessage, CacheMode cacheMode, Consumer<String> onModel) {
+        if (cacheMode == CacheMode.DEFAULT) {
+            Flux<String> cached = responseCache.lookup(userMessage);
+            if (cached != null) {
+                log.debug("命中回复缓存，跳过模型调用");
+                return cached;
+            }
+        }
+        Flux<String> content = singleFlight.join(history, userMessage, onModel,
+                routedModel -> withTimeouts(modelRouter.stream(sessionId, history, userMessage, routedModel)));
+        return cacheMode == CacheMode.NO_STORE ? content : responseCache.record(userMessage, content);
+    }
+
+    /**
+     * 为模型输出加上空闲超时和整体超时，超时以 {@link TimeoutException} 结束并取消上游请求
+     */
+    private Flux<String> withTimeouts(Flux<String> content) {
+        if (chatStreamProperties.getIdleTimeoutMs() > 0) {
+            content = content.timeout(Duration.ofMillis(chatStreamProperties.getIdleTimeoutMs()));
+        }
+        if (chatStreamProperties.getTotalTimeoutMs() > 0) {
+            long totalTimeoutMs = chatStreamProperties.getTotalTimeoutMs();
+            content = content.takeUntilOther(Mono.delay(Duration.ofMillis(totalTimeoutMs))
+                    .then(Mono.error(() -> new TimeoutException("对话超过 " + totalTimeoutMs + "ms 未完成"))));
+        }
+        return content;
+    }
+
+    /**
+     * 未正常完成的对话结果：超时、未执行或被拒绝（{@link BusinessException}，如排队超时、被新请求取代、
+     * 模型调用配额不足）与模型服务异常分开统计
+     */
+    private static ChatMetrics.Outcome outcomeOf(Throwable error) {
+        if (error instanceof TimeoutException) {
+            return ChatMetrics.Outcome.TIMEOUT;
+        }
+        return error instanceof BusinessException ? ChatMetrics.Outcome.REJECTED : ChatMetrics.Outcome.ERROR;
+    }
+
+    /**
+     * 对话未正常完成：记录结果，并按配置处理已生成的部分回复
+     *
+     * @param recorder 本轮的计时，为 null 表示尚未发起模型请求（排队中被拒绝或取消），不记录结果
+     */
+    private void abort(Long sessionId, StringBuffer partialContent, ChatMetrics.StreamRecorder recorder,
+                       ChatMetrics.Outcome outcome) {
+        if (recorder == null || !recorder.finish(outcome)) {
+            return;
+        }
+        if (outcome == ChatMetrics.Outcome.CANCELLED) {
+            log.info("客户端已断开，取消 AI 请求，sessionId={}", sessionId);
+        }
+        if (chatStreamProperties.getPartialReplyPolicy() == ChatStreamProperties.PartialReplyPolicy.SAVE
+                && !partialContent.isEmpty()) {
+            saveAssistantReply(sessionId, partialContent.toString());
+            log.info("已保存部分 AI 回复，sessionId={}, length={}", sessionId, partialContent.length());
+        }
+    }
+
+    /**
+     * 新建会话，或校验已有会话并刷新更新时间
+     *
+     * @return 当前会话ID
+     */
+    private Long prepareSession(Long sessionId, String userMessage) {
+        LocalDateTime now = LocalDateTime.now();
+        Session session;
+        if (sessionId == null) {
+            session = new Session();
+            session.setCreationTime(now);
+            session.setUpdateTime(now);
+            session.setDeleted(0);
+            session.setTitle(generateTitleFromMessage(userMessage));
+            sessionService.save(session);
+            contextAssembler.startSession(session.getSessionId());
+            // 先以截断的标题建会话，由后台批量生成更好的标题
+            titleGenerator.submit(session.getSessionId(), session.getTitle(), userMessage);
+            log.info("创建新会话，sessionId={}", session.getSessionId());
+        } else {
+            session = sessionService.getById(sessionId);
+            if (session == null || (session.getDeleted() != null && session.getDeleted() == 1)) {
+                throw new IllegalArgumentException("会话不存在或已删除，sessionId=" + sessionId);
+            }
+            messageWriteBehind.touchSession(sessionId, now);
+        }
+        return session.getSessionId();
+    }
+
+    private void saveMessage(Long sessionId, String role, String content) {
+        save(newMessage(sessionId, role, content));
+    }
+
+    /**
+     * 保存 AI 完整回复并刷新会话更新时间，均由异步批量写入完成
+     * <p>
+     * 回复先写入本地日志，数据库暂时不可用时由日志重新提交，不随进程退出丢失。
+     */
+    private void saveAssistantReply(Long sessionId, String content) {
+        Message message = newMessage(sessionId, "assistant", content);
+        message.setCreationTime(LocalDateTime.now().withNano(0));
+        replyJournal.append(message);
+        save(message);
+        messageWriteBehind.touchSession(sessionId, LocalDateTime.now());
+    }
+
+    private void save(Message message) {
+        messageWriteBehind.enqueue(message);
+        contextAssembler.append(message);
+    }
+
+    private static Message newMessage(Long sessionId, String role, String content) {
+        Message message = new Message();
+        message.setSessionId(sessionId);
+        message.setRole(role);
+        message.setContent(content);
+        message.setDeleted(0);
+        return message;
+    }
+
     private String generateTitleFromMessage(String message) {
         int maxLength = 30;
         String trimmed = message.trim();
@@ -2,14 +2,26 @@ package com.mifazhan.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.mifazhan.domain.convert.MessageConvert;
 import com.mifazhan.domain.dto.MessageDTO;
 import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.vo.CursorPageVO;
+import com.mifazhan.domain.vo.MessageSearchVO;
 import com.mifazhan.mapper.MessageMapper;
+import com.mifazhan.mapper.SessionMapper;
 import com.mifazhan.service.MessageService;
+import com.mifazhan.support.cache.MessageHistoryCache;
+import com.mifazhan.support.page.PageCursor;
+import com.mifazhan.support.persist.MessageArchiver;
+import com.mifazhan.support.search.MessageSearchIndex;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
 * @author MIFAZHAN
@@ -19,22 +31,138 @@ import java.util.stream.Collectors;
 @Service
 public class MessageServiceImpl extends ServiceImpl<MessageMapper, Message>
     implements MessageService{
+    @Autowired
+    private MessageConvert messageConvert;
+    @Autowired
+    private MessageHistoryCache messageHistoryCache;
+    @Autowired
+    private SessionMapper sessionMapper;
+    @Autowired
+    private MessageArchiver messageArchiver;
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
 
     @Override
     public List<MessageDTO> getBySessionId(Long sessionId) {
+        return messageHistoryCache.get(sessionId, this::loadBySessionId);
+    }
+
+    /**
+     * 加载会话的全部消息：先读归档，再读热表中归档之后写入的消息
+     */
+    private List<MessageDTO> loadBySessionId(Long sessionId) {
         LambdaQueryWrapper<Message> wrapper = new LambdaQueryWrapper<>();
         wrapper.eq(Message::getSessionId, sessionId)
-                .orderByAsc(Message::getCreationTime);
-        List<Message> messages = this.list(wrapper);
-        return messages.stream()
-                .map(message -> {
-                    MessageDTO dto = new MessageDTO();
-                    dto.setSessionId(message.getSessionId());
-                    dto.setRole(message.getRole());
-                    dto.setContent(message.getContent());
-                    return dto;
-                })
-                .collect(Collectors.toList());
+                .orderByAsc(Message::getCreationTime)
+                .orderByAsc(Message::getId);
+        List<MessageDTO> hot = messageConvert.toMessageDTOList(this.list(wrapper));
+        List<MessageDTO> archived = messageArchiver.load(sessionId);
+        if (archived.isEmpty()) {
+            return hot;
+        }
+        List<MessageDTO> messages = new ArrayList<>(archived.size() + hot.size());
+        messages.addAll(archived);
+        messages.addAll(hot);
+        return messages;
+    }
+
+    @Override
+    public List<MessageSearchVO> search(String keyword, Long sessionId, Integer size) {
+        return messageSearchIndex.search(keyword, sessionId, size);
+    }
+
+    @Override
+    public CursorPageVO<MessageDTO> pageBySessionId(Long sessionId, String cursor, Integer size) {
+        // 已删除会话的消息在后台清理前仍在库中，不再对外返回
+        if (!isLive(sessionId)) {
+            return CursorPageVO.of(Collections.emptyList(), null);
+        }
+        PageCursor before = PageCursor.decode(cursor);
+        int pageSize = PageCursor.normalizeSize(size);
+
+        // 多取一条用于判断是否还有下一页，结果按时间倒序排列；已归档的会话整体解压进缓存后分页
+        List<MessageDTO> cached = messageHistoryCache.getIfPresent(sessionId);
+        if (cached == null && messageArchiver.exists(sessionId)) {
+            cached = getBySessionId(sessionId);
+        }
+        List<MessageDTO> newestFirst = cached != null
+                ? sliceCached(cached, before, pageSize + 1)
+                : messageConvert.toMessageDTOList(lambdaQuery()
+                        .eq(Message::getSessionId, sessionId)
+                        .and(before != null, w -> w
+                                .lt(Message::getCreationTime, before.time())
+                                .or(o -> o.eq(Message::getCreationTime, before.time()).lt(Message::getId, before.id())))
+                        .orderByDesc(Message::getCreationTime)
+                        .orderByDesc(Message::getId)
+                        .last("LIMIT " + (pageSize + 1))
+                        .list());
+
+        String nextCursor = null;
+        if (newestFirst.size() > pageSize) {
+            newestFirst = new ArrayList<>(newestFirst.subList(0, pageSize));
+            MessageDTO oldest = newestFirst.get(pageSize - 1);
+            nextCursor = PageCursor.of(oldest.getCreationTime(), oldest.getId()).encode();
+        }
+        Collections.reverse(newestFirst);
+        return CursorPageVO.of(newestFirst, nextCursor);
+    }
+
+    /**
+     * 从缓存的完整列表中截取游标之前的若干条，按时间倒序返回
+     */
+    private List<MessageDTO> sliceCached(List<MessageDTO> cached, PageCursor before, int limit) {
+        List<MessageDTO> slice = new ArrayList<>(limit);
+        for (int i = cached.size() - 1; i >= 0 && slice.size() < limit; i--) {
+            MessageDTO message = cached.get(i);
+            if (before == null || before.isOlder(message.getCreationTime(), message.getId())) {
+                slice.add(message);
+            }
+        }
+        return slice;
+    }
+
+    @Override
+    public void streamBySessionId(Long sessionId, Consumer<MessageDTO> consumer) {
+        if (!isLive(sessionId)) {
+            return;
+        }
+        List<MessageDTO> cached = messageHistoryCache.getIfPresent(sessionId);
+        if (cached != null) {
+            cached.forEach(consumer);
+            return;
+        }
+        messageArchiver.load(sessionId).forEach(consumer);
+        baseMapper.streamBySessionId(sessionId, context -> consumer.accept(messageConvert.toMessageDTO(context.getResultObject())));
+    }
+
+    /**
+     * 会话是否存在且未删除，按主键查询
+     */
+    private boolean isLive(Long sessionId) {
+        return sessionMapper.exists(new LambdaQueryWrapper<Session>().eq(Session::getSessionId, sessionId));
+    }
+
+    @Override
+    public List<Message> getRecentBySessionId(Long sessionId, int limit) {
+        List<Message> messages = lambdaQuery()
+                .eq(Message::getSessionId, sessionId)
+                .orderByDesc(Message::getId)
+                .last("LIMIT " + limit)
+                .list();
+        Collections.reverse(messages);
+        if (messages.size() < limit) {
+            // 热表中不足时从归档末尾补齐
+            List<MessageDTO> archived = messageArchiver.load(sessionId);
+            if (!archived.isEmpty()) {
+                List<Message> merged = new ArrayList<>(limit);
+                for (MessageDTO message : archived.subList(Math.max(0, archived.size() - (limit - messages.size())), archived.size())) {
+                    merged.add(messageConvert.toMessage(message));
+                }
+                merged.addAll(messages);
+                return merged;
+            }
+        }
+        return messages;
     }
 }
 
@@ -1,21 +1,25 @@
 package com.mifazhan.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.mifazhan.config.SessionPurgeProperties;
 import com.mifazhan.domain.convert.SessionConvert;
 import com.mifazhan.domain.dto.SessionDTO;
-import com.mifazhan.domain.entity.Message;
 import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.event.SessionDeletedEvent;
+import com.mifazhan.domain.vo.CursorPageVO;
 import com.mifazhan.domain.vo.SessionVO;
-import com.mifazhan.service.MessageService;
+import com.mifazhan.exception.BusinessException;
 import com.mifazhan.service.SessionService;
 import com.mifazhan.mapper.SessionMapper;
+import com.mifazhan.support.page.PageCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Objects;
 
 /**
 * @author MIFAZHAN
@@ -28,14 +32,31 @@ public class SessionServiceImpl extends ServiceImpl<SessionMapper, Session>
     @Autowired
     private SessionConvert sessionConvert;
     @Autowired
-    private MessageService messageService;
+    private SessionPurgeProperties sessionPurgeProperties;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
     @Override
-    public List<SessionVO> listSession() {
-        List<Session> session = lambdaQuery()
-        .orderByDesc(Session::getUpdateTime)
-        .list();
-        return sessionConvert.toSessionVOList(session);
+    public CursorPageVO<SessionVO> listSession(String cursor, Integer size) {
+        PageCursor before = PageCursor.decode(cursor);
+        int pageSize = PageCursor.normalizeSize(size);
+        // 多取一条用于判断是否还有下一页
+        List<Session> sessions = lambdaQuery()
+                .and(before != null, w -> w
+                        .lt(Session::getUpdateTime, before.time())
+                        .or(o -> o.eq(Session::getUpdateTime, before.time()).lt(Session::getSessionId, before.id())))
+                .orderByDesc(Session::getUpdateTime)
+                .orderByDesc(Session::getSessionId)
+                .last("LIMIT " + (pageSize + 1))
+                .list();
+
+        String nextCursor = null;
+        if (sessions.size() > pageSize) {
+            sessions = sessions.subList(0, pageSize);
+            Session last = sessions.get(pageSize - 1);
+            nextCursor = PageCursor.of(last.getUpdateTime(), last.getSessionId()).encode();
+        }
+        return CursorPageVO.of(sessionConvert.toSessionVOList(sessions), nextCursor);
     }
 
     @Override
@@ -46,14 +67,28 @@ public class SessionServiceImpl extends ServiceImpl<SessionMapper, Session>
     }
 
     @Override
-    @Transactional
     public Boolean deleteSession(Long sessionId) {
-        messageService.lambdaUpdate()
-            .eq(Message::getSessionId, sessionId)
-            .remove();
-        this.removeById(sessionId);
+        deleteSessions(List.of(sessionId));
         return true;
     }
+
+    @Override
+    public int deleteSessions(List<Long> sessionIds) {
+        List<Long> ids = sessionIds.stream().filter(Objects::nonNull).distinct().toList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        if (ids.size() > sessionPurgeProperties.getMaxBatchDelete()) {
+            throw new BusinessException(400, "单次最多删除 " + sessionPurgeProperties.getMaxBatchDelete() + " 个会话");
+        }
+        // 单条 UPDATE 只修改会话行，消息由 SessionPurger 在后台分块清理；update_time 记录删除时间
+        int deleted = baseMapper.update(null, new LambdaUpdateWrapper<Session>()
+                .set(Session::getDeleted, 1)
+                .set(Session::getUpdateTime, LocalDateTime.now())
+                .in(Session::getSessionId, ids));
+        ids.forEach(id -> eventPublisher.publishEvent(new SessionDeletedEvent(id)));
+        return deleted;
+    }
 }
 
 
@@ -0,0 +1,94 @@
+package com.mifazhan.support.cache;
+
+import com.mifazhan.config.ResponseCacheProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于字符二元组余弦相似度的近似提问匹配
+ * <p>
+ * 不依赖外部模型，适合只有标点、语气词或个别字不同的提问。
+ * 匹配时遍历所有已登记的提问，开销与缓存条数成正比，只在精确匹配未命中时执行。
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.response-cache.similarity", name = "enabled", havingValue = "true")
+public class BigramSimilarityMatcher implements PromptSimilarityMatcher {
+
+    private record Vector(Map<Long, Integer> counts, double norm) {
+    }
+
+    private final double threshold;
+    private final Map<String, Vector> vectors = new ConcurrentHashMap<>();
+
+    public BigramSimilarityMatcher(ResponseCacheProperties properties) {
+        this.threshold = properties.getSimilarity().getThreshold();
+    }
+
+    @Override
+    public void add(String key, String prompt) {
+        vectors.put(key, vectorize(prompt));
+    }
+
+    @Override
+    public void remove(String key) {
+        vectors.remove(key);
+    }
+
+    @Override
+    public String match(String prompt) {
+        Vector query = vectorize(prompt);
+        if (query.norm() == 0) {
+            return null;
+        }
+        String bestKey = null;
+        double bestScore = threshold;
+        for (Map.Entry<String, Vector> entry : vectors.entrySet()) {
+            double score = cosine(query, entry.getValue());
+            if (score >= bestScore) {
+                bestScore = score;
+                bestKey = entry.getKey();
+            }
+        }
+        return bestKey;
+    }
+
+    /**
+     * 统计相邻两个字符组成的二元组，只有一个字符时按单字计
+     */
+    private static Vector vectorize(String prompt) {
+        int[] codePoints = prompt.toLowerCase(Locale.ROOT).codePoints()
+                .filter(Character::isLetterOrDigit)
+                .toArray();
+        Map<Long, Integer> counts = new HashMap<>();
+        if (codePoints.length == 1) {
+            counts.put((long) codePoints[0], 1);
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            // 码点不超过 21 位，拼接后不会冲突
+            counts.merge(((long) codePoints[i] << 21) | codePoints[i + 1], 1, Integer::sum);
+        }
+        double norm = Math.sqrt(counts.values().stream().mapToDouble(count -> (double) count * count).sum());
+        return new Vector(counts, norm);
+    }
+
+    private static double cosine(Vector a, Vector b) {
+        if (b.norm() == 0) {
+            return 0;
+        }
+        Vector small = a.counts().size() <= b.counts().size() ? a : b;
+        Vector large = small == a ? b : a;
+        double dot = 0;
+        for (Map.Entry<Long, Integer> entry : small.counts().entrySet()) {
+            Integer other = large.counts().get(entry.getKey());
+            if (other != null) {
+                dot += (double) entry.getValue() * other;
+            }
+        }
+        return dot / (a.norm() * b.norm());
+    }
+}
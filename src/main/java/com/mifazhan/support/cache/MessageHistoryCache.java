@@ -0,0 +1,130 @@
+package com.mifazhan.support.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mifazhan.config.HistoryCacheProperties;
+import com.mifazhan.domain.convert.MessageConvert;
+import com.mifazhan.domain.dto.MessageDTO;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.event.MessagesPersistedEvent;
+import com.mifazhan.domain.event.SessionDeletedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 热点会话历史消息缓存
+ * <p>
+ * 按会话缓存完整的消息列表，同时受会话数和内容占用内存限制。
+ * 新消息落库后增量追加到已缓存的列表，不会触发整表重新查询。
+ */
+@Component
+public class MessageHistoryCache {
+
+    /**
+     * 每条消息除内容外的固定内存开销估算（字节）
+     */
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+
+    private final HistoryCacheProperties properties;
+    private final MessageConvert messageConvert;
+    private final Cache<Long, List<MessageDTO>> cache;
+
+    public MessageHistoryCache(HistoryCacheProperties properties,
+                               MessageConvert messageConvert,
+                               MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.messageConvert = messageConvert;
+        // 每个会话至少按平均份额计重，使会话数同样不超过 maxSessions
+        int minWeight = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, properties.getMaxWeightBytes() / Math.max(1, properties.getMaxSessions())));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxWeightBytes())
+                .weigher((Long sessionId, List<MessageDTO> messages) -> Math.max(minWeight, weigh(messages)))
+                .expireAfterAccess(Duration.ofMinutes(properties.getExpireAfterAccessMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "message.history");
+    }
+
+    /**
+     * 获取会话的历史消息，未命中时加载并放入缓存
+     *
+     * @param sessionId 会话ID
+     * @param loader    从数据库加载的方法
+     * @return 不可修改的消息列表
+     */
+    public List<MessageDTO> get(Long sessionId, Function<Long, List<MessageDTO>> loader) {
+        if (!properties.isEnabled()) {
+            return loader.apply(sessionId);
+        }
+        return cache.get(sessionId, id -> Collections.unmodifiableList(loader.apply(id)));
+    }
+
+    /**
+     * 仅在已缓存时返回会话的历史消息，不触发加载
+     *
+     * @param sessionId 会话ID
+     * @return 不可修改的消息列表，未缓存时返回 null
+     */
+    public List<MessageDTO> getIfPresent(Long sessionId) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        return cache.getIfPresent(sessionId);
+    }
+
+    /**
+     * 使会话的缓存失效
+     *
+     * @param sessionId 会话ID
+     */
+    public void invalidate(Long sessionId) {
+        cache.invalidate(sessionId);
+    }
+
+    @EventListener
+    public void onMessagesPersisted(MessagesPersistedEvent event) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (Message message : event.getMessages()) {
+            cache.asMap().computeIfPresent(message.getSessionId(), (sessionId, messages) -> append(messages, message));
+        }
+    }
+
+    @EventListener
+    public void onSessionDeleted(SessionDeletedEvent event) {
+        invalidate(event.getSessionId());
+    }
+
+    private List<MessageDTO> append(List<MessageDTO> messages, Message message) {
+        // 加载与落库并发时，新消息可能已包含在加载结果中
+        if (!messages.isEmpty()) {
+            Long lastId = messages.get(messages.size() - 1).getId();
+            if (lastId != null && message.getId() != null && lastId >= message.getId()) {
+                return messages;
+            }
+        }
+        List<MessageDTO> appended = new ArrayList<>(messages.size() + 1);
+        appended.addAll(messages);
+        appended.add(messageConvert.toMessageDTO(message));
+        return Collections.unmodifiableList(appended);
+    }
+
+    private static int weigh(List<MessageDTO> messages) {
+        long bytes = 0;
+        for (MessageDTO message : messages) {
+            // 按 UTF-16 计算内容在堆上的占用
+            bytes += MESSAGE_OVERHEAD_BYTES + (message.getContent() == null ? 0 : 2L * message.getContent().length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+}
@@ -0,0 +1,33 @@
+package com.mifazhan.support.cache;
+
+/**
+ * 近似提问匹配
+ * <p>
+ * {@link ResponseCache} 精确匹配未命中时，通过该接口查找内容相近的已缓存提问。
+ * 容器中存在该类型的 Bean 时生效，可替换为基于本地向量模型的实现。
+ */
+public interface PromptSimilarityMatcher {
+
+    /**
+     * 登记一个已缓存的提问
+     *
+     * @param key    缓存 key
+     * @param prompt 规范化后的提问内容
+     */
+    void add(String key, String prompt);
+
+    /**
+     * 缓存项被移除时注销
+     *
+     * @param key 缓存 key
+     */
+    void remove(String key);
+
+    /**
+     * 查找最相近的已缓存提问
+     *
+     * @param prompt 规范化后的提问内容
+     * @return 匹配到的缓存 key，没有足够相近的提问时返回 null
+     */
+    String match(String prompt);
+}
@@ -0,0 +1,160 @@
+package com.mifazhan.support.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.mifazhan.config.ResponseCacheProperties;
+import com.mifazhan.support.context.PromptFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 无会话首轮提问的回复缓存
+ * <p>
+ * 按模型、模型参数和规范化后的提问内容缓存完整回复，命中时按片段回放，对客户端而言与模型输出无异。
+ * 同时受条数和内容占用内存限制，写入后 ttlSeconds 过期。存在 {@link PromptSimilarityMatcher} 时，
+ * 精确匹配未命中会再查找近似的已缓存提问。
+ */
+@Slf4j
+@Component
+public class ResponseCache {
+
+    /**
+     * 每条缓存除内容外的固定内存开销估算（字节）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final ResponseCacheProperties properties;
+    private final PromptSimilarityMatcher similarityMatcher;
+    private final String optionsKey;
+    private final Cache<String, String> cache;
+    private final Counter similarHitCounter;
+
+    public ResponseCache(ResponseCacheProperties properties,
+                         ObjectProvider<PromptSimilarityMatcher> similarityMatcher,
+                         MeterRegistry meterRegistry,
+                         @Value("${spring.ai.openai.chat.options.model:unknown}") String model,
+                         @Value("${spring.ai.openai.chat.options.temperature:}") String temperature,
+                         @Value("${spring.ai.openai.chat.options.top-p:}") String topP,
+                         @Value("${spring.ai.openai.chat.options.max-tokens:}") String maxTokens) {
+        this.properties = properties;
+        this.similarityMatcher = similarityMatcher.getIfAvailable();
+        this.optionsKey = String.join("|", model, temperature, topP, maxTokens);
+        // 每条回复至少按平均份额计重，使条数同样不超过 maxEntries
+        int minWeight = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, properties.getMaxWeightBytes() / Math.max(1, properties.getMaxEntries())));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxWeightBytes())
+                .weigher((String key, String reply) -> Math.max(minWeight, weigh(key, reply)))
+                .expireAfterWrite(Duration.ofSeconds(properties.getTtlSeconds()))
+                .removalListener((String key, String reply, RemovalCause cause) -> {
+                    if (this.similarityMatcher != null && key != null && cause != RemovalCause.REPLACED) {
+                        this.similarityMatcher.remove(key);
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.response");
+        this.similarHitCounter = Counter.builder("chat.response.cache.similar.hits")
+                .description("精确匹配未命中、由近似提问命中的次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查找缓存的回复
+     *
+     * @param prompt 用户提问
+     * @return 按片段回放的回复，未命中时返回 null
+     */
+    public Flux<String> lookup(String prompt) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        String normalized = PromptFingerprint.normalize(prompt);
+        String reply = cache.getIfPresent(key(normalized));
+        if (reply == null && similarityMatcher != null) {
+            String similarKey = similarityMatcher.match(normalized);
+            reply = similarKey == null ? null : cache.getIfPresent(similarKey);
+            if (reply != null) {
+                similarHitCounter.increment();
+            }
+        }
+        return reply == null ? null : replay(reply);
+    }
+
+    /**
+     * 在模型输出正常结束后缓存完整回复，出错、超时或取消时不缓存
+     *
+     * @param prompt  用户提问
+     * @param content 模型输出
+     * @return 内容不变的模型输出
+     */
+    public Flux<String> record(String prompt, Flux<String> content) {
+        if (!properties.isEnabled()) {
+            return content;
+        }
+        return Flux.defer(() -> {
+            StringBuilder reply = new StringBuilder();
+            return content
+                    .doOnNext(chunk -> {
+                        // 超长回复不再累积
+                        if (reply.length() <= properties.getMaxReplyChars()) {
+                            reply.append(chunk);
+                        }
+                    })
+                    .doOnComplete(() -> put(prompt, reply));
+        });
+    }
+
+    private void put(String prompt, StringBuilder reply) {
+        if (reply.isEmpty() || reply.length() > properties.getMaxReplyChars()) {
+            return;
+        }
+        String normalized = PromptFingerprint.normalize(prompt);
+        String key = key(normalized);
+        cache.put(key, reply.toString());
+        if (similarityMatcher != null) {
+            similarityMatcher.add(key, normalized);
+        }
+    }
+
+    /**
+     * 把完整回复切成固定字符数的片段，不拆开代理对
+     */
+    private Flux<String> replay(String reply) {
+        int chunkChars = Math.max(1, properties.getReplayChunkChars());
+        List<String> chunks = new ArrayList<>(reply.length() / chunkChars + 1);
+        int start = 0;
+        while (start < reply.length()) {
+            int end = Math.min(reply.length(), start + chunkChars);
+            if (end < reply.length() && Character.isHighSurrogate(reply.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(reply.substring(start, end));
+            start = end;
+        }
+        Flux<String> flux = Flux.fromIterable(chunks);
+        if (properties.getReplayIntervalMs() > 0) {
+            flux = flux.delayElements(Duration.ofMillis(properties.getReplayIntervalMs()));
+        }
+        return flux;
+    }
+
+    private String key(String normalizedPrompt) {
+        return optionsKey + ":" + PromptFingerprint.hash(List.of(), normalizedPrompt);
+    }
+
+    private static int weigh(String key, String reply) {
+        return ENTRY_OVERHEAD_BYTES + 2 * (key.length() + reply.length());
+    }
+}
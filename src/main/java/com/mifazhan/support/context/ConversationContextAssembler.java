@@ -0,0 +1,214 @@
+package com.mifazhan.support.context;
+
+import com.mifazhan.config.ChatContextProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.SessionSummary;
+import com.mifazhan.domain.event.SessionDeletedEvent;
+import com.mifazhan.mapper.SessionSummaryMapper;
+import com.mifazhan.service.MessageService;
+import com.mifazhan.support.persist.MessageWriteBehind;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 对话上下文组装
+ * <p>
+ * 为每个会话在内存中维护一个增量更新的历史窗口：首次访问时只读取会话末尾的消息，
+ * 之后新消息直接追加，每条消息的 token 数只估算一次。组装时按 token 预算截取最近的若干轮。
+ * 窗口被淘汰后重新加载时，除数据库中的消息外还补上异步写入中尚未落库的消息，避免上一轮的消息从上下文中消失。
+ * 长会话有摘要时，先发送摘要，再发送摘要之后的最近消息，摘要占用同一份 token 预算。
+ */
+@Slf4j
+@Component
+public class ConversationContextAssembler {
+
+    private final ChatContextProperties properties;
+    private final MessageService messageService;
+    private final SessionSummaryMapper summaryMapper;
+    private final MessageWriteBehind messageWriteBehind;
+    private final Map<Long, SessionWindow> windows;
+
+    public ConversationContextAssembler(ChatContextProperties properties, MessageService messageService,
+                                        SessionSummaryMapper summaryMapper, MessageWriteBehind messageWriteBehind) {
+        this.properties = properties;
+        this.messageService = messageService;
+        this.summaryMapper = summaryMapper;
+        this.messageWriteBehind = messageWriteBehind;
+        int maxCachedSessions = properties.getMaxCachedSessions();
+        this.windows = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SessionWindow> eldest) {
+                return size() > maxCachedSessions;
+            }
+        });
+    }
+
+    /**
+     * 为新建的会话创建空窗口，避免后续轮次再查库
+     *
+     * @param sessionId 会话ID
+     */
+    public void startSession(Long sessionId) {
+        if (properties.isEnabled()) {
+            windows.put(sessionId, newWindow());
+        }
+    }
+
+    /**
+     * 组装会话的历史消息
+     *
+     * @param sessionId 会话ID
+     * @return 按时间正序排列、满足 token 预算的历史消息
+     */
+    public List<org.springframework.ai.chat.messages.Message> history(Long sessionId) {
+        if (!properties.isEnabled() || sessionId == null) {
+            return List.of();
+        }
+        SessionWindow window = window(sessionId);
+        SessionWindow.Summary summary = window.summary();
+        int budget = properties.getMaxTokens() - (summary == null ? 0 : summary.tokens());
+        List<Message> tail = window.tail(Math.max(0, budget));
+        List<org.springframework.ai.chat.messages.Message> history = new ArrayList<>(tail.size() + 1);
+        if (summary != null) {
+            history.add(new SystemMessage(summaryPrompt(summary.content())));
+        }
+        for (Message message : tail) {
+            if ("assistant".equals(message.getRole())) {
+                history.add(new AssistantMessage(message.getContent()));
+            } else if ("user".equals(message.getRole())) {
+                history.add(new UserMessage(message.getContent()));
+            }
+        }
+        return history;
+    }
+
+    /**
+     * 追加一条新消息，只更新已在内存中的窗口
+     *
+     * @param message 新消息
+     */
+    public void append(Message message) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        SessionWindow window = windows.get(message.getSessionId());
+        if (window != null) {
+            window.append(message);
+        }
+    }
+
+    /**
+     * 选出会话待摘要的消息，只检查已在内存中的窗口
+     *
+     * @param sessionId 会话ID
+     * @return 按时间正序排列的消息，未达到摘要阈值时返回空列表
+     */
+    List<Message> pendingSummary(Long sessionId) {
+        SessionWindow window = windows.get(sessionId);
+        if (window == null) {
+            return List.of();
+        }
+        ChatContextProperties.Summary summary = properties.getSummary();
+        return window.pendingSummary(summary.getTriggerTokens(), summary.getKeepRecentMessages());
+    }
+
+    /**
+     * 会话当前的摘要内容
+     *
+     * @return 没有摘要或窗口不在内存中时返回 null
+     */
+    SessionWindow.Summary summary(Long sessionId) {
+        SessionWindow window = windows.get(sessionId);
+        return window == null ? null : window.summary();
+    }
+
+    /**
+     * 应用新生成的摘要，之后的轮次不再发送摘要覆盖的消息
+     *
+     * @param summary 已入库的摘要
+     */
+    void applySummary(SessionSummary summary) {
+        SessionWindow window = windows.get(summary.getSessionId());
+        if (window != null) {
+            window.summarize(toWindowSummary(summary));
+        }
+    }
+
+    @EventListener
+    public void onSessionDeleted(SessionDeletedEvent event) {
+        windows.remove(event.getSessionId());
+    }
+
+    private SessionWindow window(Long sessionId) {
+        SessionWindow window = windows.get(sessionId);
+        if (window != null) {
+            return window;
+        }
+        // 查库放在锁外，并发加载时以先放入的窗口为准
+        SessionWindow loaded = newWindow();
+        if (properties.getSummary().isEnabled()) {
+            SessionSummary summary = summaryMapper.selectById(sessionId);
+            if (summary != null) {
+                loaded.summarize(toWindowSummary(summary));
+            }
+        }
+        for (Message message : recentMessages(sessionId)) {
+            loaded.append(message);
+        }
+        SessionWindow existing = windows.putIfAbsent(sessionId, loaded);
+        log.debug("加载会话历史窗口，sessionId={}, tokens={}", sessionId, loaded.totalTokens());
+        return existing != null ? existing : loaded;
+    }
+
+    /**
+     * 会话末尾的消息：数据库中的消息加上尚未落库的消息，按创建时间排序
+     * <p>
+     * 先取未落库消息的快照再查库：快照之后才落库的消息已在查询结果中，按ID去重；查库之后才落库的消息只在快照中。
+     */
+    private List<Message> recentMessages(Long sessionId) {
+        List<Message> unpersisted = messageWriteBehind.unpersisted(sessionId);
+        List<Message> recent = messageService.getRecentBySessionId(sessionId, properties.getMaxMessages());
+        if (unpersisted.isEmpty()) {
+            return recent;
+        }
+        Set<Long> loadedIds = new HashSet<>();
+        for (Message message : recent) {
+            loadedIds.add(message.getId());
+        }
+        List<Message> merged = new ArrayList<>(recent);
+        for (Message message : unpersisted) {
+            if (message.getId() == null || !loadedIds.contains(message.getId())) {
+                merged.add(message);
+            }
+        }
+        // 重试中的较早消息可能晚于已落库的消息提交，稳定排序保持同一时间内的原有顺序
+        merged.sort(Comparator.comparing(Message::getCreationTime));
+        return merged;
+    }
+
+    private static SessionWindow.Summary toWindowSummary(SessionSummary summary) {
+        return new SessionWindow.Summary(summary.getContent(), summary.getLastMessageId(), summary.getMessageCount(),
+                TokenEstimator.estimate(summaryPrompt(summary.getContent())));
+    }
+
+    private static String summaryPrompt(String content) {
+        return "以下是本会话较早对话的摘要，回答时可作为上下文参考：\n" + content;
+    }
+
+    private SessionWindow newWindow() {
+        return new SessionWindow(properties.getMaxMessages(), properties.getMaxTokens());
+    }
+}
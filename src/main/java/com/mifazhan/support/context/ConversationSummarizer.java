@@ -0,0 +1,176 @@
+package com.mifazhan.support.context;
+
+import com.mifazhan.config.ChatContextProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.SessionSummary;
+import com.mifazhan.mapper.SessionSummaryMapper;
+import com.mifazhan.support.route.ModelRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 长会话滚动摘要
+ * <p>
+ * 每轮对话结束后检查会话的历史窗口，摘要之后的消息超过阈值时，在后台把较早的消息连同已有摘要交给模型压缩成新的摘要，
+ * 写入 session_summary 表并更新窗口；之后的轮次发送摘要加最近的消息，提示词长度不再随会话增长。
+ * 摘要在独立的有界线程池中执行，队列已满时丢弃任务，不影响进行中的对话；同一会话同时只有一个摘要任务。
+ */
+@Slf4j
+@Component
+public class ConversationSummarizer implements DisposableBean {
+
+    private static final String INSTRUCTION = "你是对话摘要助手。把已有摘要和新增对话合并为一份新的摘要，"
+            + "保留用户的身份、偏好、目标、已确认的结论和尚未解决的问题，省略寒暄和重复内容。"
+            + "只输出摘要本身，不超过 %d 字。";
+
+    private final ChatContextProperties properties;
+    private final ConversationContextAssembler contextAssembler;
+    private final SessionSummaryMapper summaryMapper;
+    private final ModelRouter modelRouter;
+    private final ThreadPoolExecutor executor;
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    private final Timer runTimer;
+    private final Counter summarizedMessageCounter;
+    private final Counter failureCounter;
+    private final Counter droppedCounter;
+
+    public ConversationSummarizer(ChatContextProperties properties,
+                                  ConversationContextAssembler contextAssembler,
+                                  SessionSummaryMapper summaryMapper,
+                                  ModelRouter modelRouter,
+                                  MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.contextAssembler = contextAssembler;
+        this.summaryMapper = summaryMapper;
+        this.modelRouter = modelRouter;
+        ChatContextProperties.Summary summary = properties.getSummary();
+        int threads = Math.max(1, summary.getThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, summary.getQueueCapacity())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "conversation-summarizer-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.runTimer = Timer.builder("chat.summary.run")
+                .description("单次生成会话摘要的耗时，含等待模型调用配额")
+                .register(meterRegistry);
+        this.summarizedMessageCounter = Counter.builder("chat.summary.messages")
+                .description("被压缩进摘要的消息数")
+                .register(meterRegistry);
+        this.failureCounter = Counter.builder("chat.summary.failures")
+                .description("生成摘要失败的次数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.summary.dropped")
+                .description("因队列已满而丢弃的摘要任务数")
+                .register(meterRegistry);
+        Gauge.builder("chat.summary.queued", executor, pool -> pool.getQueue().size())
+                .description("等待执行的摘要任务数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 一轮对话结束后调用：会话达到摘要阈值时提交后台摘要任务，只检查内存中的窗口，不阻塞调用方
+     *
+     * @param sessionId 会话ID
+     */
+    public void afterTurn(Long sessionId) {
+        if (!properties.isEnabled() || !properties.getSummary().isEnabled()) {
+            return;
+        }
+        if (contextAssembler.pendingSummary(sessionId).isEmpty() || !running.add(sessionId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> summarizeQuietly(sessionId));
+        } catch (RejectedExecutionException e) {
+            running.remove(sessionId);
+            droppedCounter.increment();
+            log.debug("摘要队列已满，跳过本次摘要，sessionId={}", sessionId);
+        }
+    }
+
+    private void summarizeQuietly(Long sessionId) {
+        try {
+            runTimer.record(() -> summarize(sessionId));
+        } catch (Exception e) {
+            failureCounter.increment();
+            log.warn("生成会话摘要失败，sessionId={}: {}", sessionId, e.toString());
+        } finally {
+            running.remove(sessionId);
+        }
+    }
+
+    private void summarize(Long sessionId) {
+        // 执行时重新选取，排队期间窗口可能已变化
+        List<Message> pending = contextAssembler.pendingSummary(sessionId);
+        if (pending.isEmpty()) {
+            return;
+        }
+        SessionWindow.Summary previous = contextAssembler.summary(sessionId);
+        StringBuilder prompt = new StringBuilder();
+        if (previous != null) {
+            prompt.append("已有摘要：\n").append(previous.content()).append("\n\n");
+        }
+        prompt.append("新增对话：\n");
+        for (Message message : pending) {
+            prompt.append("assistant".equals(message.getRole()) ? "AI：" : "用户：")
+                    .append(message.getContent())
+                    .append('\n');
+        }
+        String userMessage = prompt.toString();
+        int maxChars = properties.getSummary().getMaxChars();
+        List<org.springframework.ai.chat.messages.Message> instruction = List.of(new SystemMessage(INSTRUCTION.formatted(maxChars)));
+        String content = modelRouter.stream(sessionId, instruction, userMessage, model -> {
+                })
+                .collect(Collectors.joining())
+                .block(Duration.ofSeconds(properties.getSummary().getTimeoutSeconds()));
+        if (content == null || content.isBlank()) {
+            throw new IllegalStateException("模型返回的摘要为空");
+        }
+        content = content.strip();
+        if (content.length() > maxChars) {
+            content = content.substring(0, maxChars);
+        }
+
+        SessionSummary summary = new SessionSummary();
+        summary.setSessionId(sessionId);
+        summary.setContent(content);
+        summary.setLastMessageId(pending.get(pending.size() - 1).getId());
+        summary.setMessageCount((previous == null ? 0 : previous.messageCount()) + pending.size());
+        summary.setUpdateTime(LocalDateTime.now());
+        if (summaryMapper.updateById(summary) == 0) {
+            summaryMapper.insert(summary);
+        }
+        contextAssembler.applySummary(summary);
+        summarizedMessageCounter.increment(pending.size());
+        log.info("已生成会话摘要，sessionId={}, 新增覆盖消息数={}, 摘要字数={}", sessionId, pending.size(), content.length());
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
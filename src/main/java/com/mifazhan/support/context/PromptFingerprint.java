@@ -0,0 +1,59 @@
+package com.mifazhan.support.context;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 提示内容的规范化与摘要，用于识别内容相同的请求
+ */
+public final class PromptFingerprint {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private PromptFingerprint() {
+    }
+
+    /**
+     * 去掉首尾空白并把连续空白合并为一个空格
+     */
+    public static String normalize(String text) {
+        return text == null ? "" : WHITESPACE.matcher(text.strip()).replaceAll(" ");
+    }
+
+    /**
+     * 计算历史消息和用户消息规范化后的 SHA-256 摘要
+     *
+     * @param history     历史消息
+     * @param userMessage 用户消息
+     * @return 十六进制摘要
+     */
+    public static String hash(List<Message> history, String userMessage) {
+        MessageDigest digest = sha256();
+        for (Message message : history) {
+            update(digest, message.getMessageType().getValue());
+            update(digest, normalize(message.getText()));
+        }
+        update(digest, normalize(userMessage));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        // 分隔符，避免不同切分方式拼接出相同内容
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.mifazhan.support.context;
+
+import com.mifazhan.domain.entity.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 单个会话的历史消息窗口
+ * <p>
+ * 只保留会话末尾的若干条消息及其 token 估算值，新消息追加到尾部，
+ * 超出条数上限或 token 预算的最旧消息从头部移除。
+ * 会话有摘要时，窗口只保留摘要之后的消息。
+ */
+class SessionWindow {
+
+    private final int maxMessages;
+    private final int maxTokens;
+    private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+    private int totalTokens;
+    private Summary summary;
+
+    SessionWindow(int maxMessages, int maxTokens) {
+        this.maxMessages = maxMessages;
+        this.maxTokens = maxTokens;
+    }
+
+    synchronized void append(Message message) {
+        if (covered(message)) {
+            return;
+        }
+        Turn turn = new Turn(message, TokenEstimator.estimate(message.getContent()));
+        turns.addLast(turn);
+        totalTokens += turn.tokens();
+        // 去掉最旧的消息后仍超出预算时，最旧的消息已不可能被用到
+        while (turns.size() > maxMessages
+                || (turns.size() > 1 && totalTokens - turns.peekFirst().tokens() >= maxTokens)) {
+            totalTokens -= turns.removeFirst().tokens();
+        }
+    }
+
+    /**
+     * 从最新消息向前选取，直到用完 token 预算
+     *
+     * @param tokenBudget token 预算
+     * @return 按时间正序排列的消息
+     */
+    synchronized List<Message> tail(int tokenBudget) {
+        List<Message> selected = new ArrayList<>();
+        int used = 0;
+        Iterator<Turn> iterator = turns.descendingIterator();
+        while (iterator.hasNext()) {
+            Turn turn = iterator.next();
+            if (used + turn.tokens() > tokenBudget) {
+                break;
+            }
+            used += turn.tokens();
+            selected.add(turn.message());
+        }
+        Collections.reverse(selected);
+        return selected;
+    }
+
+    synchronized int totalTokens() {
+        return totalTokens;
+    }
+
+    synchronized Summary summary() {
+        return summary;
+    }
+
+    /**
+     * 更新摘要并移除已被摘要覆盖的消息，不早于当前摘要的更新被忽略
+     */
+    synchronized void summarize(Summary summary) {
+        if (this.summary != null && this.summary.lastMessageId() >= summary.lastMessageId()) {
+            return;
+        }
+        this.summary = summary;
+        while (!turns.isEmpty() && covered(turns.peekFirst().message())) {
+            totalTokens -= turns.removeFirst().tokens();
+        }
+    }
+
+    /**
+     * 摘要之后的消息超过 triggerTokens 时，选出待摘要的消息：除最近 keepRecent 条之外、已入库（有ID）的最早一段
+     *
+     * @return 按时间正序排列的消息，未达到阈值时返回空列表
+     */
+    synchronized List<Message> pendingSummary(int triggerTokens, int keepRecent) {
+        if (totalTokens <= triggerTokens) {
+            return List.of();
+        }
+        List<Message> pending = new ArrayList<>();
+        Iterator<Turn> iterator = turns.iterator();
+        for (int i = turns.size() - keepRecent; i > 0 && iterator.hasNext(); i--) {
+            Message message = iterator.next().message();
+            if (message.getId() == null) {
+                break;
+            }
+            pending.add(message);
+        }
+        return pending;
+    }
+
+    private boolean covered(Message message) {
+        return summary != null && message.getId() != null && message.getId() <= summary.lastMessageId();
+    }
+
+    private record Turn(Message message, int tokens) {
+    }
+
+    /**
+     * 会话较早对话的摘要
+     *
+     * @param content       摘要内容
+     * @param lastMessageId 摘要覆盖的最后一条消息ID
+     * @param messageCount  摘要累计覆盖的消息条数
+     * @param tokens        作为历史消息发送时的 token 估算值
+     */
+    record Summary(String content, long lastMessageId, int messageCount, int tokens) {
+    }
+}
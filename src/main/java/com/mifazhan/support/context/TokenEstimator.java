@@ -0,0 +1,67 @@
+package com.mifazhan.support.context;
+
+/**
+ * token 数量估算
+ * <p>
+ * 不依赖具体模型的分词器，按字符类别粗略估算：中日韩字符每字约 1 个 token，
+ * 其余字符每 4 个约 1 个 token，另加每条消息的固定开销。
+ */
+public final class TokenEstimator {
+
+    /**
+     * 每条消息的角色、分隔符等固定开销
+     */
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算单条消息的 token 数
+     *
+     * @param content 消息内容
+     * @return 估算的 token 数
+     */
+    public static int estimate(String content) {
+        if (content == null || content.isEmpty()) {
+            return MESSAGE_OVERHEAD;
+        }
+        Counter counter = new Counter();
+        counter.add(content);
+        return counter.tokens();
+    }
+
+    /**
+     * 逐片段累加估算流式输出的 token 数，结果与对完整内容调用 {@link #estimate(String)} 相同。非线程安全。
+     */
+    public static final class Counter {
+        private int cjk;
+        private int other;
+
+        public void add(String chunk) {
+            for (int i = 0; i < chunk.length(); ) {
+                int codePoint = chunk.codePointAt(i);
+                if (isCjk(codePoint)) {
+                    cjk++;
+                } else {
+                    other++;
+                }
+                i += Character.charCount(codePoint);
+            }
+        }
+
+        public int tokens() {
+            return MESSAGE_OVERHEAD + cjk + (other + 3) / 4;
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        if (Character.isIdeographic(codePoint)) {
+            return true;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,70 @@
+package com.mifazhan.support.page;
+
+import com.mifazhan.exception.BusinessException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+/**
+ * 键集分页游标，由排序时间和主键组成
+ * <p>
+ * 时间精确到秒，与数据库 datetime 列的精度一致；对外以 Base64 编码的不透明字符串传递。
+ *
+ * @param time 排序时间
+ * @param id   主键，时间相同时用于确定顺序
+ */
+public record PageCursor(LocalDateTime time, Long id) {
+
+    public static final int DEFAULT_SIZE = 20;
+    public static final int MAX_SIZE = 100;
+
+    public static PageCursor of(LocalDateTime time, Long id) {
+        return new PageCursor(time.withNano(0), id);
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param cursor 游标字符串，为空表示第一页
+     * @return 游标，第一页时返回 null
+     */
+    public static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            long epochSecond = Long.parseLong(decoded.substring(0, separator));
+            long id = Long.parseLong(decoded.substring(separator + 1));
+            return new PageCursor(LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC), id);
+        } catch (RuntimeException e) {
+            throw new BusinessException(400, "无效的分页游标");
+        }
+    }
+
+    /**
+     * 限制每页条数在合法范围内
+     */
+    public static int normalizeSize(Integer size) {
+        if (size == null || size <= 0) {
+            return DEFAULT_SIZE;
+        }
+        return Math.min(size, MAX_SIZE);
+    }
+
+    public String encode() {
+        String raw = time.toEpochSecond(ZoneOffset.UTC) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 判断给定位置是否早于游标，即倒序分页时属于下一页
+     */
+    public boolean isOlder(LocalDateTime otherTime, Long otherId) {
+        int compare = otherTime.withNano(0).compareTo(time);
+        return compare < 0 || (compare == 0 && otherId < id);
+    }
+}
@@ -0,0 +1,285 @@
+package com.mifazhan.support.persist;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mifazhan.config.ArchiveProperties;
+import com.mifazhan.domain.convert.MessageConvert;
+import com.mifazhan.domain.dto.MessageDTO;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.MessageArchive;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.mapper.MessageArchiveMapper;
+import com.mifazhan.mapper.MessageMapper;
+import com.mifazhan.mapper.SessionMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 冷会话消息归档
+ * <p>
+ * 后台任务按更新时间扫描超过 idleDays 未更新的会话，把热表 message 中的消息压缩成一行写入 message_archive，
+ * 再从热表删除。已归档的会话继续对话时新消息照常写入热表，下次归档时与已有归档合并。
+ * 读取时由 {@link com.mifazhan.service.MessageService} 合并归档和热表中的消息，对调用方透明。
+ */
+@Slf4j
+@Component
+public class MessageArchiver implements DisposableBean {
+
+    private static final TypeReference<List<MessageDTO>> MESSAGE_LIST = new TypeReference<>() {
+    };
+
+    /**
+     * 单条 DELETE 语句最多删除的消息数
+     */
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    private final ArchiveProperties properties;
+    private final SessionMapper sessionMapper;
+    private final MessageMapper messageMapper;
+    private final MessageArchiveMapper archiveMapper;
+    private final MessageConvert messageConvert;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ScheduledExecutorService executor;
+
+    private final Timer runTimer;
+    private final Timer readTimer;
+    private final Counter archivedSessionCounter;
+    private final Counter archivedMessageCounter;
+    private final Counter reclaimedBytesCounter;
+    private final Counter storedBytesCounter;
+
+    /**
+     * 扫描游标，应用重启后从头开始
+     */
+    private LocalDateTime cursorTime;
+    private Long cursorId;
+    private volatile boolean stopping;
+
+    public MessageArchiver(ArchiveProperties properties,
+                           SessionMapper sessionMapper,
+                           MessageMapper messageMapper,
+                           MessageArchiveMapper archiveMapper,
+                           MessageConvert messageConvert,
+                           ObjectMapper objectMapper,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.sessionMapper = sessionMapper;
+        this.messageMapper = messageMapper;
+        this.archiveMapper = archiveMapper;
+        this.messageConvert = messageConvert;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.isEnabled()) {
+            executor.scheduleWithFixedDelay(this::archiveQuietly,
+                    properties.getIntervalSeconds(), properties.getIntervalSeconds(), TimeUnit.SECONDS);
+        }
+
+        this.runTimer = Timer.builder("chat.archive.run")
+                .description("单次归档冷会话的耗时")
+                .register(meterRegistry);
+        this.readTimer = Timer.builder("chat.archive.read")
+                .description("读取并解压一个会话归档的耗时")
+                .register(meterRegistry);
+        this.archivedSessionCounter = Counter.builder("chat.archive.sessions")
+                .description("归档的会话数（同一会话再次归档重复计数）")
+                .register(meterRegistry);
+        this.archivedMessageCounter = Counter.builder("chat.archive.messages")
+                .description("从热表移入归档的消息数")
+                .register(meterRegistry);
+        this.reclaimedBytesCounter = Counter.builder("chat.archive.reclaimed.bytes")
+                .description("从热表移除的消息内容字节数（UTF-8）")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.storedBytesCounter = Counter.builder("chat.archive.stored.bytes")
+                .description("归档表新增的压缩后字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 会话是否有归档，按主键查询
+     */
+    public boolean exists(Long sessionId) {
+        return archiveMapper.exists(new LambdaQueryWrapper<MessageArchive>().eq(MessageArchive::getSessionId, sessionId));
+    }
+
+    /**
+     * 读取会话的归档消息
+     *
+     * @param sessionId 会话ID
+     * @return 按时间正序排列的消息，没有归档时返回空列表
+     */
+    public List<MessageDTO> load(Long sessionId) {
+        MessageArchive archive = archiveMapper.selectById(sessionId);
+        if (archive == null) {
+            return List.of();
+        }
+        return readTimer.record(() -> decode(archive.getContent()));
+    }
+
+    /**
+     * 删除会话的归档，供清理已删除会话时使用
+     */
+    public void delete(Long sessionId) {
+        archiveMapper.deleteById(sessionId);
+    }
+
+    /**
+     * 归档一批冷会话
+     *
+     * @return 本次归档的会话数
+     */
+    public int archive() {
+        return runTimer.record(() -> {
+            LocalDateTime idleBefore = LocalDateTime.now().minusDays(properties.getIdleDays());
+            List<Session> sessions = sessionMapper.selectIdleSessions(idleBefore, cursorTime, cursorId,
+                    properties.getMaxSessionsPerRun());
+            int archived = 0;
+            for (Session session : sessions) {
+                if (stopping) {
+                    break;
+                }
+                if (archiveSession(session.getSessionId())) {
+                    archived++;
+                    pause();
+                }
+                cursorTime = session.getUpdateTime();
+                cursorId = session.getSessionId();
+            }
+            if (sessions.size() < properties.getMaxSessionsPerRun()) {
+                // 已扫描到当前的冷会话边界，下次从头开始，覆盖重新变冷的会话
+                cursorTime = null;
+                cursorId = null;
+            }
+            if (archived > 0) {
+                log.info("已归档 {} 个冷会话", archived);
+            }
+            return archived;
+        });
+    }
+
+    /**
+     * 把会话在热表中的消息合并进归档，并从热表删除
+     *
+     * @return 热表中没有消息时返回 false
+     */
+    boolean archiveSession(Long sessionId) {
+        Boolean archived = transactionTemplate.execute(status -> {
+            List<Message> hot = messageMapper.selectList(new LambdaQueryWrapper<Message>()
+                    .eq(Message::getSessionId, sessionId)
+                    .orderByAsc(Message::getCreationTime)
+                    .orderByAsc(Message::getId));
+            if (hot.isEmpty()) {
+                return false;
+            }
+            MessageArchive existing = archiveMapper.selectById(sessionId);
+            List<MessageDTO> messages = new ArrayList<>(existing == null ? List.of() : decode(existing.getContent()));
+            long reclaimedBytes = 0;
+            List<Long> hotIds = new ArrayList<>(hot.size());
+            for (Message message : hot) {
+                messages.add(messageConvert.toMessageDTO(message));
+                hotIds.add(message.getId());
+                reclaimedBytes += message.getContent() == null ? 0 : message.getContent().getBytes(StandardCharsets.UTF_8).length;
+            }
+
+            MessageArchive archive = new MessageArchive();
+            archive.setSessionId(sessionId);
+            archive.setMessageCount(messages.size());
+            archive.setLastMessageId(hot.get(hot.size() - 1).getId());
+            archive.setRawBytes((existing == null ? 0 : existing.getRawBytes()) + reclaimedBytes);
+            archive.setContent(encode(messages));
+            archive.setCompressedBytes((long) archive.getContent().length);
+            archive.setArchiveTime(LocalDateTime.now());
+            if (existing == null) {
+                archiveMapper.insert(archive);
+            } else {
+                archiveMapper.updateById(archive);
+            }
+            // 按读到的ID删除，不会误删并发写入、尚未归档的消息
+            for (int from = 0; from < hotIds.size(); from += DELETE_CHUNK_SIZE) {
+                messageMapper.deleteArchived(sessionId, hotIds.subList(from, Math.min(hotIds.size(), from + DELETE_CHUNK_SIZE)));
+            }
+
+            archivedSessionCounter.increment();
+            archivedMessageCounter.increment(hot.size());
+            reclaimedBytesCounter.increment(reclaimedBytes);
+            storedBytesCounter.increment(archive.getCompressedBytes() - (existing == null ? 0 : existing.getCompressedBytes()));
+            return true;
+        });
+        return Boolean.TRUE.equals(archived);
+    }
+
+    private byte[] encode(List<MessageDTO> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(gzip, messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<MessageDTO> decode(byte[] content) {
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return objectMapper.readValue(gzip, MESSAGE_LIST);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void pause() {
+        if (properties.getSessionPauseMs() <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(properties.getSessionPauseMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopping = true;
+        }
+    }
+
+    private void archiveQuietly() {
+        try {
+            archive();
+        } catch (Exception e) {
+            log.error("归档冷会话失败，下次继续", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stopping = true;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,490 @@
+package com.mifazhan.support.persist;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mifazhan.config.MessagePersistProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.event.MessagesPersistedEvent;
+import com.mifazhan.service.MessageService;
+import com.mifazhan.service.SessionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 消息异步批量写入
+ * <p>
+ * 对话过程中的消息插入和会话更新时间刷新先进入内存队列，由后台线程按条数或时间间隔批量落库：
+ * 消息使用 JDBC 批量插入，同一会话的多次更新时间刷新合并为一次更新。
+ * <p>
+ * 调用方提交后即视为成功，写入失败不会反馈给调用方：
+ * <ul>
+ *     <li>数据库不可用（连接失败、锁等待超时等可恢复的错误）时整批留待重试，定时刷盘按指数退避推迟，
+ *     持续超过 retryWindowMs 仍未恢复才写入死信文件；</li>
+ *     <li>其他错误时逐条重试，把有问题的消息隔离出来，同一条消息因自身问题失败超过 maxRetries 次后写入死信文件。</li>
+ * </ul>
+ * 写入死信文件的消息计入 chat.persist.dead.letters，需人工补录，否则这些消息将丢失。
+ * 记入回复日志的 AI 回复（journalId 不为空）写入失败时不在这里重试，由 {@link ReplyJournal} 负责重新提交和最终转存死信文件，
+ * 避免两边各自重试造成重复入库或重复的死信。
+ * 更新时间刷新失败时放回待刷新集合，下次刷盘重试。
+ */
+@Slf4j
+@Component
+public class MessageWriteBehind implements DisposableBean {
+
+    private final MessagePersistProperties properties;
+    private final MessageService messageService;
+    private final SessionService sessionService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+
+    private final BlockingQueue<Message> pendingMessages;
+    /**
+     * 待刷新的会话更新时间，key 为会话ID，重复刷新只保留最新值
+     */
+    private final Map<Long, LocalDateTime> pendingTouches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flushExecutor;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /**
+     * 已提交但尚未落库的消息，按会话分组，供重建对话上下文时补齐；各会话的列表在 compute 内读写
+     */
+    private final Map<Long, List<Message>> unpersisted = new ConcurrentHashMap<>();
+    /**
+     * 写入失败、等待下次刷盘重试的消息及其重试状态，由 flushLock 保护
+     */
+    private final List<Message> retryMessages = new ArrayList<>();
+    private final Map<Message, RetryState> retryStates = new IdentityHashMap<>();
+    /**
+     * 当前退避时长（毫秒），0 表示未在退避，由 flushLock 保护
+     */
+    private long backoffMs;
+    /**
+     * 退避期间定时刷盘在该时刻之前跳过
+     */
+    private volatile long nextAttemptNanos;
+    private volatile boolean backingOff;
+    /**
+     * 等待重试的消息数，供监控读取，避免与刷盘争锁
+     */
+    private volatile int retrying;
+
+    private final Timer flushTimer;
+    private final Counter flushedMessageCounter;
+    private final Counter syncFallbackCounter;
+    private final Counter deadLetterCounter;
+
+    /**
+     * 一条写入失败的消息：首次失败的时间和因自身问题失败的次数
+     */
+    private static final class RetryState {
+        private final long sinceNanos;
+        private int badDataAttempts;
+
+        private RetryState(long sinceNanos) {
+            this.sinceNanos = sinceNanos;
+        }
+    }
+
+    public MessageWriteBehind(MessagePersistProperties properties,
+                              MessageService messageService,
+                              SessionService sessionService,
+                              ApplicationEventPublisher eventPublisher,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.messageService = messageService;
+        this.sessionService = sessionService;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.pendingMessages = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.isWriteBehind()) {
+            flushExecutor.scheduleWithFixedDelay(this::flushQuietly,
+                    properties.getFlushIntervalMs(), properties.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+
+        Gauge.builder("chat.persist.queue.size", pendingMessages, BlockingQueue::size)
+                .description("等待写入的消息数")
+                .register(meterRegistry);
+        Gauge.builder("chat.persist.pending.touches", pendingTouches, Map::size)
+                .description("等待刷新更新时间的会话数")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.persist.flush")
+                .description("单次批量刷盘耗时")
+                .register(meterRegistry);
+        this.flushedMessageCounter = Counter.builder("chat.persist.flushed.messages")
+                .description("批量写入的消息条数")
+                .register(meterRegistry);
+        this.syncFallbackCounter = Counter.builder("chat.persist.sync.fallback")
+                .description("队列已满退化为同步写入的次数")
+                .register(meterRegistry);
+        this.deadLetterCounter = Counter.builder("chat.persist.dead.letters")
+                .description("重试耗尽、写入死信文件的消息数")
+                .register(meterRegistry);
+        Gauge.builder("chat.persist.retry.messages", this, writeBehind -> writeBehind.retrying)
+                .description("写入失败、等待重试的消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交一条待插入的消息
+     * <p>
+     * 创建时间在提交时确定，保证刷盘延迟不影响消息顺序；精度截断到秒，与 datetime 列保持一致。
+     *
+     * @param message 消息
+     */
+    public void enqueue(Message message) {
+        if (message.getCreationTime() == null) {
+            message.setCreationTime(LocalDateTime.now().withNano(0));
+        }
+        if (!properties.isWriteBehind()) {
+            saveNow(message);
+            return;
+        }
+        // 先登记再入队，避免刷盘线程已写入后才登记
+        track(message);
+        if (!pendingMessages.offer(message)) {
+            untrack(message);
+            log.warn("消息写入队列已满，退化为同步写入，sessionId={}", message.getSessionId());
+            syncFallbackCounter.increment();
+            saveNow(message);
+            return;
+        }
+        if (pendingMessages.size() >= properties.getBatchSize()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 刷新会话更新时间，同一会话在一个刷盘周期内的多次刷新合并为一次
+     *
+     * @param sessionId  会话ID
+     * @param updateTime 更新时间
+     */
+    public void touchSession(Long sessionId, LocalDateTime updateTime) {
+        if (!properties.isWriteBehind()) {
+            sessionService.updateById(newTouch(sessionId, updateTime));
+            return;
+        }
+        pendingTouches.merge(sessionId, updateTime, (oldTime, newTime) -> newTime.isAfter(oldTime) ? newTime : oldTime);
+    }
+
+    /**
+     * 会话中已提交、尚未落库的消息，包括队列中、正在写入和等待重试的消息
+     *
+     * @param sessionId 会话ID
+     * @return 按提交顺序排列的消息快照
+     */
+    public List<Message> unpersisted(Long sessionId) {
+        List<Message> snapshot = new ArrayList<>();
+        unpersisted.computeIfPresent(sessionId, (id, messages) -> {
+            snapshot.addAll(messages);
+            return messages;
+        });
+        return snapshot;
+    }
+
+    /**
+     * 立即将队列中的数据写入数据库
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Message> batch = new ArrayList<>(retryMessages);
+            retryMessages.clear();
+            pendingMessages.drainTo(batch);
+            List<Session> touches = new ArrayList<>();
+            for (Long sessionId : pendingTouches.keySet()) {
+                LocalDateTime updateTime = pendingTouches.remove(sessionId);
+                if (updateTime != null) {
+                    touches.add(newTouch(sessionId, updateTime));
+                }
+            }
+            if (batch.isEmpty() && touches.isEmpty()) {
+                return;
+            }
+
+            Timer.Sample sample = Timer.start();
+            if (!batch.isEmpty()) {
+                saveMessages(batch);
+                retrying = retryMessages.size();
+            }
+            if (!touches.isEmpty()) {
+                try {
+                    sessionService.updateBatchById(touches, properties.getBatchSize());
+                } catch (RuntimeException e) {
+                    // 放回待刷新集合，期间有更晚的刷新时以更晚的为准
+                    for (Session touch : touches) {
+                        pendingTouches.merge(touch.getSessionId(), touch.getUpdateTime(),
+                                (oldTime, newTime) -> newTime.isAfter(oldTime) ? newTime : oldTime);
+                    }
+                    throw e;
+                }
+            }
+            sample.stop(flushTimer);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        if (properties.isFlushOnShutdown()) {
+            log.info("应用关闭，同步刷出剩余消息，count={}", pendingMessages.size());
+            try {
+                flush();
+            } finally {
+                // 关闭后不再有重试机会
+                flushLock.lock();
+                try {
+                    retryMessages.forEach(this::deadLetter);
+                    retryMessages.clear();
+                    retrying = 0;
+                } finally {
+                    flushLock.unlock();
+                }
+            }
+        } else if (!pendingMessages.isEmpty()) {
+            log.warn("应用关闭，丢弃未写入的消息，count={}", pendingMessages.size());
+        }
+    }
+
+    private void saveNow(Message message) {
+        messageService.save(message);
+        eventPublisher.publishEvent(new MessagesPersistedEvent(List.of(message)));
+    }
+
+    private void saveMessages(List<Message> batch) {
+        try {
+            messageService.saveBatch(batch, properties.getBatchSize());
+            saved(batch);
+            return;
+        } catch (Exception e) {
+            if (isConnectionFailure(e)) {
+                // 数据库不可用时逐条重试也会失败，整批留待退避后重试
+                backOff();
+                log.warn("数据库不可用，{} 条消息 {} 毫秒后整批重试: {}", batch.size(), backoffMs, e.toString());
+                batch.forEach(message -> retryLater(message, e, false));
+                return;
+            }
+            // 批量失败时逐条重试，避免单条异常数据拖累整批
+            log.error("批量写入消息失败，改为逐条写入，count={}", batch.size(), e);
+        }
+        List<Message> saved = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            try {
+                message.setId(null);
+                messageService.save(message);
+                saved.add(message);
+            } catch (Exception e) {
+                if (isConnectionFailure(e)) {
+                    // 逐条写入途中数据库不可用，剩余的消息不再尝试
+                    backOff();
+                    log.warn("数据库不可用，{} 条消息 {} 毫秒后整批重试: {}", batch.size() - i, backoffMs, e.toString());
+                    batch.subList(i, batch.size()).forEach(rest -> retryLater(rest, e, false));
+                    break;
+                }
+                retryLater(message, e, true);
+            }
+        }
+        if (!saved.isEmpty()) {
+            saved(saved);
+        }
+    }
+
+    private void saved(List<Message> messages) {
+        flushedMessageCounter.increment(messages.size());
+        messages.forEach(retryStates::remove);
+        messages.forEach(this::untrack);
+        backoffMs = 0;
+        backingOff = false;
+        eventPublisher.publishEvent(new MessagesPersistedEvent(messages));
+    }
+
+    /**
+     * 写入失败的消息留待下次刷盘重试，记入回复日志的回复除外；因自身问题失败超过 maxRetries 次，或持续失败超过 retryWindowMs 时写入死信文件。须持有 flushLock
+     *
+     * @param badData 是否为消息自身的问题，数据库不可用导致的失败不计入重试次数
+     */
+    private void retryLater(Message message, Exception error, boolean badData) {
+        if (message.getJournalId() != null) {
+            retryStates.remove(message);
+            untrack(message);
+            log.warn("写入 AI 回复失败，交由回复日志重新提交，sessionId={}: {}", message.getSessionId(), error.toString());
+            return;
+        }
+        long now = System.nanoTime();
+        RetryState state = retryStates.computeIfAbsent(message, key -> new RetryState(now));
+        if (badData) {
+            state.badDataAttempts++;
+            if (state.badDataAttempts > properties.getMaxRetries()) {
+                log.error("写入消息失败，重试已耗尽，sessionId={}, role={}", message.getSessionId(), message.getRole(), error);
+                deadLetter(message);
+                return;
+            }
+            log.warn("写入消息失败，下次刷盘重试（第 {} 次），sessionId={}, role={}: {}",
+                    state.badDataAttempts, message.getSessionId(), message.getRole(), error.toString());
+        } else if (properties.getRetryWindowMs() > 0
+                && now - state.sinceNanos > TimeUnit.MILLISECONDS.toNanos(properties.getRetryWindowMs())) {
+            log.error("数据库持续不可用超过 {} 毫秒，放弃写入消息，sessionId={}, role={}",
+                    properties.getRetryWindowMs(), message.getSessionId(), message.getRole(), error);
+            deadLetter(message);
+            return;
+        }
+        retryMessages.add(message);
+    }
+
+    /**
+     * 数据库不可用：定时刷盘的间隔从 flushIntervalMs 起逐次翻倍，不超过 maxBackoffMs。须持有 flushLock
+     */
+    private void backOff() {
+        backoffMs = backoffMs == 0 ? properties.getFlushIntervalMs() : Math.min(backoffMs * 2, properties.getMaxBackoffMs());
+        nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+        backingOff = true;
+    }
+
+    /**
+     * 是否为连接失败、超时等与具体数据无关、稍后可能恢复的错误
+     */
+    static boolean isConnectionFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                    || cause instanceof DataAccessResourceFailureException
+                    || cause instanceof RecoverableDataAccessException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException
+                    || cause instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把其他组件放弃重试的消息追加到同一个死信文件，与刷盘线程的写入互斥
+     *
+     * @param message 放弃写入的消息
+     */
+    void deadLetterExternal(Message message) {
+        flushLock.lock();
+        try {
+            appendDeadLetter(message);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 把最终写入失败的消息追加到死信文件。须持有 flushLock
+     */
+    private void deadLetter(Message message) {
+        retryStates.remove(message);
+        untrack(message);
+        deadLetterCounter.increment();
+        appendDeadLetter(message);
+    }
+
+    /**
+     * 追加一行死信，文件也写不进时只能在日志中保留内容
+     */
+    private void appendDeadLetter(Message message) {
+        try {
+            Path file = Path.of(properties.getDeadLetterFile());
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.writeString(file, objectMapper.writeValueAsString(message) + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.error("写入死信文件失败，消息丢失，sessionId={}, role={}, content={}",
+                    message.getSessionId(), message.getRole(), message.getContent(), e);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                flushExecutor.execute(() -> {
+                    flushScheduled.set(false);
+                    flushQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                // 关闭过程中由 destroy 负责最后一次刷盘
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        if (backingOff && System.nanoTime() - nextAttemptNanos < 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("消息批量刷盘异常", e);
+        }
+    }
+
+    private void track(Message message) {
+        unpersisted.compute(message.getSessionId(), (id, messages) -> {
+            List<Message> list = messages != null ? messages : new ArrayList<>();
+            list.add(message);
+            return list;
+        });
+    }
+
+    private void untrack(Message message) {
+        unpersisted.computeIfPresent(message.getSessionId(), (id, messages) -> {
+            // 按引用移除，内容相同的两条消息互不影响
+            messages.removeIf(tracked -> tracked == message);
+            return messages.isEmpty() ? null : messages;
+        });
+    }
+
+    private static Session newTouch(Long sessionId, LocalDateTime updateTime) {
+        Session session = new Session();
+        session.setSessionId(sessionId);
+        session.setUpdateTime(updateTime);
+        return session;
+    }
+}
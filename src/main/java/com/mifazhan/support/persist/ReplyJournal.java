@@ -0,0 +1,439 @@
+package com.mifazhan.support.persist;
+
+import com.mifazhan.config.ReplyJournalProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.event.MessagesPersistedEvent;
+import com.mifazhan.mapper.SessionMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * AI 回复的本地追加日志（write-ahead log）
+ * <p>
+ * AI 回复在提交入库前先追加到内存映射的日志段文件，落库后追加一条确认记录。
+ * 应用启动时重新提交所有未确认的回复；运行中超过 retryAfterSeconds 仍未确认的回复（通常是数据库不可用导致写入失败）
+ * 也会重新提交，重新提交 maxResubmits 次仍未确认的回复转存到消息死信文件并确认，不再阻止日志段的删除。
+ * 这些回复写入失败时 {@link MessageWriteBehind} 不会自行重试或转存，每条回复最多在死信文件中出现一次。
+ * 最早的日志段中的回复全部确认后删除该段文件。
+ * <p>
+ * 每条记录的格式为：长度(int) + CRC32(int) + 内容，内容首字节为记录类型。进程崩溃时已写入映射内存的数据由操作系统落盘，
+ * forceIntervalMs 控制主动刷盘的频率，决定机器掉电时最多丢失的时间窗口。重新提交可能造成重复写入，即至少一次语义。
+ */
+@Slf4j
+@Component
+public class ReplyJournal implements SmartInitializingSingleton, DisposableBean {
+
+    private static final byte TYPE_RECORD = 1;
+    private static final byte TYPE_ACK = 2;
+    private static final int ENTRY_HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * 一个日志段文件，pending 为其中尚未确认的回复数
+     */
+    private static final class Segment {
+        private final long index;
+        private final Path path;
+        private int pending;
+
+        private Segment(long index, Path path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    /**
+     * 尚未确认入库的回复
+     */
+    private static final class Pending {
+        private final long id;
+        private final long segment;
+        private final Long sessionId;
+        private final LocalDateTime creationTime;
+        private final String content;
+        private volatile long submittedNanos = System.nanoTime();
+        private volatile int resubmits;
+
+        private Pending(long id, long segment, Long sessionId, LocalDateTime creationTime, String content) {
+            this.id = id;
+            this.segment = segment;
+            this.sessionId = sessionId;
+            this.creationTime = creationTime;
+            this.content = content;
+        }
+    }
+
+    private final ReplyJournalProperties properties;
+    private final MessageWriteBehind messageWriteBehind;
+    private final SessionMapper sessionMapper;
+    private final ScheduledExecutorService executor;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private Segment activeSegment;
+    private MappedByteBuffer activeBuffer;
+    private long nextId = 1;
+    private boolean dirty;
+
+    private final Counter appendCounter;
+    private final Counter resubmitCounter;
+    private final Counter failureCounter;
+    private final Counter droppedCounter;
+
+    public ReplyJournal(ReplyJournalProperties properties,
+                        MessageWriteBehind messageWriteBehind,
+                        SessionMapper sessionMapper,
+                        MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.messageWriteBehind = messageWriteBehind;
+        this.sessionMapper = sessionMapper;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reply-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.appendCounter = Counter.builder("chat.journal.appends")
+                .description("写入本地日志的 AI 回复数")
+                .register(meterRegistry);
+        this.resubmitCounter = Counter.builder("chat.journal.resubmitted")
+                .description("从本地日志重新提交入库的 AI 回复数（含启动时的恢复）")
+                .register(meterRegistry);
+        this.failureCounter = Counter.builder("chat.journal.failures")
+                .description("写入本地日志失败的次数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.journal.dropped")
+                .description("重新提交次数耗尽、转存死信文件后从日志中移除的 AI 回复数")
+                .register(meterRegistry);
+        Gauge.builder("chat.journal.pending", pending, Map::size)
+                .description("已写入日志、尚未确认入库的 AI 回复数")
+                .register(meterRegistry);
+        Gauge.builder("chat.journal.segments", this, journal -> journal.segmentCount())
+                .description("磁盘上的日志段文件数")
+                .register(meterRegistry);
+
+        if (properties.isEnabled()) {
+            open();
+            if (properties.getForceIntervalMs() > 0) {
+                executor.scheduleWithFixedDelay(this::forceQuietly,
+                        properties.getForceIntervalMs(), properties.getForceIntervalMs(), TimeUnit.MILLISECONDS);
+            }
+            long retryCheckSeconds = Math.max(1, properties.getRetryAfterSeconds() / 2);
+            executor.scheduleWithFixedDelay(this::resubmitStale, retryCheckSeconds, retryCheckSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 在提交入库前记录一条 AI 回复，并把记录ID写入 {@link Message#getJournalId()}
+     * <p>
+     * 写日志失败只记录错误，不影响回复照常入库。
+     *
+     * @param message 待入库的回复
+     */
+    public void append(Message message) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        byte[] content = message.getContent() == null ? new byte[0] : message.getContent().getBytes(StandardCharsets.UTF_8);
+        long creationMillis = message.getCreationTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try {
+            synchronized (this) {
+                long id = nextId++;
+                ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 8 + 8 + content.length)
+                        .put(TYPE_RECORD)
+                        .putLong(id)
+                        .putLong(message.getSessionId())
+                        .putLong(creationMillis)
+                        .put(content);
+                write(payload.array());
+                activeSegment.pending++;
+                pending.put(id, new Pending(id, activeSegment.index, message.getSessionId(),
+                        message.getCreationTime(), message.getContent()));
+                message.setJournalId(id);
+            }
+            appendCounter.increment();
+        } catch (IOException | UncheckedIOException e) {
+            failureCounter.increment();
+            log.error("写入回复日志失败，sessionId={}", message.getSessionId(), e);
+        }
+    }
+
+    @EventListener
+    public void onMessagesPersisted(MessagesPersistedEvent event) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Message message : event.getMessages()) {
+            if (message.getJournalId() != null) {
+                ids.add(message.getJournalId());
+            }
+        }
+        if (!ids.isEmpty()) {
+            ack(ids);
+        }
+    }
+
+    /**
+     * 启动时重新提交上次运行中未确认的回复，此时数据源和异步写入均已就绪
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!properties.isEnabled() || pending.isEmpty()) {
+            return;
+        }
+        log.info("回复日志中有 {} 条未确认入库的 AI 回复，重新提交", pending.size());
+        new ArrayList<>(pending.values()).forEach(this::resubmit);
+    }
+
+    private void ack(List<Long> ids) {
+        try {
+            synchronized (this) {
+                for (Long id : ids) {
+                    Pending entry = pending.remove(id);
+                    if (entry == null) {
+                        continue;
+                    }
+                    write(ByteBuffer.allocate(1 + 8).put(TYPE_ACK).putLong(id).array());
+                    Segment segment = segments.get(entry.segment);
+                    if (segment != null) {
+                        segment.pending--;
+                    }
+                }
+                compact();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // 确认记录丢失只会导致重启后重复提交
+            failureCounter.increment();
+            log.error("写入回复日志确认记录失败", e);
+        }
+    }
+
+    private void resubmit(Pending entry) {
+        entry.submittedNanos = System.nanoTime();
+        entry.resubmits++;
+        try {
+            // 会话已被清理时丢弃，避免写入无主消息
+            if (sessionMapper.selectById(entry.sessionId) == null) {
+                log.warn("会话不存在或已删除，丢弃日志中的 AI 回复，sessionId={}", entry.sessionId);
+                ack(List.of(entry.id));
+                return;
+            }
+            messageWriteBehind.enqueue(toMessage(entry));
+            resubmitCounter.increment();
+        } catch (Exception e) {
+            log.warn("重新提交日志中的 AI 回复失败，稍后重试，sessionId={}: {}", entry.sessionId, e.getMessage());
+        }
+    }
+
+    private void resubmitStale() {
+        long staleBefore = System.nanoTime() - TimeUnit.SECONDS.toNanos(properties.getRetryAfterSeconds());
+        for (Pending entry : pending.values()) {
+            if (entry.submittedNanos - staleBefore >= 0) {
+                continue;
+            }
+            if (entry.resubmits >= properties.getMaxResubmits()) {
+                drop(entry);
+            } else {
+                resubmit(entry);
+            }
+        }
+    }
+
+    /**
+     * 重新提交次数耗尽：转存到消息死信文件后写入确认记录，避免无限重试并使所在日志段可以删除
+     */
+    private void drop(Pending entry) {
+        log.error("AI 回复重新提交 {} 次仍未入库，转存死信文件并从日志中移除，sessionId={}",
+                entry.resubmits, entry.sessionId);
+        messageWriteBehind.deadLetterExternal(toMessage(entry));
+        ack(List.of(entry.id));
+        droppedCounter.increment();
+    }
+
+    private static Message toMessage(Pending entry) {
+        Message message = new Message();
+        message.setSessionId(entry.sessionId);
+        message.setRole("assistant");
+        message.setContent(entry.content);
+        message.setCreationTime(entry.creationTime);
+        message.setDeleted(0);
+        message.setJournalId(entry.id);
+        return message;
+    }
+
+    /**
+     * 从最早的日志段开始删除回复已全部确认的段，遇到仍有未确认回复的段即停止，
+     * 保证未确认回复对应的确认记录所在的段不会先于它被删除
+     */
+    private void compact() throws IOException {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == activeSegment || oldest.pending > 0) {
+                return;
+            }
+            segments.pollFirstEntry();
+            Files.deleteIfExists(oldest.path);
+            log.debug("删除已全部确认的回复日志段 {}", oldest.path.getFileName());
+        }
+    }
+
+    private void write(byte[] payload) throws IOException {
+        int entryBytes = ENTRY_HEADER_BYTES + payload.length;
+        if (activeBuffer.remaining() < entryBytes) {
+            roll(entryBytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        activeBuffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        if (properties.getForceIntervalMs() <= 0) {
+            activeBuffer.force();
+        } else {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 打开日志目录：读取已有段文件恢复未确认的回复，之后的写入使用新的段文件，不在可能残缺的旧段末尾续写
+     */
+    private void open() {
+        Path dir = Paths.get(properties.getDir());
+        try {
+            Files.createDirectories(dir);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(dir)) {
+                files = list.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+            }
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                segments.put(segment.index, segment);
+                read(segment);
+            }
+            roll(0);
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开回复日志目录失败: " + dir.toAbsolutePath(), e);
+        }
+        log.info("回复日志已打开，目录={}，段文件 {} 个，未确认回复 {} 条", dir.toAbsolutePath(), segments.size(), pending.size());
+    }
+
+    private void read(Segment segment) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= ENTRY_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            // 长度为 0 表示已到有效数据末尾；长度或校验和不符表示写入中途崩溃留下的残缺记录
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("回复日志段 {} 存在残缺记录，忽略其后的内容", segment.path.getFileName());
+                break;
+            }
+            ByteBuffer entry = ByteBuffer.wrap(payload);
+            byte type = entry.get();
+            long id = entry.getLong();
+            nextId = Math.max(nextId, id + 1);
+            if (type == TYPE_RECORD) {
+                long sessionId = entry.getLong();
+                LocalDateTime creationTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.getLong()), ZoneId.systemDefault());
+                String content = new String(payload, entry.position(), entry.remaining(), StandardCharsets.UTF_8);
+                // 重新提交时可能在后续段中再次写入同一回复，以最早的记录为准
+                if (pending.putIfAbsent(id, new Pending(id, segment.index, sessionId, creationTime, content)) == null) {
+                    segment.pending++;
+                }
+            } else if (type == TYPE_ACK) {
+                Pending acked = pending.remove(id);
+                if (acked != null) {
+                    segments.get(acked.segment).pending--;
+                }
+            }
+        }
+    }
+
+    /**
+     * 切换到新的日志段，大小至少能容纳 minBytes
+     */
+    private void roll(int minBytes) throws IOException {
+        if (activeBuffer != null) {
+            activeBuffer.force();
+        }
+        long index = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Path path = Paths.get(properties.getDir()).resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+        int size = Math.max(properties.getSegmentSizeBytes(), minBytes);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            activeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        activeSegment = new Segment(index, path);
+        segments.put(index, activeSegment);
+        dirty = false;
+    }
+
+    private synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private synchronized void force() {
+        if (dirty) {
+            activeBuffer.force();
+            dirty = false;
+        }
+    }
+
+    private void forceQuietly() {
+        try {
+            force();
+        } catch (Exception e) {
+            log.error("回复日志刷盘失败", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        if (properties.isEnabled()) {
+            forceQuietly();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.mifazhan.support.persist;
+
+import com.mifazhan.config.SessionPurgeProperties;
+import com.mifazhan.mapper.MessageMapper;
+import com.mifazhan.mapper.SessionMapper;
+import com.mifazhan.mapper.SessionSummaryMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已删除会话的后台清理
+ * <p>
+ * 删除会话只在请求线程中标记会话行，本任务定期找出删除超过 graceSeconds 的会话，
+ * 按 chunkSize 分块物理删除其消息，每块之间停顿 chunkPauseMs，消息删完后再删除归档、摘要和会话行。
+ * 每条 DELETE 都是独立的短事务，中途停止不影响下次继续。
+ */
+@Slf4j
+@Component
+public class SessionPurger implements DisposableBean {
+
+    private final SessionPurgeProperties properties;
+    private final SessionMapper sessionMapper;
+    private final MessageMapper messageMapper;
+    private final MessageArchiver messageArchiver;
+    private final SessionSummaryMapper summaryMapper;
+    private final ScheduledExecutorService executor;
+
+    private final Timer runTimer;
+    private final Counter purgedSessionCounter;
+    private final Counter purgedMessageCounter;
+
+    private volatile boolean stopping;
+
+    public SessionPurger(SessionPurgeProperties properties,
+                         SessionMapper sessionMapper,
+                         MessageMapper messageMapper,
+                         MessageArchiver messageArchiver,
+                         SessionSummaryMapper summaryMapper,
+                         MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.sessionMapper = sessionMapper;
+        this.messageMapper = messageMapper;
+        this.messageArchiver = messageArchiver;
+        this.summaryMapper = summaryMapper;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.isEnabled()) {
+            executor.scheduleWithFixedDelay(this::purgeQuietly,
+                    properties.getIntervalSeconds(), properties.getIntervalSeconds(), TimeUnit.SECONDS);
+        }
+
+        this.runTimer = Timer.builder("chat.purge.run")
+                .description("单次清理已删除会话的耗时")
+                .register(meterRegistry);
+        this.purgedSessionCounter = Counter.builder("chat.purge.sessions")
+                .description("物理删除的会话数")
+                .register(meterRegistry);
+        this.purgedMessageCounter = Counter.builder("chat.purge.messages")
+                .description("物理删除的消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 清理一批已删除的会话
+     *
+     * @return 本次物理删除的会话数
+     */
+    public int purge() {
+        return runTimer.record(() -> {
+            LocalDateTime deletedBefore = LocalDateTime.now().minusSeconds(properties.getGraceSeconds());
+            List<Long> sessionIds = sessionMapper.selectDeletedIds(deletedBefore, properties.getMaxSessionsPerRun());
+            int purged = 0;
+            for (Long sessionId : sessionIds) {
+                if (stopping || !purgeMessages(sessionId)) {
+                    break;
+                }
+                messageArchiver.delete(sessionId);
+                summaryMapper.deleteById(sessionId);
+                purged += sessionMapper.purgeById(sessionId);
+            }
+            purgedSessionCounter.increment(purged);
+            if (purged > 0) {
+                log.info("已清理 {} 个已删除的会话", purged);
+            }
+            return purged;
+        });
+    }
+
+    /**
+     * 分块删除会话的全部消息
+     *
+     * @return 是否已删除完毕，应用关闭时中途返回 false
+     */
+    private boolean purgeMessages(Long sessionId) {
+        int chunkSize = Math.max(1, properties.getChunkSize());
+        while (!stopping) {
+            int deleted = messageMapper.purgeBySessionId(sessionId, chunkSize);
+            purgedMessageCounter.increment(deleted);
+            if (deleted < chunkSize) {
+                return true;
+            }
+            pause();
+        }
+        return false;
+    }
+
+    private void pause() {
+        if (properties.getChunkPauseMs() <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(properties.getChunkPauseMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopping = true;
+        }
+    }
+
+    private void purgeQuietly() {
+        try {
+            purge();
+        } catch (Exception e) {
+            log.error("清理已删除会话失败，下次继续", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stopping = true;
+        executor.shutdownNow();
+    }
+}
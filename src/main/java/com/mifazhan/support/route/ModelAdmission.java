@@ -0,0 +1,449 @@
+package com.mifazhan.support.route;
+
+import com.mifazhan.config.AdmissionProperties;
+import com.mifazhan.exception.BusinessException;
+import com.mifazhan.support.context.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 模型调用准入控制
+ * <p>
+ * 按服务商的每分钟请求数（RPM）和 token 数（TPM）配额，在客户端限制对模型的调用，避免触发服务端限流。
+ * 每条模型线路各有一个 {@link Limiter}，由 {@link ModelRouter} 在每次尝试该线路前申请，切换线路时重新申请下一条线路的配额。
+ * 两种配额各是一个令牌桶，容量为每分钟配额，按时间匀速补充。调用前按估算的提示词 token 数加预留的回复 token 数扣减，
+ * 调用结束后按实际回复长度多退少补。
+ * <p>
+ * 配额不足时请求按调用方（会话）分别排队，各调用方轮流放行，单个会话的大量请求不会阻塞其他会话。
+ * 排队总数有上限，预计等待超过最长等待时间的请求直接拒绝，不占用队列；已排队的请求到期后同样拒绝。
+ */
+@Slf4j
+@Component
+public class ModelAdmission implements DisposableBean {
+
+    /**
+     * 令牌桶：余量按时间匀速补充，不超过容量；回复超出预留时余量可以为负，之后的请求需等待补足
+     */
+    private static final class Bucket {
+        private final double capacity;
+        private final double perNano;
+        private double available;
+        private long lastNanos;
+
+        private Bucket(long perMinute, long nowNanos) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available = perMinute;
+            this.lastNanos = nowNanos;
+        }
+
+        private void refill(long nowNanos) {
+            available = Math.min(capacity, available + (nowNanos - lastNanos) * perNano);
+            lastNanos = nowNanos;
+        }
+
+        /**
+         * 余量达到 amount 还需等待的时间（纳秒）
+         */
+        private long nanosUntil(double amount) {
+            return available >= amount ? 0 : (long) Math.ceil((amount - available) / perNano);
+        }
+
+        private void add(double amount) {
+            available = Math.min(capacity, available + amount);
+        }
+    }
+
+    /**
+     * 一个排队中的请求
+     */
+    static final class Waiter {
+        private final Long caller;
+        private final long tokens;
+        private final Sinks.Empty<Void> admitted = Sinks.empty();
+        private boolean granted;
+
+        Waiter(Long caller, long tokens) {
+            this.caller = caller;
+            this.tokens = tokens;
+        }
+    }
+
+    private final AdmissionProperties properties;
+    private final LongSupplier nanoClock;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService executor;
+
+    private final Timer waitTimer;
+    private final Counter admittedCounter;
+    private final Counter queueFullCounter;
+    private final Counter deadlineCounter;
+    private final Counter timeoutCounter;
+
+    @Autowired
+    public ModelAdmission(AdmissionProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock 单调时钟（纳秒），令牌补充和等待时间均按该时钟计算
+     */
+    ModelAdmission(AdmissionProperties properties, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.properties = properties;
+        this.nanoClock = nanoClock;
+        this.meterRegistry = meterRegistry;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-admission");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.waitTimer = Timer.builder("chat.admission.wait")
+                .description("模型调用等待配额的时间")
+                .register(meterRegistry);
+        this.admittedCounter = Counter.builder("chat.admission.admitted")
+                .description("获得配额的模型调用数")
+                .register(meterRegistry);
+        this.queueFullCounter = rejectedCounter(meterRegistry, "queue_full");
+        this.deadlineCounter = rejectedCounter(meterRegistry, "deadline");
+        this.timeoutCounter = rejectedCounter(meterRegistry, "timeout");
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("chat.admission.rejected")
+                .description("因配额不足被拒绝的模型调用数，按原因区分")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 为一条线路创建独立的配额
+     *
+     * @param route             线路名称，用作监控指标标签
+     * @param requestsPerMinute 每分钟请求数，0 表示不限制
+     * @param tokensPerMinute   每分钟 token 数，0 表示不限制
+     */
+    Limiter limiter(String route, long requestsPerMinute, long tokensPerMinute) {
+        Limiter limiter = new Limiter(route, requestsPerMinute, tokensPerMinute);
+        if (limiter.active()) {
+            log.info("模型线路 {} 已启用准入控制，RPM={}，TPM={}", route, requestsPerMinute, tokensPerMinute);
+        }
+        return limiter;
+    }
+
+    /**
+     * 一条线路的配额和排队
+     */
+    final class Limiter {
+
+        private final String route;
+        private final Bucket requests;
+        private final Bucket tokens;
+
+        // 以下状态均由 this 保护
+        private final Map<Long, Deque<Waiter>> queues = new LinkedHashMap<>();
+        private int queued;
+        private long queuedTokens;
+        private ScheduledFuture<?> wakeup;
+        private long wakeupAtNanos;
+
+        private Limiter(String route, long requestsPerMinute, long tokensPerMinute) {
+            this.route = route;
+            long now = nanoClock.getAsLong();
+            this.requests = requestsPerMinute > 0 ? new Bucket(requestsPerMinute, now) : null;
+            this.tokens = tokensPerMinute > 0 ? new Bucket(tokensPerMinute, now) : null;
+            Gauge.builder("chat.admission.queued", this, limiter -> limiter.queuedCount())
+                    .description("排队等待配额的模型调用数")
+                    .tag("route", route)
+                    .register(meterRegistry);
+            registerBucket("requests", requests);
+            registerBucket("tokens", tokens);
+        }
+
+        private void registerBucket(String resource, Bucket bucket) {
+            if (bucket == null) {
+                return;
+            }
+            Gauge.builder("chat.admission.limit", bucket, b -> b.capacity)
+                    .description("每分钟配额")
+                    .tags("route", route, "resource", resource)
+                    .register(meterRegistry);
+            Gauge.builder("chat.admission.available", this, limiter -> limiter.available(bucket))
+                    .description("当前可用的配额余量")
+                    .tags("route", route, "resource", resource)
+                    .register(meterRegistry);
+        }
+
+        private boolean active() {
+            return properties.isEnabled() && (requests != null || tokens != null);
+        }
+
+        /**
+         * 获得配额后调用模型，调用结束后按实际回复长度结算 token 配额
+         * <p>
+         * 配额不足或排队超时以 429 的 {@link BusinessException} 结束，此时不会订阅 call。
+         *
+         * @param caller       调用方，同一调用方的请求按顺序放行，不同调用方之间轮流放行
+         * @param promptTokens 估算的提示词（历史消息加用户消息）token 数
+         * @param call         模型调用
+         * @return 获得配额后才开始的模型调用
+         */
+        Flux<String> admit(Long caller, int promptTokens, Flux<String> call) {
+            if (!active()) {
+                return call;
+            }
+            return Flux.defer(() -> {
+                long reserved = (long) promptTokens + properties.getExpectedReplyTokens();
+                // 单次调用不超过桶容量，否则永远等不到足够的余量
+                Waiter waiter = new Waiter(caller, tokens == null ? reserved : Math.min(reserved, (long) tokens.capacity));
+                TokenEstimator.Counter reply = new TokenEstimator.Counter();
+                return acquire(waiter)
+                        .thenMany(call.doOnNext(reply::add)
+                                .doFinally(signal -> settle(waiter.tokens, (long) promptTokens + reply.tokens())));
+            });
+        }
+
+        /**
+         * 申请配额：没有排队且余量充足时立即放行，否则排队；预计等待超过最长等待时间时直接拒绝
+         */
+        Mono<Void> acquire(Waiter waiter) {
+            Timer.Sample sample = Timer.start();
+            BusinessException rejected = null;
+            synchronized (this) {
+                long now = nanoClock.getAsLong();
+                refill(now);
+                if (queues.isEmpty() && nanosUntil(1, waiter.tokens) == 0) {
+                    take(waiter);
+                    waiter.granted = true;
+                } else if (queued >= properties.getMaxQueued()) {
+                    queueFullCounter.increment();
+                    rejected = new BusinessException(429, "模型调用排队已满，请稍后重试");
+                } else if (properties.getMaxWaitMs() > 0
+                        && nanosUntil(queued + 1, queuedTokens + waiter.tokens) > TimeUnit.MILLISECONDS.toNanos(properties.getMaxWaitMs())) {
+                    // 按先到先得估算，排在前面的请求都放行后才轮到本请求，估算偏保守
+                    deadlineCounter.increment();
+                    rejected = new BusinessException(429, "模型调用配额不足，请稍后重试");
+                } else {
+                    queues.computeIfAbsent(waiter.caller, caller -> new ArrayDeque<>()).add(waiter);
+                    queued++;
+                    queuedTokens += waiter.tokens;
+                    schedule(now);
+                }
+            }
+            if (waiter.granted) {
+                sample.stop(waitTimer);
+                admittedCounter.increment();
+                return Mono.empty();
+            }
+            if (rejected != null) {
+                log.info("模型线路 {} 配额不足，拒绝请求，caller={}: {}", route, waiter.caller, rejected.getMessage());
+                return Mono.error(rejected);
+            }
+            Mono<Void> admitted = waiter.admitted.asMono();
+            if (properties.getMaxWaitMs() > 0) {
+                admitted = admitted.timeout(Duration.ofMillis(properties.getMaxWaitMs()), Mono.error(() -> {
+                    timeoutCounter.increment();
+                    return new BusinessException(429, "等待模型调用配额超时，请稍后重试");
+                }));
+            }
+            return admitted
+                    .doOnSuccess(ignored -> {
+                        sample.stop(waitTimer);
+                        admittedCounter.increment();
+                    })
+                    .doFinally(signal -> {
+                        if (signal != SignalType.ON_COMPLETE) {
+                            withdraw(waiter);
+                        }
+                    });
+        }
+
+        /**
+         * 排队的请求超时或被取消：尚未放行时移出队列，已放行但未开始调用时退还配额
+         */
+        void withdraw(Waiter waiter) {
+            List<Waiter> admitted;
+            synchronized (this) {
+                long now = nanoClock.getAsLong();
+                refill(now);
+                if (waiter.granted) {
+                    if (requests != null) {
+                        requests.add(1);
+                    }
+                    if (tokens != null) {
+                        tokens.add(waiter.tokens);
+                    }
+                } else {
+                    Deque<Waiter> queue = queues.get(waiter.caller);
+                    if (queue == null || !queue.remove(waiter)) {
+                        return;
+                    }
+                    if (queue.isEmpty()) {
+                        queues.remove(waiter.caller);
+                    }
+                    queued--;
+                    queuedTokens -= waiter.tokens;
+                }
+                admitted = dispatch(now);
+            }
+            grant(admitted);
+        }
+
+        /**
+         * 调用结束：按实际消耗的 token 数退还或补扣预留的配额
+         */
+        void settle(long reserved, long actual) {
+            if (tokens == null) {
+                return;
+            }
+            List<Waiter> admitted;
+            synchronized (this) {
+                long now = nanoClock.getAsLong();
+                refill(now);
+                tokens.add(reserved - actual);
+                admitted = dispatch(now);
+            }
+            grant(admitted);
+        }
+
+        /**
+         * 定时唤醒：放行余量已经补足的请求
+         */
+        void wakeup() {
+            List<Waiter> admitted;
+            synchronized (this) {
+                long now = nanoClock.getAsLong();
+                refill(now);
+                wakeup = null;
+                admitted = dispatch(now);
+            }
+            grant(admitted);
+        }
+
+        /**
+         * 各调用方轮流放行队首的请求，直到余量不足，再安排在余量补足时唤醒。须持有锁
+         *
+         * @return 本次放行的请求，须在锁外通知
+         */
+        private List<Waiter> dispatch(long now) {
+            List<Waiter> admitted = new ArrayList<>();
+            while (!queues.isEmpty()) {
+                Iterator<Map.Entry<Long, Deque<Waiter>>> iterator = queues.entrySet().iterator();
+                Map.Entry<Long, Deque<Waiter>> entry = iterator.next();
+                Waiter head = entry.getValue().peek();
+                if (nanosUntil(1, head.tokens) > 0) {
+                    break;
+                }
+                take(head);
+                head.granted = true;
+                entry.getValue().poll();
+                queued--;
+                queuedTokens -= head.tokens;
+                admitted.add(head);
+                // 放行后该调用方移到末尾，下一次轮到其他调用方
+                iterator.remove();
+                if (!entry.getValue().isEmpty()) {
+                    queues.put(entry.getKey(), entry.getValue());
+                }
+            }
+            schedule(now);
+            return admitted;
+        }
+
+        /**
+         * 按队首请求所需的余量安排唤醒，已有更早的唤醒时不重复安排。须持有锁
+         */
+        private void schedule(long now) {
+            if (queues.isEmpty()) {
+                return;
+            }
+            Waiter head = queues.values().iterator().next().peek();
+            long delay = Math.max(nanosUntil(1, head.tokens), TimeUnit.MILLISECONDS.toNanos(1));
+            long at = now + delay;
+            if (wakeup != null && !wakeup.isDone()) {
+                if (wakeupAtNanos - at <= 0) {
+                    return;
+                }
+                wakeup.cancel(false);
+            }
+            wakeupAtNanos = at;
+            wakeup = executor.schedule(this::wakeup, delay, TimeUnit.NANOSECONDS);
+        }
+
+        private void refill(long now) {
+            if (requests != null) {
+                requests.refill(now);
+            }
+            if (tokens != null) {
+                tokens.refill(now);
+            }
+        }
+
+        /**
+         * 两种配额的余量分别达到 requestCount 和 tokenCount 还需等待的时间（纳秒）
+         */
+        private long nanosUntil(long requestCount, long tokenCount) {
+            long wait = 0;
+            if (requests != null) {
+                wait = requests.nanosUntil(requestCount);
+            }
+            if (tokens != null) {
+                wait = Math.max(wait, tokens.nanosUntil(tokenCount));
+            }
+            return wait;
+        }
+
+        private void take(Waiter waiter) {
+            if (requests != null) {
+                requests.available -= 1;
+            }
+            if (tokens != null) {
+                tokens.available -= waiter.tokens;
+            }
+        }
+
+        private synchronized int queuedCount() {
+            return queued;
+        }
+
+        private synchronized double available(Bucket bucket) {
+            refill(nanoClock.getAsLong());
+            return bucket.available;
+        }
+    }
+
+    private static void grant(List<Waiter> admitted) {
+        for (Waiter waiter : admitted) {
+            waiter.admitted.tryEmitEmpty();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
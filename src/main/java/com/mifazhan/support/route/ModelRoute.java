@@ -0,0 +1,236 @@
+package com.mifazhan.support.route;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.client.ChatClient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一条模型线路：ChatClient 及其负载、延迟和熔断状态
+ * <p>
+ * 熔断状态：关闭时正常放行；连续失败达到阈值或被限流时打开，打开期间不放行；
+ * 打开期满后半开，只放行一个探测请求，成功则关闭，失败则重新打开。探测请求以 {@link Probe} 标识，
+ * 熔断打开后只有持有当前凭据的请求能关闭或重新打开熔断，熔断前已在进行中的普通请求随后失败时不会重复熔断、延长熔断期，
+ * 也不影响半开状态。
+ */
+class ModelRoute {
+
+    /**
+     * 探测请求的凭据，每次放行探测时新建
+     */
+    static final class Probe {
+    }
+
+    private final String name;
+    private final String model;
+    private final ChatClient chatClient;
+    private final ModelAdmission.Limiter limiter;
+    private final boolean breakerEnabled;
+    private final double ewmaAlpha;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicReference<Probe> probe = new AtomicReference<>();
+    private volatile boolean open;
+    private volatile long openUntilNanos;
+    /**
+     * 首字延迟的指数加权平均（毫秒），尚无样本时为 NaN
+     */
+    private volatile double ewmaTtftMs = Double.NaN;
+
+    private final Timer ttftTimer;
+    private final Counter successCounter;
+    private final Counter errorCounter;
+    private final Counter cancelledCounter;
+    private final Counter tripCounter;
+
+    ModelRoute(String name, String model, ChatClient chatClient, ModelAdmission.Limiter limiter, boolean breakerEnabled,
+               double ewmaAlpha, int failureThreshold, long openSeconds, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.model = model;
+        this.chatClient = chatClient;
+        this.limiter = limiter;
+        this.breakerEnabled = breakerEnabled;
+        this.ewmaAlpha = ewmaAlpha;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+
+        Tags tags = Tags.of("route", name, "model", model);
+        this.ttftTimer = Timer.builder("chat.route.ttft")
+                .description("线路的首字延迟")
+                .tags(tags)
+                .register(meterRegistry);
+        this.successCounter = requestCounter(meterRegistry, tags, "success");
+        this.errorCounter = requestCounter(meterRegistry, tags, "error");
+        this.cancelledCounter = requestCounter(meterRegistry, tags, "cancelled");
+        this.tripCounter = Counter.builder("chat.route.circuit.trips")
+                .description("线路熔断次数")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder("chat.route.inflight", inFlight, AtomicInteger::get)
+                .description("线路上进行中的请求数")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder("chat.route.ttft.ewma", this, route -> Double.isNaN(route.ewmaTtftMs) ? 0 : route.ewmaTtftMs)
+                .description("线路首字延迟的指数加权平均（毫秒），用于选择线路")
+                .tags(tags)
+                .register(meterRegistry);
+        Gauge.builder("chat.route.circuit.open", this, route -> route.open ? 1 : 0)
+                .description("线路是否处于熔断（含半开）状态")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, Tags tags, String outcome) {
+        return Counter.builder("chat.route.requests")
+                .description("线路上的请求数，按结果区分")
+                .tags(tags.and("outcome", outcome))
+                .register(meterRegistry);
+    }
+
+    String name() {
+        return name;
+    }
+
+    String model() {
+        return model;
+    }
+
+    ChatClient chatClient() {
+        return chatClient;
+    }
+
+    /**
+     * 本线路的调用配额
+     */
+    ModelAdmission.Limiter limiter() {
+        return limiter;
+    }
+
+    /**
+     * 选择线路的代价：首字延迟越高、进行中的请求越多代价越大；尚无样本的线路按 0 计，优先获得流量
+     */
+    double cost() {
+        double ewma = Double.isNaN(ewmaTtftMs) ? 0 : ewmaTtftMs;
+        return (ewma + 1) * (inFlight.get() + 1);
+    }
+
+    /**
+     * 熔断关闭，可以正常放行
+     */
+    boolean closed() {
+        return !open;
+    }
+
+    /**
+     * 熔断打开期满后，争取成为唯一的探测请求
+     *
+     * @return 探测凭据，需在请求结束时传回；不能探测时返回 null
+     */
+    Probe tryProbe(long nowNanos) {
+        if (!open || nowNanos - openUntilNanos < 0) {
+            return null;
+        }
+        Probe token = new Probe();
+        return probe.compareAndSet(null, token) ? token : null;
+    }
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    void firstChunk(long ttftNanos) {
+        ttftTimer.record(ttftNanos, TimeUnit.NANOSECONDS);
+        double sample = ttftNanos / 1_000_000.0;
+        synchronized (this) {
+            ewmaTtftMs = Double.isNaN(ewmaTtftMs) ? sample : ewmaAlpha * sample + (1 - ewmaAlpha) * ewmaTtftMs;
+        }
+    }
+
+    /**
+     * 请求成功结束
+     *
+     * @param token 探测凭据，普通请求为 null
+     */
+    void succeeded(Probe token) {
+        inFlight.decrementAndGet();
+        successCounter.increment();
+        consecutiveFailures.set(0);
+        if (token != null) {
+            synchronized (this) {
+                if (probe.compareAndSet(token, null)) {
+                    open = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 请求出错结束
+     *
+     * @param token 探测凭据，普通请求为 null
+     */
+    void failed(boolean rateLimited, Probe token) {
+        inFlight.decrementAndGet();
+        errorCounter.increment();
+        if (!breakerEnabled) {
+            return;
+        }
+        synchronized (this) {
+            if (open) {
+                // 已熔断：只有探测失败重新打开，熔断前已在进行中的请求失败时不再计数
+                if (token != null && probe.compareAndSet(token, null)) {
+                    trip();
+                }
+                return;
+            }
+            int failures = consecutiveFailures.incrementAndGet();
+            if (rateLimited || failures >= failureThreshold) {
+                trip();
+            }
+        }
+    }
+
+    /**
+     * 打开熔断。须持有 this 的锁
+     */
+    private void trip() {
+        openUntilNanos = System.nanoTime() + openNanos;
+        open = true;
+        consecutiveFailures.set(0);
+        tripCounter.increment();
+    }
+
+    /**
+     * 请求被取消
+     *
+     * @param token 探测凭据，普通请求为 null
+     */
+    void cancelled(Probe token) {
+        inFlight.decrementAndGet();
+        cancelledCounter.increment();
+        // 探测请求被取消时没有结论，允许下一个请求继续探测
+        if (token != null) {
+            probe.compareAndSet(token, null);
+        }
+    }
+
+    /**
+     * 选中线路后请求没有开始（如未获得配额）：归还探测凭据，允许下一个请求继续探测
+     *
+     * @param token 探测凭据，普通请求为 null
+     */
+    void abandon(Probe token) {
+        if (token != null) {
+            probe.compareAndSet(token, null);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.mifazhan.support.route;
+
+import com.mifazhan.config.AdmissionProperties;
+import com.mifazhan.config.ModelRoutingProperties;
+import com.mifazhan.exception.BusinessException;
+import com.mifazhan.support.context.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 模型线路路由
+ * <p>
+ * 维护一组 OpenAI 兼容的模型线路，每次请求选择代价最小的可用线路：代价由首字延迟的指数加权平均和进行中的请求数决定。
+ * 线路连续失败或被限流（429）时熔断，熔断期满后放行一个探测请求。首个片段发出之前出错或超时，切换到下一条线路重试，
+ * 之后出错则直接结束，避免客户端收到两段拼接的回复。
+ * <p>
+ * 每条线路有独立的调用配额（见 {@link ModelAdmission}），每次尝试前申请所选线路的配额；配额不足被拒绝时同样切换线路，
+ * 不计为线路失败。
+ * <p>
+ * 未启用路由时只有一条由 spring.ai.openai 配置构建的线路，不做熔断。
+ */
+@Slf4j
+@Component
+public class ModelRouter {
+
+    /**
+     * 选中的线路，作为熔断半开后的探测请求时带有探测凭据
+     */
+    private record Selection(ModelRoute route, ModelRoute.Probe probe) {
+    }
+
+    private final ModelRoutingProperties properties;
+    private final List<ModelRoute> routes = new ArrayList<>();
+    private final String defaultModel;
+    private final Counter failoverCounter;
+
+    public ModelRouter(ModelRoutingProperties properties,
+                       AdmissionProperties admissionProperties,
+                       ModelAdmission admission,
+                       ChatClient.Builder chatClientBuilder,
+                       ObjectProvider<OpenAiChatModel> openAiChatModel,
+                       ObjectProvider<RestClient.Builder> restClientBuilder,
+                       ObjectProvider<WebClient.Builder> webClientBuilder,
+                       ObjectProvider<ObservationRegistry> observationRegistry,
+                       MeterRegistry meterRegistry,
+                       @Value("${spring.ai.openai.chat.options.model:unknown}") String defaultModel) {
+        this.properties = properties;
+        this.defaultModel = defaultModel;
+        this.failoverCounter = Counter.builder("chat.route.failovers")
+                .description("首个片段之前出错而切换线路的次数")
+                .register(meterRegistry);
+
+        if (!properties.isEnabled() || properties.getRoutes().isEmpty()) {
+            ModelAdmission.Limiter limiter = admission.limiter("default",
+                    admissionProperties.getRequestsPerMinute(), admissionProperties.getTokensPerMinute());
+            routes.add(new ModelRoute("default", defaultModel, chatClientBuilder.build(), limiter, false,
+                    properties.getEwmaAlpha(), properties.getFailureThreshold(), properties.getOpenSeconds(), meterRegistry));
+            return;
+        }
+        // 各线路复用默认模型的重试、工具调用和观测配置，只替换服务地址、密钥和模型名称
+        OpenAiChatModel baseModel = openAiChatModel.getObject();
+        for (ModelRoutingProperties.Route route : properties.getRoutes()) {
+            OpenAiApi api = OpenAiApi.builder()
+                    .baseUrl(route.getBaseUrl())
+                    .apiKey(route.getApiKey())
+                    .completionsPath(route.getCompletionsPath())
+                    .restClientBuilder(restClientBuilder.getIfAvailable(RestClient::builder))
+                    .webClientBuilder(webClientBuilder.getIfAvailable(WebClient::builder))
+                    .build();
+            OpenAiChatOptions options = ((OpenAiChatOptions) baseModel.getDefaultOptions()).copy();
+            options.setModel(route.getModel());
+            OpenAiChatModel chatModel = baseModel.mutate()
+                    .openAiApi(api)
+                    .defaultOptions(options)
+                    .build();
+            ChatClient chatClient = ChatClient.builder(chatModel,
+                    observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP), null, null).build();
+            ModelAdmission.Limiter limiter = admission.limiter(route.getName(),
+                    route.getRequestsPerMinute() != null ? route.getRequestsPerMinute() : admissionProperties.getRequestsPerMinute(),
+                    route.getTokensPerMinute() != null ? route.getTokensPerMinute() : admissionProperties.getTokensPerMinute());
+            routes.add(new ModelRoute(route.getName(), route.getModel(), chatClient, limiter, true,
+                    properties.getEwmaAlpha(), properties.getFailureThreshold(), properties.getOpenSeconds(), meterRegistry));
+        }
+        log.info("已启用模型线路路由，线路数={}", routes.size());
+    }
+
+    /**
+     * 未确定线路时（如回放缓存的回复）对外报告的模型名称
+     */
+    public String defaultModel() {
+        return defaultModel;
+    }
+
+    /**
+     * 选择线路并调用模型
+     *
+     * @param caller      调用方（会话），配额不足时同一调用方的请求按顺序排队，不同调用方之间轮流放行
+     * @param history     历史消息
+     * @param userMessage 用户消息
+     * @param onModel     线路输出首个片段之前，以该线路的模型名称调用
+     * @return 模型输出，所有可尝试的线路都配额不足时以 429 的 {@link BusinessException} 结束
+     */
+    public Flux<String> stream(Long caller, List<Message> history, String userMessage, Consumer<String> onModel) {
+        return stream(caller, history, userMessage, null, onModel);
+    }
+
+    /**
+     * 选择线路并按指定参数调用模型
+     *
+     * @param options 覆盖线路默认值的模型参数（如最大输出 token 数），为空时使用默认值
+     */
+    public Flux<String> stream(Long caller, List<Message> history, String userMessage, ChatOptions options,
+                               Consumer<String> onModel) {
+        return Flux.defer(() -> attempt(caller, promptTokens(history, userMessage), history, userMessage, options, onModel,
+                new HashSet<>(), null));
+    }
+
+    /**
+     * 估算本次调用提示词的 token 数
+     */
+    private static int promptTokens(List<Message> history, String userMessage) {
+        int tokens = TokenEstimator.estimate(userMessage);
+        for (Message message : history) {
+            tokens += TokenEstimator.estimate(message.getText());
+        }
+        return tokens;
+    }
+
+    /**
+     * 申请一条线路的配额并在该线路上调用模型，首个片段之前出错或配额不足时换一条未尝试过的线路
+     *
+     * @param promptTokens 估算的提示词 token 数，每次尝试都按该值扣减所选线路的配额
+     * @param lastError    上一条线路的错误，没有可换的线路时原样返回
+     */
+    private Flux<String> attempt(Long caller, int promptTokens, List<Message> history, String userMessage,
+                                 ChatOptions options, Consumer<String> onModel, Set<ModelRoute> tried, Throwable lastError) {
+        Selection selection = select(tried);
+        if (selection == null) {
+            return Flux.error(lastError != null ? lastError : new BusinessException(503, "模型服务暂不可用，请稍后重试"));
+        }
+        ModelRoute route = selection.route();
+        ModelRoute.Probe probe = selection.probe();
+        tried.add(route);
+        AtomicBoolean emitted = new AtomicBoolean();
+        AtomicBoolean started = new AtomicBoolean();
+        Flux<String> call = Flux.defer(() -> {
+            started.set(true);
+            long start = System.nanoTime();
+            route.started();
+            // 完成、出错和取消只统计先发生的一个
+            AtomicBoolean finished = new AtomicBoolean();
+            return call(route, history, userMessage, options)
+                    .doOnNext(chunk -> {
+                        if (emitted.compareAndSet(false, true)) {
+                            route.firstChunk(System.nanoTime() - start);
+                            onModel.accept(route.model());
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (finished.compareAndSet(false, true)) {
+                            route.succeeded(probe);
+                        }
+                    })
+                    .doOnError(error -> {
+                        if (finished.compareAndSet(false, true)) {
+                            route.failed(isRateLimited(error), probe);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (finished.compareAndSet(false, true)) {
+                            route.cancelled(probe);
+                        }
+                    });
+        });
+        return route.limiter().admit(caller, promptTokens, call)
+                .doFinally(signal -> {
+                    // 配额不足或排队时被取消，请求没有发往该线路
+                    if (!started.get()) {
+                        route.abandon(probe);
+                    }
+                })
+                .onErrorResume(error -> {
+                    if (emitted.get() || tried.size() >= properties.getMaxAttempts()) {
+                        return Flux.error(error);
+                    }
+                    failoverCounter.increment();
+                    log.warn("模型线路 {} 在首个片段之前出错，切换线路: {}", route.name(), error.toString());
+                    return attempt(caller, promptTokens, history, userMessage, options, onModel, tried, error);
+                });
+    }
+
+    private Flux<String> call(ModelRoute route, List<Message> history, String userMessage, ChatOptions options) {
+        ChatClient.ChatClientRequestSpec request = route.chatClient().prompt()
+                .messages(history)
+                .user(userMessage);
+        if (options != null) {
+            request = request.options(options);
+        }
+        Flux<String> content = request.stream().content();
+        if (properties.getFirstTokenTimeoutMs() > 0) {
+            content = content.timeout(Mono.delay(Duration.ofMillis(properties.getFirstTokenTimeoutMs())), chunk -> Mono.never());
+        }
+        return content;
+    }
+
+    /**
+     * 优先放行熔断期满的线路作为探测，否则在熔断关闭的线路中选择代价最小的一条
+     *
+     * @param tried 本次请求已尝试过的线路
+     * @return 没有可用线路时返回 null
+     */
+    private Selection select(Set<ModelRoute> tried) {
+        long now = System.nanoTime();
+        for (ModelRoute route : routes) {
+            if (tried.contains(route)) {
+                continue;
+            }
+            ModelRoute.Probe probe = route.tryProbe(now);
+            if (probe != null) {
+                log.info("模型线路 {} 熔断期满，放行探测请求", route.name());
+                return new Selection(route, probe);
+            }
+        }
+        ModelRoute best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (ModelRoute route : routes) {
+            if (tried.contains(route) || !route.closed()) {
+                continue;
+            }
+            double cost = route.cost();
+            if (cost < bestCost) {
+                best = route;
+                bestCost = cost;
+            }
+        }
+        return best == null ? null : new Selection(best, null);
+    }
+
+    private static boolean isRateLimited(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof WebClientResponseException response && response.getStatusCode().value() == 429) {
+                return true;
+            }
+            if (cause.getMessage() != null && cause.getMessage().startsWith("429")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,367 @@
+package com.mifazhan.support.search;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.mifazhan.config.SearchProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.event.MessagesPersistedEvent;
+import com.mifazhan.domain.event.SessionDeletedEvent;
+import com.mifazhan.domain.vo.MessageSearchVO;
+import com.mifazhan.exception.BusinessException;
+import com.mifazhan.mapper.MessageMapper;
+import com.mifazhan.mapper.SessionMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.QueryBuilder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 历史消息的本地全文索引
+ * <p>
+ * 基于 Lucene 倒排索引，中日韩文字按二元组切分（{@link CJKAnalyzer}），无需词典。消息落库后按消息ID写入索引，
+ * 会话删除时按会话ID删除其全部文档。新写入的文档最多 refreshIntervalMs 后可被检索，索引每 commitIntervalSeconds 提交一次。
+ * 索引为空时（首次启用）在独立的后台线程中按ID顺序从消息表补建，不推迟定时刷新和提交；已归档的消息不在补建范围内。
+ */
+@Slf4j
+@Component
+public class MessageSearchIndex implements DisposableBean {
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_SESSION_ID = "session_id";
+    private static final String FIELD_ROLE = "role";
+    private static final String FIELD_CONTENT = "content";
+    private static final String FIELD_CREATION_TIME = "creation_time";
+
+    private final SearchProperties properties;
+    private final MessageMapper messageMapper;
+    private final SessionMapper sessionMapper;
+    private final ScheduledExecutorService executor;
+    private final ExecutorService backfillExecutor;
+
+    private final Analyzer analyzer = new CJKAnalyzer();
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private volatile boolean stopping;
+
+    private final Timer queryTimer;
+    private final Counter indexedCounter;
+
+    public MessageSearchIndex(SearchProperties properties,
+                              MessageMapper messageMapper,
+                              SessionMapper sessionMapper,
+                              MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.messageMapper = messageMapper;
+        this.sessionMapper = sessionMapper;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backfillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-search-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.queryTimer = Timer.builder("chat.search.query")
+                .description("全文检索耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.indexedCounter = Counter.builder("chat.search.indexed")
+                .description("写入全文索引的消息数（含补建）")
+                .register(meterRegistry);
+        Gauge.builder("chat.search.docs", this, index -> index.numDocs())
+                .description("全文索引中的文档数")
+                .register(meterRegistry);
+
+        if (properties.isEnabled()) {
+            open();
+            executor.scheduleWithFixedDelay(this::refreshQuietly,
+                    properties.getRefreshIntervalMs(), properties.getRefreshIntervalMs(), TimeUnit.MILLISECONDS);
+            executor.scheduleWithFixedDelay(this::commitQuietly,
+                    properties.getCommitIntervalSeconds(), properties.getCommitIntervalSeconds(), TimeUnit.SECONDS);
+            if (properties.isBackfillOnEmpty() && writer.getDocStats().maxDoc == 0) {
+                backfillExecutor.execute(this::backfillQuietly);
+            }
+        }
+    }
+
+    /**
+     * 检索消息
+     *
+     * @param keyword   关键词
+     * @param sessionId 只检索该会话，为空时检索全部会话
+     * @param size      返回条数，不超过 maxResults
+     * @return 按相关度降序排列的命中消息
+     */
+    public List<MessageSearchVO> search(String keyword, Long sessionId, Integer size) {
+        if (!properties.isEnabled()) {
+            throw new BusinessException(503, "全文检索未启用");
+        }
+        if (keyword == null || keyword.isBlank()) {
+            throw new BusinessException(400, "检索关键词不能为空");
+        }
+        int limit = size == null || size <= 0 ? properties.getMaxResults() : Math.min(size, properties.getMaxResults());
+        // 关键词切分后的词元至少命中 minimumShouldMatch 比例，"北京天气"可以命中"北京的天气"，命中越多得分越高
+        Query keywordQuery = new QueryBuilder(analyzer)
+                .createMinShouldMatchQuery(FIELD_CONTENT, keyword, properties.getMinimumShouldMatch());
+        if (keywordQuery == null) {
+            return List.of();
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder().add(keywordQuery, BooleanClause.Occur.MUST);
+        if (sessionId != null) {
+            query.add(new TermQuery(new Term(FIELD_SESSION_ID, sessionId.toString())), BooleanClause.Occur.FILTER);
+        }
+        Set<String> terms = terms(keyword);
+        return queryTimer.record(() -> {
+            try {
+                IndexSearcher searcher = searcherManager.acquire();
+                try {
+                    TopDocs top = searcher.search(query.build(), limit);
+                    List<MessageSearchVO> hits = new ArrayList<>(top.scoreDocs.length);
+                    for (ScoreDoc scoreDoc : top.scoreDocs) {
+                        hits.add(toHit(searcher.storedFields().document(scoreDoc.doc), scoreDoc.score, terms));
+                    }
+                    return hits;
+                } finally {
+                    searcherManager.release(searcher);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @EventListener
+    public void onMessagesPersisted(MessagesPersistedEvent event) {
+        if (properties.isEnabled()) {
+            index(event.getMessages());
+        }
+    }
+
+    @EventListener
+    public void onSessionDeleted(SessionDeletedEvent event) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        try {
+            writer.deleteDocuments(new Term(FIELD_SESSION_ID, event.getSessionId().toString()));
+        } catch (IOException e) {
+            log.error("删除会话的全文索引失败，sessionId={}", event.getSessionId(), e);
+        }
+    }
+
+    private void index(List<Message> messages) {
+        for (Message message : messages) {
+            if (message.getId() == null || message.getContent() == null || message.getContent().isEmpty()) {
+                continue;
+            }
+            try {
+                // 按消息ID覆盖写入，补建与增量写入同一条消息不会产生重复文档
+                writer.updateDocument(new Term(FIELD_ID, message.getId().toString()), toDocument(message));
+                indexedCounter.increment();
+            } catch (IOException e) {
+                log.error("写入全文索引失败，messageId={}", message.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 按消息ID顺序分批读取消息表写入索引，跳过已删除会话的消息
+     */
+    private void backfill() {
+        log.info("全文索引为空，开始从消息表补建");
+        long indexed = 0;
+        Long afterId = null;
+        while (!stopping) {
+            List<Message> batch = messageMapper.selectList(new LambdaQueryWrapper<Message>()
+                    .gt(afterId != null, Message::getId, afterId)
+                    .orderByAsc(Message::getId)
+                    .last("LIMIT " + properties.getBackfillBatchSize()));
+            if (batch.isEmpty()) {
+                break;
+            }
+            Set<Long> sessionIds = batch.stream().map(Message::getSessionId).collect(Collectors.toSet());
+            Set<Long> live = sessionMapper.selectBatchIds(sessionIds).stream()
+                    .map(Session::getSessionId)
+                    .collect(Collectors.toSet());
+            List<Message> liveMessages = batch.stream().filter(message -> live.contains(message.getSessionId())).toList();
+            index(liveMessages);
+            indexed += liveMessages.size();
+            afterId = batch.get(batch.size() - 1).getId();
+        }
+        commitQuietly();
+        log.info("全文索引补建结束，共写入 {} 条消息", indexed);
+    }
+
+    private static Document toDocument(Message message) {
+        Document document = new Document();
+        document.add(new StringField(FIELD_ID, message.getId().toString(), Field.Store.YES));
+        document.add(new StringField(FIELD_SESSION_ID, message.getSessionId().toString(), Field.Store.YES));
+        document.add(new StoredField(FIELD_ROLE, message.getRole()));
+        document.add(new TextField(FIELD_CONTENT, message.getContent(), Field.Store.YES));
+        if (message.getCreationTime() != null) {
+            document.add(new StoredField(FIELD_CREATION_TIME,
+                    message.getCreationTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        }
+        return document;
+    }
+
+    private MessageSearchVO toHit(Document document, float score, Set<String> terms) {
+        MessageSearchVO hit = new MessageSearchVO();
+        hit.setMessageId(Long.valueOf(document.get(FIELD_ID)));
+        hit.setSessionId(Long.valueOf(document.get(FIELD_SESSION_ID)));
+        hit.setRole(document.get(FIELD_ROLE));
+        hit.setSnippet(snippet(document.get(FIELD_CONTENT), terms));
+        hit.setScore(score);
+        if (document.getField(FIELD_CREATION_TIME) != null) {
+            hit.setCreationTime(LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(document.getField(FIELD_CREATION_TIME).numericValue().longValue()), ZoneId.systemDefault()));
+        }
+        return hit;
+    }
+
+    /**
+     * 截取第一个命中词元附近的内容，命中位置居于摘要前三分之一处
+     */
+    private String snippet(String content, Set<String> terms) {
+        int chars = Math.max(1, properties.getSnippetChars());
+        if (content.length() <= chars) {
+            return content;
+        }
+        String lower = content.toLowerCase(Locale.ROOT);
+        int hit = -1;
+        for (String term : terms) {
+            int position = lower.indexOf(term);
+            if (position >= 0 && (hit < 0 || position < hit)) {
+                hit = position;
+            }
+        }
+        int start = Math.max(0, Math.min(content.length() - chars, hit - chars / 3));
+        int end = start + chars;
+        if (start > 0 && Character.isLowSurrogate(content.charAt(start))) {
+            start++;
+        }
+        if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return (start > 0 ? "…" : "") + content.substring(start, end) + (end < content.length() ? "…" : "");
+    }
+
+    /**
+     * 关键词切分后的词元，用于定位摘要
+     */
+    private Set<String> terms(String keyword) {
+        Set<String> terms = new LinkedHashSet<>();
+        try (TokenStream stream = analyzer.tokenStream(FIELD_CONTENT, keyword)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return terms;
+    }
+
+    private void open() {
+        try {
+            FSDirectory directory = FSDirectory.open(Paths.get(properties.getDir()));
+            writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            searcherManager = new SearcherManager(writer, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开全文索引失败: " + Paths.get(properties.getDir()).toAbsolutePath(), e);
+        }
+        log.info("全文索引已打开，目录={}，文档数 {}", Paths.get(properties.getDir()).toAbsolutePath(), numDocs());
+    }
+
+    private int numDocs() {
+        return writer == null ? 0 : writer.getDocStats().numDocs;
+    }
+
+    private void refreshQuietly() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (Exception e) {
+            log.error("刷新全文索引失败", e);
+        }
+    }
+
+    private void commitQuietly() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (Exception e) {
+            log.error("提交全文索引失败", e);
+        }
+    }
+
+    private void backfillQuietly() {
+        try {
+            backfill();
+        } catch (Exception e) {
+            log.error("补建全文索引失败，清空索引目录后重启可重新补建", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException, InterruptedException {
+        stopping = true;
+        backfillExecutor.shutdown();
+        executor.shutdown();
+        backfillExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        if (writer != null) {
+            searcherManager.close();
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.mifazhan.support.stream;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * OpenAI 兼容的流式片段（chat.completion.chunk）编码器
+ * <p>
+ * 每次对话补全创建一个实例：id、created 在创建时确定，与 model 一起预先拼好 JSON 前缀，
+ * 之后每个片段只需单次遍历转义内容并写入复用的缓冲区。同一实例的调用需串行进行。
+ */
+public final class ChatCompletionEncoder {
+
+    private static final String SUFFIX = "\"},\"finish_reason\":null}]}";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String id;
+    private final long created;
+    private String model;
+    private String head;
+    private String prefix;
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    public ChatCompletionEncoder(String model) {
+        this.id = "chatcmpl-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+        this.created = System.currentTimeMillis() / 1000;
+        setModel(model);
+    }
+
+    /**
+     * 更换之后片段中的模型名称，用于路由确定实际使用的模型之后
+     *
+     * @param model 模型名称，与当前相同时不做处理
+     */
+    public void setModel(String model) {
+        if (model == null || model.equals(this.model)) {
+            return;
+        }
+        this.model = model;
+        StringBuilder head = new StringBuilder(160)
+                .append("{\"id\":\"").append(id)
+                .append("\",\"object\":\"chat.completion.chunk\",\"created\":").append(created)
+                .append(",\"model\":\"");
+        escape(model, head);
+        head.append("\",\"choices\":[{\"index\":0,");
+        this.head = head.toString();
+        this.prefix = this.head + "\"delta\":{\"content\":\"";
+    }
+
+    /**
+     * 本次补全的 id，所有片段共用
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * 编码一个内容片段
+     *
+     * @param content 片段内容
+     * @return chat.completion.chunk JSON
+     */
+    public String encode(String content) {
+        StringBuilder out = buffer;
+        out.setLength(0);
+        out.append(prefix);
+        escape(content, out);
+        out.append(SUFFIX);
+        return out.toString();
+    }
+
+    /**
+     * 编码结束片段：delta 为空，带上结束原因
+     *
+     * @param finishReason 结束原因，如 stop、length
+     * @return chat.completion.chunk JSON
+     */
+    public String encodeFinish(String finishReason) {
+        StringBuilder out = buffer;
+        out.setLength(0);
+        out.append(head).append("\"delta\":{},\"finish_reason\":\"");
+        escape(finishReason, out);
+        return out.append("\"}]}").toString();
+    }
+
+    /**
+     * 编码错误事件
+     *
+     * @param message 错误信息
+     * @param type    错误类型
+     * @return 错误 JSON
+     */
+    public static String encodeError(String message, String type) {
+        StringBuilder out = new StringBuilder(64 + (message == null ? 0 : message.length()));
+        out.append("{\"error\":{\"message\":\"");
+        escape(message, out);
+        out.append("\",\"type\":\"");
+        escape(type, out);
+        return out.append("\"}}").toString();
+    }
+
+    /**
+     * 单次遍历完成 JSON 字符串转义，不需要转义的连续字符整段追加
+     *
+     * @param value 原始字符串，null 视为空串
+     * @param out   输出缓冲区
+     */
+    public static void escape(String value, StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(value, start, i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                // 其余控制字符以及 JavaScript 中视为换行的 U+2028/U+2029 使用 Unicode 转义形式
+                default -> out.append("\\u")
+                        .append(HEX[(c >> 12) & 0xF])
+                        .append(HEX[(c >> 8) & 0xF])
+                        .append(HEX[(c >> 4) & 0xF])
+                        .append(HEX[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, length);
+    }
+}
@@ -0,0 +1,288 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ModelRoutingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 流式对话指标
+ * <p>
+ * 覆盖一轮对话的各个阶段：会话处理、用户消息入库、首个片段延迟、片段间隔、整体耗时和 AI 回复入库，
+ * 以及片段数、字符数、错误、取消和客户端断开次数，各结果的对话数即 chat.stream.duration 按 outcome 的计数。
+ * 模型调用相关的指标按本次实际使用的模型打 model 标签（切换线路后为最终使用的线路，未调用模型时为 none），
+ * 会话处理和入库耗时与模型无关，不带标签。模型取值由配置决定，各模型的计时器在启动时注册，记录时不再查找，开销为几次原子操作。
+ */
+@Component
+public class ChatMetrics {
+
+    /**
+     * 一轮对话的结果
+     */
+    public enum Outcome {
+        SUCCESS,
+        ERROR,
+        /**
+         * 客户端断开或主动取消
+         */
+        CANCELLED,
+        /**
+         * 空闲或整体超时
+         */
+        TIMEOUT,
+        /**
+         * 被同一会话的新请求取代，或模型调用配额不足被拒绝，不计入错误
+         */
+        REJECTED;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * 没有调用模型（回放缓存的回复，或选定线路之前即结束）时的 model 标签
+     */
+    static final String NO_MODEL = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final Timer sessionPrepareTimer;
+    private final Timer userMessageSaveTimer;
+    private final Timer assistantMessageSaveTimer;
+    private final Map<String, ModelMeters> modelMeters = new ConcurrentHashMap<>();
+    private final ModelMeters noModelMeters;
+    private final Counter disconnectCounter;
+    private final AtomicInteger openEmitters = new AtomicInteger();
+
+    public ChatMetrics(MeterRegistry meterRegistry, ModelRoutingProperties routingProperties,
+                       @Value("${spring.ai.openai.chat.options.model:unknown}") String defaultModel) {
+        this.meterRegistry = meterRegistry;
+        this.sessionPrepareTimer = timer("chat.session.prepare", "会话创建或查询耗时",
+                Duration.ofMillis(1), Duration.ofSeconds(5), Tags.empty(), meterRegistry);
+        this.userMessageSaveTimer = timer("chat.message.user.save", "用户消息入库耗时",
+                Duration.ofMillis(1), Duration.ofSeconds(5), Tags.empty(), meterRegistry);
+        this.assistantMessageSaveTimer = timer("chat.message.assistant.save", "AI 回复入库耗时",
+                Duration.ofMillis(1), Duration.ofSeconds(5), Tags.empty(), meterRegistry);
+        this.disconnectCounter = Counter.builder("chat.stream.disconnects")
+                .description("对话进行中客户端断开的次数")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.emitters.open", openEmitters, AtomicInteger::get)
+                .description("未结束的 SseEmitter 数")
+                .register(meterRegistry);
+        // 模型取值由配置决定，启动时注册默认模型和各线路的模型
+        this.noModelMeters = meters(NO_MODEL);
+        meters(defaultModel);
+        if (routingProperties.isEnabled()) {
+            for (ModelRoutingProperties.Route route : routingProperties.getRoutes()) {
+                meters(route.getModel());
+            }
+        }
+    }
+
+    private ModelMeters meters(String model) {
+        if (model == null) {
+            return noModelMeters;
+        }
+        return modelMeters.computeIfAbsent(model, key -> new ModelMeters(Tags.of("model", key), meterRegistry));
+    }
+
+    private static Timer timer(String name, String description, Duration min, Duration max,
+                               Tags tags, MeterRegistry meterRegistry) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(min)
+                .maximumExpectedValue(max)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 同一模型的流式调用指标
+     */
+    private static class ModelMeters {
+
+        private final Timer firstChunkTimer;
+        private final Timer interChunkTimer;
+        private final Map<Outcome, Timer> streamDurationTimers = new EnumMap<>(Outcome.class);
+        private final Counter chunkCounter;
+        private final Counter charCounter;
+        private final Counter errorCounter;
+        private final Counter cancelledByClientCounter;
+        private final Counter cancelledByTimeoutCounter;
+
+        private ModelMeters(Tags tags, MeterRegistry meterRegistry) {
+            this.firstChunkTimer = timer("chat.stream.first.chunk", "从发起模型请求到收到首个片段的耗时",
+                    Duration.ofMillis(10), Duration.ofSeconds(60), tags, meterRegistry);
+            this.interChunkTimer = timer("chat.stream.inter.chunk", "相邻两个模型片段的间隔",
+                    Duration.ofMillis(1), Duration.ofSeconds(30), tags, meterRegistry);
+            for (Outcome outcome : Outcome.values()) {
+                streamDurationTimers.put(outcome, timer("chat.stream.duration", "一轮流式对话的整体耗时",
+                        Duration.ofMillis(100), Duration.ofMinutes(5), tags.and("outcome", outcome.tag()), meterRegistry));
+            }
+            this.chunkCounter = Counter.builder("chat.stream.chunks")
+                    .description("收到的模型片段数")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.charCounter = Counter.builder("chat.stream.chars")
+                    .description("收到的模型回复字符数")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.errorCounter = Counter.builder("chat.stream.errors")
+                    .description("以错误结束的流式对话数")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.cancelledByClientCounter = cancelledCounter("disconnect", tags, meterRegistry);
+            this.cancelledByTimeoutCounter = cancelledCounter("timeout", tags, meterRegistry);
+        }
+
+        private static Counter cancelledCounter(String reason, Tags tags, MeterRegistry meterRegistry) {
+            return Counter.builder("chat.stream.cancelled")
+                    .description("未完成即终止、已取消上游模型请求的对话数")
+                    .tags(tags)
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 记录会话创建或查询的耗时
+     */
+    public <T> T recordSessionPrepare(Supplier<T> action) {
+        return sessionPrepareTimer.record(action);
+    }
+
+    /**
+     * 记录用户消息入库的耗时
+     */
+    public void recordUserMessageSave(Runnable action) {
+        userMessageSaveTimer.record(action);
+    }
+
+    /**
+     * 记录 AI 回复入库的耗时
+     */
+    public void recordAssistantMessageSave(Runnable action) {
+        assistantMessageSaveTimer.record(action);
+    }
+
+    /**
+     * 开始记录一次模型流式调用，应在发起模型请求时调用
+     */
+    public StreamRecorder startStream() {
+        return new StreamRecorder();
+    }
+
+    /**
+     * 登记一个新打开的 SSE 连接
+     *
+     * @return 连接的状态记录，结束时需调用 {@link OpenEmitter#close()}
+     */
+    public OpenEmitter emitterOpened() {
+        openEmitters.incrementAndGet();
+        return new OpenEmitter();
+    }
+
+    /**
+     * 一个已打开的 SSE 连接，各方法重复调用只生效一次
+     */
+    public class OpenEmitter {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean disconnected = new AtomicBoolean();
+
+        private OpenEmitter() {
+        }
+
+        /**
+         * 连接已结束
+         */
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                openEmitters.decrementAndGet();
+            }
+        }
+
+        /**
+         * 对话结束前客户端已断开
+         */
+        public void disconnected() {
+            if (disconnected.compareAndSet(false, true)) {
+                disconnectCounter.increment();
+            }
+        }
+    }
+
+    /**
+     * 单次模型流式调用的计时，片段回调需串行调用
+     */
+    public class StreamRecorder {
+
+        private final long startNanos = System.nanoTime();
+        private long lastChunkNanos;
+        private volatile ModelMeters meters = noModelMeters;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private StreamRecorder() {
+        }
+
+        /**
+         * 登记本次调用实际使用的模型，之后的片段和结果计入该模型；切换线路时以最后一次为准
+         */
+        public void model(String model) {
+            meters = meters(model);
+        }
+
+        /**
+         * 收到一个模型片段
+         */
+        public void onChunk(String chunk) {
+            ModelMeters current = meters;
+            long now = System.nanoTime();
+            if (lastChunkNanos == 0) {
+                current.firstChunkTimer.record(now - startNanos, TimeUnit.NANOSECONDS);
+            } else {
+                current.interChunkTimer.record(now - lastChunkNanos, TimeUnit.NANOSECONDS);
+            }
+            lastChunkNanos = now;
+            current.chunkCounter.increment();
+            if (chunk != null) {
+                current.charCounter.increment(chunk.length());
+            }
+        }
+
+        /**
+         * 结束本次调用，重复调用只记录第一次
+         *
+         * @return 是否为第一次调用
+         */
+        public boolean finish(Outcome outcome) {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            ModelMeters current = meters;
+            current.streamDurationTimers.get(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            switch (outcome) {
+                case ERROR -> current.errorCounter.increment();
+                case CANCELLED -> current.cancelledByClientCounter.increment();
+                case TIMEOUT -> current.cancelledByTimeoutCounter.increment();
+                default -> {
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import com.mifazhan.support.context.PromptFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 相同请求的模型调用合并（single-flight）
+ * <p>
+ * 模型、历史消息和规范化后的用户消息都相同的并发请求共用一次上游模型调用：
+ * 第一个请求发起调用，其后到达的请求加入进行中的调用，并从头收到已输出的全部片段。
+ * 每个请求仍各自累积回复、各自入库，并在各自的首个片段之前收到上游调用实际使用的模型；所有请求都取消后上游调用才会取消。
+ * 上游调用结束后即不再合并，之后到达的相同请求会重新调用模型。
+ */
+@Slf4j
+@Component
+public class ChatSingleFlight {
+
+    /**
+     * 一次可被合并的上游调用；model 由路由在输出首个片段之前设置
+     */
+    private static final class Flight {
+        private Flux<String> content;
+        private volatile String model;
+    }
+
+    private final ChatStreamProperties.SingleFlight properties;
+    private final String model;
+    private final Map<String, Flight> inflight = new ConcurrentHashMap<>();
+    private final Counter upstreamCounter;
+    private final Counter sharedCounter;
+
+    public ChatSingleFlight(ChatStreamProperties properties,
+                            MeterRegistry meterRegistry,
+                            @Value("${spring.ai.openai.chat.options.model:unknown}") String model) {
+        this.properties = properties.getSingleFlight();
+        this.model = model;
+        this.upstreamCounter = Counter.builder("chat.singleflight.upstream")
+                .description("经合并层发起的上游模型调用数")
+                .tag("model", model)
+                .register(meterRegistry);
+        this.sharedCounter = Counter.builder("chat.singleflight.shared")
+                .description("加入进行中的相同请求、节省的上游模型调用数")
+                .tag("model", model)
+                .register(meterRegistry);
+        Gauge.builder("chat.singleflight.inflight", inflight, Map::size)
+                .description("可被合并的进行中模型调用数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取模型输出：存在进行中的相同请求时加入，否则通过 call 发起新的调用
+     *
+     * @param history     历史消息
+     * @param userMessage 用户消息
+     * @param onModel     上游调用实际使用的模型，在本请求收到首个片段之前调用；加入的请求同样会收到
+     * @param call        发起上游模型调用，参数为路由确定模型后的回调
+     * @return 模型输出，每次订阅都从第一个片段开始
+     */
+    public Flux<String> join(List<Message> history, String userMessage, Consumer<String> onModel,
+                             Function<Consumer<String>, Flux<String>> call) {
+        if (!properties.isEnabled()) {
+            return call.apply(onModel);
+        }
+        String key = key(history, userMessage);
+        return Flux.defer(() -> {
+            boolean[] created = new boolean[1];
+            Flight flight = inflight.computeIfAbsent(key, k -> {
+                created[0] = true;
+                return share(k, call);
+            });
+            if (created[0]) {
+                upstreamCounter.increment();
+            } else {
+                sharedCounter.increment();
+                log.debug("合并相同的模型请求，key={}", key);
+            }
+            // 路由在片段发出前设置模型，每个订阅者收到首个片段时模型已确定
+            AtomicBoolean first = new AtomicBoolean(true);
+            return flight.content.doOnNext(chunk -> {
+                if (first.compareAndSet(true, false) && flight.model != null) {
+                    onModel.accept(flight.model);
+                }
+            });
+        });
+    }
+
+    /**
+     * 上游调用结束（完成、出错或全部订阅者取消）时移出登记表，回放缓存随最后一个订阅者释放
+     */
+    private Flight share(String key, Function<Consumer<String>, Flux<String>> call) {
+        Flight flight = new Flight();
+        flight.content = Flux.defer(() -> call.apply(model -> flight.model = model))
+                .doFinally(signal -> inflight.remove(key, flight))
+                .replay()
+                .refCount(1);
+        return flight;
+    }
+
+    private String key(List<Message> history, String userMessage) {
+        return model + ":" + PromptFingerprint.hash(history, userMessage);
+    }
+}
@@ -0,0 +1,119 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式对话执行器
+ * <p>
+ * 负责 SSE 请求的线程调度与并发控制：默认使用虚拟线程，也可切换为有界线程池；
+ * 通过信号量限制同时进行中的流数量，许可在整个流结束（而不是任务返回）时才释放。
+ */
+@Slf4j
+@Component
+public class ChatStreamExecutor implements DisposableBean {
+
+    private final ChatStreamProperties properties;
+    private final ExecutorService executorService;
+    private final Semaphore streamPermits;
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final Counter rejectedCounter;
+
+    public ChatStreamExecutor(ChatStreamProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.executorService = createExecutor(properties);
+        this.streamPermits = new Semaphore(properties.getMaxConcurrentStreams());
+        this.rejectedCounter = Counter.builder("chat.stream.rejected")
+                .description("因并发上限或线程池饱和被拒绝的流式对话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.active", activeStreams, AtomicInteger::get)
+                .description("进行中的流式对话数")
+                .register(meterRegistry);
+        log.info("流式对话执行器已初始化，mode={}, maxConcurrentStreams={}",
+                properties.getExecutorMode(), properties.getMaxConcurrentStreams());
+    }
+
+    /**
+     * 尝试占用一个流许可
+     *
+     * @return 许可；已达并发上限时返回 null
+     */
+    public StreamPermit tryAcquire() {
+        if (!streamPermits.tryAcquire()) {
+            rejectedCounter.increment();
+            return null;
+        }
+        activeStreams.incrementAndGet();
+        return new StreamPermit();
+    }
+
+    /**
+     * 提交流处理任务
+     *
+     * @param task 任务
+     * @throws RejectedExecutionException 线程池饱和或执行器已关闭
+     */
+    public void execute(Runnable task) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executorService.shutdown();
+        if (!executorService.awaitTermination(properties.getShutdownTimeoutMs(), TimeUnit.MILLISECONDS)) {
+            log.warn("流式对话执行器未能在 {}ms 内结束，强制关闭", properties.getShutdownTimeoutMs());
+            executorService.shutdownNow();
+        }
+    }
+
+    private static ExecutorService createExecutor(ChatStreamProperties properties) {
+        if (properties.getExecutorMode() == ChatStreamProperties.ExecutorMode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-stream-", 0).factory());
+        }
+        ChatStreamProperties.Pool pool = properties.getPool();
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                pool.getCoreSize(),
+                pool.getMaxSize(),
+                pool.getKeepAliveSeconds(), TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(pool.getQueueCapacity()),
+                runnable -> new Thread(runnable, "chat-stream-" + threadIndex.getAndIncrement()),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * 流许可，可重复释放，只有第一次生效
+     */
+    public class StreamPermit {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                activeStreams.decrementAndGet();
+                streamPermits.release();
+            }
+        }
+    }
+}
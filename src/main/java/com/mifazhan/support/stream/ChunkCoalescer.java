@@ -0,0 +1,114 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.service.ChatService;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式片段合并
+ * <p>
+ * 位于 {@link ChatService.ChunkCallback} 与 SSE 发送之间：缓冲模型返回的细碎增量，
+ * 在缓冲内容达到字节阈值或时间窗口到期时合并为一次发送，减少每个事件的写出和刷新开销。
+ * 结束前需调用 {@link #flush()} 发出剩余内容。时间窗口不大于 0 时不做合并，片段直接透传。
+ * 由 {@link ChunkCoalescerFactory} 创建。
+ */
+public class ChunkCoalescer implements ChatService.ChunkCallback {
+
+    private final ChatService.ChunkCallback downstream;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMs;
+    private final int maxBytes;
+    private final ChunkCoalescerFactory.Stats stats;
+
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingBytes;
+    private ScheduledFuture<?> timer;
+    private long chunksIn;
+    private long eventsOut;
+    private boolean closed;
+
+    ChunkCoalescer(ChatService.ChunkCallback downstream, ScheduledExecutorService scheduler,
+                   long windowMs, int maxBytes, ChunkCoalescerFactory.Stats stats) {
+        this.downstream = downstream;
+        this.scheduler = scheduler;
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+        this.stats = stats;
+    }
+
+    @Override
+    public synchronized void onChunk(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        if (windowMs <= 0) {
+            downstream.onChunk(chunk);
+            return;
+        }
+        chunksIn++;
+        pending.append(chunk);
+        pendingBytes += utf8Length(chunk);
+        if (pendingBytes >= maxBytes) {
+            emit();
+        } else if (timer == null) {
+            timer = scheduler.schedule(this::flushOnTimer, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void onModel(String model) {
+        emit();
+        downstream.onModel(model);
+    }
+
+    /**
+     * 立即发出缓冲中的全部内容，并记录本次流的合并统计
+     */
+    public synchronized void flush() {
+        emit();
+        if (!closed && chunksIn > 0) {
+            closed = true;
+            stats.record(chunksIn, eventsOut);
+        }
+    }
+
+    private synchronized void flushOnTimer() {
+        timer = null;
+        emit();
+    }
+
+    private void emit() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        String merged = pending.toString();
+        pending.setLength(0);
+        pendingBytes = 0;
+        eventsOut++;
+        downstream.onChunk(merged);
+    }
+
+    private static int utf8Length(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isSurrogate(c)) {
+                // 代理对整体占 4 字节，每个 char 计 2
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
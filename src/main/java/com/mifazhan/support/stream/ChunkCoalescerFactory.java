@@ -0,0 +1,89 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import com.mifazhan.service.ChatService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 创建 {@link ChunkCoalescer}，并持有所有合并器共用的定时线程和统计指标
+ */
+@Component
+public class ChunkCoalescerFactory implements DisposableBean {
+
+    private final ChatStreamProperties.Coalesce defaults;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Stats stats;
+
+    public ChunkCoalescerFactory(ChatStreamProperties properties, MeterRegistry meterRegistry) {
+        this.defaults = properties.getCoalesce();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(defaults.getSchedulerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "chunk-coalescer-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 片段发送后定时任务即被取消，及时移出队列
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.stats = new Stats(meterRegistry);
+    }
+
+    /**
+     * 创建合并器
+     *
+     * @param downstream 合并后的片段接收方
+     * @param windowMs   时间窗口（毫秒），为空使用默认配置，0 或负数表示不合并，不超过配置的最大时间窗口
+     * @param maxBytes   字节阈值，为空或不大于 0 使用默认配置，不超过配置的最大字节阈值
+     * @return 合并器
+     */
+    public ChunkCoalescer create(ChatService.ChunkCallback downstream, Integer windowMs, Integer maxBytes) {
+        long window = windowMs != null
+                ? Math.min(Math.max(windowMs, 0), defaults.getMaxWindowMs())
+                : (defaults.isEnabled() ? defaults.getWindowMs() : 0);
+        int bytes = maxBytes != null && maxBytes > 0
+                ? Math.min(maxBytes, defaults.getMaxBytesLimit())
+                : defaults.getMaxBytes();
+        return new ChunkCoalescer(downstream, scheduler, window, bytes, stats);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 合并统计：输入片段数、输出事件数以及每个流的合并比
+     */
+    static class Stats {
+
+        private final Counter chunksIn;
+        private final Counter eventsOut;
+        private final DistributionSummary ratio;
+
+        Stats(MeterRegistry meterRegistry) {
+            this.chunksIn = Counter.builder("chat.stream.coalesce.chunks")
+                    .description("进入合并器的模型片段数")
+                    .register(meterRegistry);
+            this.eventsOut = Counter.builder("chat.stream.coalesce.events")
+                    .description("合并后实际发送的 SSE 事件数")
+                    .register(meterRegistry);
+            this.ratio = DistributionSummary.builder("chat.stream.coalesce.ratio")
+                    .description("每个流的合并比（片段数 / 事件数）")
+                    .register(meterRegistry);
+        }
+
+        void record(long in, long out) {
+            chunksIn.increment(in);
+            eventsOut.increment(out);
+            if (out > 0) {
+                ratio.record((double) in / out);
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.mifazhan.support.stream;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可续传的流式补全
+ * <p>
+ * 一次模型调用产生的 SSE 事件按顺序编号并缓存在有界的环形缓冲区中，事件 id 为 {@code <流ID>-<序号>}。
+ * 客户端断线后携带 Last-Event-ID 重连，即可从缓冲区补发错过的事件并继续接收后续事件，
+ * 无需重新调用模型。所有客户端都断开后，上游请求在宽限期内保持运行，期满仍无人重连时取消。
+ * 由 {@link StreamReplayRegistry} 创建和淘汰。
+ * <p>
+ * 事件在流的锁内编号并放入各接收方的待发送队列，在锁外写入连接，慢客户端不会阻塞上游和其他接收方；
+ * 同一接收方同时只有一个线程在发送，补发与实时事件保持序号顺序。
+ */
+public class ReplayableStream {
+
+    /**
+     * 每个事件除内容外的固定内存开销估算（字节）
+     */
+    private static final int EVENT_OVERHEAD_BYTES = 48;
+
+    /**
+     * 事件接收方
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * 接收一个事件
+         *
+         * @param eventId 事件 id
+         * @param data    事件内容
+         * @param last    是否为最后一个事件
+         * @return 是否发送成功，返回 false 时该接收方被移除
+         */
+        boolean onEvent(String eventId, String data, boolean last);
+    }
+
+    private record Event(long seq, String data) {
+    }
+
+    private record Delivery(String eventId, String data, boolean last) {
+    }
+
+    /**
+     * 一个接收方及其待发送的事件，队列由自身的锁保护；持有该锁时不会再获取流的锁
+     */
+    private static final class Subscriber {
+
+        private final Listener listener;
+        private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+        private boolean draining;
+        private boolean closed;
+
+        private Subscriber(Listener listener) {
+            this.listener = listener;
+        }
+
+        synchronized void offer(Delivery delivery) {
+            if (!closed) {
+                queue.addLast(delivery);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        /**
+         * 在锁外发送队列中的事件；已有线程在发送时由该线程负责，直接返回
+         *
+         * @return 是否发送失败
+         */
+        boolean drain() {
+            synchronized (this) {
+                if (draining) {
+                    return false;
+                }
+                draining = true;
+            }
+            while (true) {
+                Delivery delivery;
+                synchronized (this) {
+                    delivery = queue.pollFirst();
+                    if (delivery == null) {
+                        draining = false;
+                        return false;
+                    }
+                }
+                if (!listener.onEvent(delivery.eventId(), delivery.data(), delivery.last())) {
+                    synchronized (this) {
+                        closed = true;
+                        queue.clear();
+                        draining = false;
+                    }
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final String id;
+    private final int maxEvents;
+    private final StreamReplayRegistry registry;
+    private final Disposable.Swap upstream = Disposables.swap();
+
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+    private final List<Subscriber> subscribers = new ArrayList<>(1);
+    private final List<Runnable> terminationHooks = new ArrayList<>(1);
+    private long nextSeq = 1;
+    private long bytes;
+    private boolean finished;
+    private long finishedAtMillis;
+    private ScheduledFuture<?> graceTimer;
+
+    ReplayableStream(String id, int maxEvents, StreamReplayRegistry registry) {
+        this.id = id;
+        this.maxEvents = Math.max(1, maxEvents);
+        this.registry = registry;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * 设置上游模型请求的订阅；流已被取消时立即取消该订阅
+     */
+    public void setUpstream(Disposable disposable) {
+        upstream.update(disposable);
+    }
+
+    /**
+     * 登记流结束（正常完成或被取消）时执行的回调，只执行一次
+     */
+    public synchronized void onTermination(Runnable hook) {
+        if (finished) {
+            hook.run();
+        } else {
+            terminationHooks.add(hook);
+        }
+    }
+
+    /**
+     * 追加一个事件并推送给当前的接收方
+     */
+    public void append(String data) {
+        publish(data, false);
+    }
+
+    /**
+     * 追加最后一个事件（结束标记或错误）并结束流
+     */
+    public void complete(String data) {
+        publish(data, true);
+    }
+
+    /**
+     * 订阅事件：先补发序号大于 afterSeq 的缓存事件，再接收后续事件
+     *
+     * @param afterSeq 客户端已收到的最后一个事件序号，0 表示从头开始
+     * @param listener 接收方
+     * @return 补发的事件数；所需事件已被淘汰时返回 -1，此时不会订阅
+     */
+    public int subscribe(long afterSeq, Listener listener) {
+        Subscriber subscriber = new Subscriber(listener);
+        int replayed = 0;
+        synchronized (this) {
+            long firstSeq = events.isEmpty() ? nextSeq : events.peekFirst().seq();
+            if (afterSeq + 1 < firstSeq || afterSeq >= nextSeq) {
+                return -1;
+            }
+            if (graceTimer != null) {
+                graceTimer.cancel(false);
+                graceTimer = null;
+            }
+            for (Event event : events) {
+                if (event.seq() <= afterSeq) {
+                    continue;
+                }
+                boolean last = finished && event.seq() == nextSeq - 1;
+                subscriber.offer(new Delivery(eventId(event.seq()), event.data(), last));
+                replayed++;
+            }
+            // 先登记再发送，锁外补发期间产生的新事件排在补发事件之后
+            if (!finished) {
+                subscribers.add(subscriber);
+            }
+        }
+        if (subscriber.drain()) {
+            detach(subscriber);
+        }
+        return replayed;
+    }
+
+    /**
+     * 取消订阅；最后一个接收方离开且流未结束时开始宽限期计时
+     */
+    public void unsubscribe(Listener listener) {
+        Subscriber removed = null;
+        synchronized (this) {
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.listener == listener) {
+                    removed = subscriber;
+                    break;
+                }
+            }
+        }
+        if (removed != null) {
+            detach(removed);
+        }
+    }
+
+    /**
+     * 移除接收方并丢弃其未发送的事件
+     */
+    private void detach(Subscriber subscriber) {
+        subscriber.close();
+        List<Runnable> hooks = null;
+        synchronized (this) {
+            if (subscribers.remove(subscriber) && subscribers.isEmpty() && !finished) {
+                hooks = onListenerLost();
+            }
+        }
+        runCancel(hooks);
+    }
+
+    /**
+     * 取消上游模型请求并结束流，不再推送任何事件
+     */
+    public void cancel() {
+        List<Runnable> hooks;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            subscribers.forEach(Subscriber::close);
+            subscribers.clear();
+            hooks = terminate();
+        }
+        upstream.dispose();
+        // 先移出登记表，结束回调执行期间不会再被续传
+        registry.remove(this);
+        hooks.forEach(Runnable::run);
+    }
+
+    /**
+     * 流是否已结束
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    synchronized long finishedAtMillis() {
+        return finishedAtMillis;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    private void publish(String data, boolean last) {
+        List<Runnable> hooks = null;
+        boolean overLimit;
+        List<Subscriber> targets;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            long seq = nextSeq++;
+            events.addLast(new Event(seq, data));
+            long delta = weigh(data);
+            if (events.size() > maxEvents) {
+                delta -= weigh(events.pollFirst().data());
+            }
+            // 与 bytes 在同一把锁内更新，移出登记表时扣减的总量保持一致
+            bytes += delta;
+            overLimit = registry.addBytes(delta);
+            Delivery delivery = new Delivery(eventId(seq), data, last);
+            subscribers.forEach(subscriber -> subscriber.offer(delivery));
+            targets = List.copyOf(subscribers);
+            if (last) {
+                subscribers.clear();
+                hooks = terminate();
+            } else if (subscribers.isEmpty() && graceTimer == null) {
+                hooks = onListenerLost();
+            }
+        }
+        for (Subscriber subscriber : targets) {
+            if (subscriber.drain() && !last) {
+                detach(subscriber);
+            }
+        }
+        if (overLimit) {
+            registry.evictForMemory();
+        }
+        if (last) {
+            hooks.forEach(Runnable::run);
+            registry.onFinished(this);
+        } else {
+            runCancel(hooks);
+        }
+    }
+
+    /**
+     * 没有接收方时的处理，需持有锁调用
+     *
+     * @return 需要立即取消时返回结束回调，否则返回 null
+     */
+    private List<Runnable> onListenerLost() {
+        long graceMs = registry.graceMs();
+        if (graceMs <= 0) {
+            return terminate();
+        }
+        if (graceTimer == null) {
+            graceTimer = registry.schedule(this::cancelIfAbandoned, graceMs, TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
+    private void cancelIfAbandoned() {
+        synchronized (this) {
+            graceTimer = null;
+            if (finished || !subscribers.isEmpty()) {
+                return;
+            }
+        }
+        cancel();
+    }
+
+    /**
+     * 立即取消时使用：onListenerLost 已将流标记为结束
+     */
+    private void runCancel(List<Runnable> hooks) {
+        if (hooks == null) {
+            return;
+        }
+        upstream.dispose();
+        registry.remove(this);
+        hooks.forEach(Runnable::run);
+    }
+
+    private List<Runnable> terminate() {
+        finished = true;
+        finishedAtMillis = System.currentTimeMillis();
+        if (graceTimer != null) {
+            graceTimer.cancel(false);
+            graceTimer = null;
+        }
+        List<Runnable> hooks = new ArrayList<>(terminationHooks);
+        terminationHooks.clear();
+        return hooks;
+    }
+
+    private String eventId(long seq) {
+        return id + "-" + seq;
+    }
+
+    private static long weigh(String data) {
+        return EVENT_OVERHEAD_BYTES + 2L * data.length();
+    }
+}
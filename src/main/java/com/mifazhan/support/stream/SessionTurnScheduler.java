@@ -0,0 +1,186 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import com.mifazhan.exception.BusinessException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 同一会话的对话轮次调度
+ * <p>
+ * 同一会话同时只执行一轮对话，保证用户消息、AI 回复按轮次写入，下一轮读取的历史包含上一轮的回复；
+ * 不同会话之间互不影响。会话已有进行中的对话时，新请求按 {@link ChatStreamProperties.TurnPolicy} 排队、拒绝或取消之前的轮次。
+ * 每个会话的调度状态只在有进行中或排队的轮次时存在，空闲会话不占用内存。
+ * 状态变更都在 {@link ConcurrentHashMap#compute} 中完成，只锁定该会话所在的桶。
+ */
+@Slf4j
+@Component
+public class SessionTurnScheduler {
+
+    /**
+     * 一轮对话：start 在轮到本轮时完成，preempt 在本轮被新请求取代时出错
+     */
+    private static final class Turn {
+        private final Sinks.Empty<Void> start = Sinks.empty();
+        private final Sinks.Empty<Void> preempt = Sinks.empty();
+    }
+
+    /**
+     * 一个会话的调度状态
+     */
+    private static final class Mailbox {
+        private Turn running;
+        private final Deque<Turn> waiting = new ArrayDeque<>();
+    }
+
+    private final ChatStreamProperties.Turn properties;
+    private final Map<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    private final Counter preemptedCounter;
+
+    public SessionTurnScheduler(ChatStreamProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties.getTurn();
+        this.waitTimer = Timer.builder("chat.turn.wait")
+                .description("同一会话中排队等待前一轮对话结束的时间")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("chat.turn.rejected")
+                .description("因会话已有进行中的对话、排队已满或排队超时而拒绝的请求数")
+                .register(meterRegistry);
+        this.preemptedCounter = Counter.builder("chat.turn.preempted")
+                .description("被同一会话的新请求取消的对话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.turn.sessions", mailboxes, Map::size)
+                .description("有进行中或排队中对话的会话数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 按会话串行执行一轮对话
+     * <p>
+     * 订阅返回的 Flux 时登记本轮，轮到本轮时才订阅 turn；turn 结束（完成、出错或取消）后下游的结束处理先执行，
+     * 之后才开始下一轮。被拒绝、排队超时或被新请求取代时以 {@link BusinessException} 结束。
+     *
+     * @param sessionId 会话ID，为空（新会话）时不做调度
+     * @param turn      本轮对话，包括读取历史、保存用户消息和调用模型
+     * @return 串行执行的本轮对话
+     */
+    public <T> Flux<T> serialize(Long sessionId, Flux<T> turn) {
+        if (sessionId == null) {
+            return turn;
+        }
+        return Flux.defer(() -> {
+            Turn self = new Turn();
+            List<Turn> preempted = new ArrayList<>();
+            BusinessException[] rejected = new BusinessException[1];
+            boolean[] queued = new boolean[1];
+            mailboxes.compute(sessionId, (id, mailbox) -> {
+                if (mailbox == null) {
+                    mailbox = new Mailbox();
+                    mailbox.running = self;
+                    return mailbox;
+                }
+                switch (properties.getPolicy()) {
+                    case REJECT -> rejected[0] = new BusinessException(409, "该会话正在生成回复，请稍后再试");
+                    case QUEUE -> {
+                        if (mailbox.waiting.size() >= properties.getMaxQueued()) {
+                            rejected[0] = new BusinessException(429, "该会话排队的请求过多，请稍后再试");
+                        } else {
+                            mailbox.waiting.add(self);
+                            queued[0] = true;
+                        }
+                    }
+                    case CANCEL_PREVIOUS -> {
+                        if (mailbox.running != null) {
+                            preempted.add(mailbox.running);
+                        }
+                        preempted.addAll(mailbox.waiting);
+                        mailbox.waiting.clear();
+                        mailbox.waiting.add(self);
+                        queued[0] = true;
+                    }
+                }
+                return mailbox;
+            });
+            if (rejected[0] != null) {
+                rejectedCounter.increment();
+                log.info("拒绝同一会话的并发请求，sessionId={}: {}", sessionId, rejected[0].getMessage());
+                return Flux.error(rejected[0]);
+            }
+            for (Turn previous : preempted) {
+                preemptedCounter.increment();
+                BusinessException error = new BusinessException(409, "已被同一会话的新请求取代");
+                previous.start.tryEmitError(error);
+                previous.preempt.tryEmitError(error);
+            }
+            // takeUntilOther 只在另一方发出元素或完成时取消上游，另一方出错时不会取消，
+            // 因此被取代时先发出元素截断本轮、取消模型请求，再以取代的错误结束
+            AtomicReference<Throwable> preemptedBy = new AtomicReference<>();
+            Mono<Boolean> preempt = self.preempt.asMono()
+                    .thenReturn(true)
+                    .onErrorResume(error -> {
+                        preemptedBy.set(error);
+                        return Mono.just(true);
+                    });
+            return ready(self, queued[0])
+                    .thenMany(turn.takeUntilOther(preempt))
+                    .concatWith(Mono.defer(() -> preemptedBy.get() == null ? Mono.empty() : Mono.error(preemptedBy.get())))
+                    .doFinally(signal -> release(sessionId, self));
+        });
+    }
+
+    /**
+     * 等待轮到本轮。排队的轮次由前一轮结束的线程唤醒，切换到 boundedElastic 后再执行本轮的阻塞操作
+     */
+    private Mono<Void> ready(Turn turn, boolean queued) {
+        if (!queued) {
+            return Mono.empty();
+        }
+        Timer.Sample sample = Timer.start();
+        Mono<Void> start = turn.start.asMono();
+        if (properties.getQueueTimeoutMs() > 0) {
+            start = start.timeout(Duration.ofMillis(properties.getQueueTimeoutMs()), Mono.error(() -> {
+                rejectedCounter.increment();
+                return new BusinessException(429, "等待该会话的上一轮对话结束超时");
+            }));
+        }
+        return start.publishOn(Schedulers.boundedElastic())
+                .doOnTerminate(() -> sample.stop(waitTimer));
+    }
+
+    /**
+     * 本轮结束或在排队中取消：进行中的轮次结束时开始下一轮，会话空闲后移除调度状态
+     */
+    private void release(Long sessionId, Turn turn) {
+        Turn[] next = new Turn[1];
+        mailboxes.computeIfPresent(sessionId, (id, mailbox) -> {
+            if (mailbox.running == turn) {
+                mailbox.running = mailbox.waiting.poll();
+                next[0] = mailbox.running;
+            } else {
+                mailbox.waiting.remove(turn);
+            }
+            return mailbox.running == null && mailbox.waiting.isEmpty() ? null : mailbox;
+        });
+        if (next[0] != null) {
+            next[0].start.tryEmitEmpty();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可续传流的登记与淘汰
+ * <p>
+ * 流结束后缓存保留 ttlSeconds，所有流的缓存内容合计超过 maxBytes 时优先淘汰最早结束的流。
+ * 关闭续传时不保留已结束的流，客户端断开即取消模型请求。
+ */
+@Slf4j
+@Component
+public class StreamReplayRegistry implements DisposableBean {
+
+    private final ChatStreamProperties.Replay properties;
+    private final Map<String, ReplayableStream> streams = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Counter resumedCounter;
+    private final Counter expiredCounter;
+    private final Counter replayedEventsCounter;
+    private final Counter evictedCounter;
+    private boolean overLimitLogged;
+
+    public StreamReplayRegistry(ChatStreamProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties.getReplay();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "chat-stream-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 重连后宽限期计时即被取消，及时移出队列
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        if (this.properties.isEnabled()) {
+            this.scheduler.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.SECONDS);
+        }
+        this.resumedCounter = Counter.builder("chat.stream.replay.resumed")
+                .description("通过 Last-Event-ID 成功续传的次数")
+                .register(meterRegistry);
+        this.expiredCounter = Counter.builder("chat.stream.replay.expired")
+                .description("因流不存在或事件已淘汰而无法续传的次数")
+                .register(meterRegistry);
+        this.replayedEventsCounter = Counter.builder("chat.stream.replay.events")
+                .description("续传时补发的事件数")
+                .register(meterRegistry);
+        this.evictedCounter = Counter.builder("chat.stream.replay.evicted")
+                .description("因超出内存上限被提前淘汰的已结束流数")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.replay.streams", streams, Map::size)
+                .description("缓存中的流数量（含进行中的流）")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.replay.bytes", totalBytes, AtomicLong::get)
+                .description("缓存事件占用的内存估算（字节）")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 创建一个新的流
+     */
+    public ReplayableStream open() {
+        // 关闭续传时只需容纳尚未送出的事件
+        int maxEvents = properties.isEnabled() ? properties.getMaxEventsPerStream() : 1;
+        // 流 ID 即续传凭据，使用不可预测的随机 UUID，避免被猜出后接入他人的回复
+        ReplayableStream stream = new ReplayableStream(UUID.randomUUID().toString().replace("-", ""), maxEvents, this);
+        streams.put(stream.id(), stream);
+        return stream;
+    }
+
+    /**
+     * 解析 Last-Event-ID 并订阅对应的流
+     *
+     * @param lastEventId 客户端收到的最后一个事件 id
+     * @param listener    接收方
+     * @return 订阅的流；流不存在、已淘汰或 id 无法解析时返回 null
+     */
+    public ReplayableStream resume(String lastEventId, ReplayableStream.Listener listener) {
+        int split = lastEventId == null ? -1 : lastEventId.lastIndexOf('-');
+        ReplayableStream stream = split > 0 ? streams.get(lastEventId.substring(0, split)) : null;
+        long afterSeq = -1;
+        if (stream != null) {
+            try {
+                afterSeq = Long.parseLong(lastEventId.substring(split + 1));
+            } catch (NumberFormatException e) {
+                stream = null;
+            }
+        }
+        int replayed = stream == null || afterSeq < 0 ? -1 : stream.subscribe(afterSeq, listener);
+        if (replayed < 0) {
+            expiredCounter.increment();
+            return null;
+        }
+        resumedCounter.increment();
+        replayedEventsCounter.increment(replayed);
+        return stream;
+    }
+
+    long graceMs() {
+        return properties.isEnabled() ? properties.getGraceMs() : 0;
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduler.schedule(task, delay, unit);
+    }
+
+    /**
+     * 累加缓存占用
+     *
+     * @return 是否超出内存上限
+     */
+    boolean addBytes(long delta) {
+        return totalBytes.addAndGet(delta) > properties.getMaxBytes();
+    }
+
+    void onFinished(ReplayableStream stream) {
+        if (!properties.isEnabled() || properties.getTtlSeconds() <= 0) {
+            remove(stream);
+        }
+    }
+
+    void remove(ReplayableStream stream) {
+        if (streams.remove(stream.id(), stream)) {
+            totalBytes.addAndGet(-stream.bytes());
+        }
+    }
+
+    private void evictExpired() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(properties.getTtlSeconds());
+        for (ReplayableStream stream : streams.values()) {
+            if (stream.isFinished() && stream.finishedAtMillis() < deadline) {
+                remove(stream);
+            }
+        }
+    }
+
+    /**
+     * 按结束时间从早到晚淘汰已结束的流，直到低于内存上限；进行中的流不会被淘汰
+     */
+    synchronized void evictForMemory() {
+        if (totalBytes.get() <= properties.getMaxBytes()) {
+            return;
+        }
+        List<ReplayableStream> finished = streams.values().stream()
+                .filter(ReplayableStream::isFinished)
+                .sorted(Comparator.comparingLong(ReplayableStream::finishedAtMillis))
+                .toList();
+        for (ReplayableStream stream : finished) {
+            if (totalBytes.get() <= properties.getMaxBytes()) {
+                break;
+            }
+            remove(stream);
+            evictedCounter.increment();
+        }
+        boolean overLimit = totalBytes.get() > properties.getMaxBytes();
+        if (overLimit && !overLimitLogged) {
+            log.warn("进行中的流缓存已超出内存上限，当前 {} 字节，上限 {} 字节", totalBytes.get(), properties.getMaxBytes());
+        }
+        overLimitLogged = overLimit;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        streams.values().forEach(ReplayableStream::cancel);
+    }
+}
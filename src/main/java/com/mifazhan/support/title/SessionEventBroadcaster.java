@@ -0,0 +1,128 @@
+package com.mifazhan.support.title;
+
+import com.mifazhan.config.TitleProperties;
+import com.mifazhan.domain.event.SessionTitleGeneratedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话事件推送
+ * <p>
+ * 客户端通过 SSE 长连接订阅指定会话的异步变化（目前为后台生成的标题），事件只推送给该会话的订阅。
+ * 连接结束或写入失败时移除订阅；客户端断开时容器不一定回调，因此定期发送心跳注释，写入失败即清理已断开的连接。
+ */
+@Slf4j
+@Component
+public class SessionEventBroadcaster implements DisposableBean {
+
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    public SessionEventBroadcaster(TitleProperties properties, MeterRegistry meterRegistry) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-events-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.getEventsHeartbeatSeconds() > 0) {
+            executor.scheduleWithFixedDelay(this::heartbeat, properties.getEventsHeartbeatSeconds(),
+                    properties.getEventsHeartbeatSeconds(), TimeUnit.SECONDS);
+        }
+        Gauge.builder("chat.session.events.subscribers", this, broadcaster -> broadcaster.subscriberCount())
+                .description("订阅会话事件的 SSE 连接数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 订阅一个会话的事件，连接不设超时，由心跳发现断开的连接
+     *
+     * @param sessionId 会话ID
+     */
+    public SseEmitter subscribe(Long sessionId) {
+        SseEmitter emitter = new SseEmitter(0L);
+        // 在 compute 内加入，避免与移除最后一个订阅时删除集合相互覆盖
+        subscribers.compute(sessionId, (id, emitters) -> {
+            Set<SseEmitter> set = emitters != null ? emitters : ConcurrentHashMap.newKeySet();
+            set.add(emitter);
+            return set;
+        });
+        emitter.onCompletion(() -> remove(sessionId, emitter));
+        emitter.onTimeout(() -> remove(sessionId, emitter));
+        emitter.onError(error -> remove(sessionId, emitter));
+        return emitter;
+    }
+
+    @EventListener
+    public void onTitleGenerated(SessionTitleGeneratedEvent event) {
+        Set<SseEmitter> emitters = subscribers.get(event.getSessionId());
+        if (emitters == null) {
+            return;
+        }
+        Map<String, Object> data = Map.of("sessionId", event.getSessionId(), "title", event.getTitle());
+        for (SseEmitter emitter : emitters) {
+            send(event.getSessionId(), emitter, SseEmitter.event().name("title").data(data));
+        }
+    }
+
+    /**
+     * 向所有连接发送心跳注释，写入失败的连接随之移除
+     */
+    private void heartbeat() {
+        try {
+            subscribers.forEach((sessionId, emitters) -> {
+                for (SseEmitter emitter : emitters) {
+                    send(sessionId, emitter, SseEmitter.event().comment("heartbeat"));
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("发送会话事件心跳失败", e);
+        }
+    }
+
+    private void send(Long sessionId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException e) {
+            // 连接已断开时容器不一定回调 onCompletion，这里直接移除
+            log.debug("推送会话事件失败，sessionId={}: {}", sessionId, e.getMessage());
+            remove(sessionId, emitter);
+            emitter.completeWithError(e);
+        } catch (IllegalStateException e) {
+            // 连接已结束
+            remove(sessionId, emitter);
+        }
+    }
+
+    private void remove(Long sessionId, SseEmitter emitter) {
+        subscribers.computeIfPresent(sessionId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private int subscriberCount() {
+        int count = 0;
+        for (Set<SseEmitter> emitters : subscribers.values()) {
+            count += emitters.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
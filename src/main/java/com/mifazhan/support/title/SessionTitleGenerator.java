@@ -0,0 +1,226 @@
+package com.mifazhan.support.title;
+
+import com.mifazhan.config.TitleProperties;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.event.SessionTitleGeneratedEvent;
+import com.mifazhan.mapper.SessionMapper;
+import com.mifazhan.support.route.ModelRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 会话标题的后台生成
+ * <p>
+ * 新建会话时先使用首条消息截断的标题，同时登记到待生成队列，不影响首轮对话。后台任务每隔 batchIntervalMs
+ * （或待生成数达到 batchSize 时）取出一批，以较小的输出上限并发调用模型生成标题，再用一条语句批量写回 session 表，
+ * 写入成功后发布 {@link SessionTitleGeneratedEvent} 通知客户端。生成失败或会话标题已被用户修改时保留原标题。
+ */
+@Slf4j
+@Component
+public class SessionTitleGenerator implements DisposableBean {
+
+    private static final String INSTRUCTION = "根据用户在对话中的第一条消息，为这段对话起一个简短的标题，"
+            + "概括用户想做的事。只输出标题本身，不加引号和标点，不超过 %d 字。";
+
+    /**
+     * 一个待生成标题的会话
+     */
+    private record Pending(Long sessionId, String fallbackTitle, String firstMessage) {
+    }
+
+    private final TitleProperties properties;
+    private final SessionMapper sessionMapper;
+    private final ModelRouter modelRouter;
+    private final ApplicationEventPublisher eventPublisher;
+    private final BlockingQueue<Pending> pending;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final Timer batchTimer;
+    private final Counter generatedCounter;
+    private final Counter failureCounter;
+    private final Counter droppedCounter;
+
+    public SessionTitleGenerator(TitleProperties properties,
+                                 SessionMapper sessionMapper,
+                                 ModelRouter modelRouter,
+                                 ApplicationEventPublisher eventPublisher,
+                                 MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.sessionMapper = sessionMapper;
+        this.modelRouter = modelRouter;
+        this.eventPublisher = eventPublisher;
+        this.pending = new LinkedBlockingQueue<>(Math.max(1, properties.getMaxQueued()));
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-title");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.isEnabled()) {
+            executor.scheduleWithFixedDelay(this::flushQuietly,
+                    properties.getBatchIntervalMs(), properties.getBatchIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+
+        this.batchTimer = Timer.builder("chat.title.batch")
+                .description("生成并写回一批会话标题的耗时")
+                .register(meterRegistry);
+        this.generatedCounter = Counter.builder("chat.title.generated")
+                .description("由模型生成并写回的会话标题数")
+                .register(meterRegistry);
+        this.failureCounter = Counter.builder("chat.title.failures")
+                .description("生成标题失败、保留截断标题的会话数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.title.dropped")
+                .description("因待生成队列已满而保留截断标题的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.title.pending", pending, BlockingQueue::size)
+                .description("等待生成标题的会话数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 登记新建的会话，只入队，不阻塞调用方
+     *
+     * @param sessionId     会话ID
+     * @param fallbackTitle 截断生成的标题，生成失败时保留
+     * @param firstMessage  会话的第一条用户消息
+     */
+    public void submit(Long sessionId, String fallbackTitle, String firstMessage) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (!pending.offer(new Pending(sessionId, fallbackTitle, firstMessage))) {
+            droppedCounter.increment();
+            return;
+        }
+        // 攒满一批时不等下一个周期
+        if (pending.size() >= properties.getBatchSize() && flushScheduled.compareAndSet(false, true)) {
+            executor.execute(this::flushQuietly);
+        }
+    }
+
+    private void flushQuietly() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("生成会话标题失败", e);
+        }
+    }
+
+    /**
+     * 按批生成并写回标题，直到队列为空
+     */
+    private void flush() {
+        List<Pending> batch = new ArrayList<>(properties.getBatchSize());
+        while (pending.drainTo(batch, properties.getBatchSize()) > 0) {
+            List<Pending> current = List.copyOf(batch);
+            batch.clear();
+            batchTimer.record(() -> generateBatch(current));
+        }
+    }
+
+    private void generateBatch(List<Pending> batch) {
+        Map<Long, String> titles = Flux.fromIterable(batch)
+                .flatMap(item -> generate(item).map(title -> Map.entry(item, title)), Math.max(1, properties.getConcurrency()))
+                .collectMap(entry -> entry.getKey().sessionId(), Map.Entry::getValue)
+                .block();
+        if (titles == null || titles.isEmpty()) {
+            return;
+        }
+        List<SessionMapper.TitleUpdate> updates = batch.stream()
+                .filter(item -> titles.containsKey(item.sessionId()))
+                .map(item -> new SessionMapper.TitleUpdate(item.sessionId(), item.fallbackTitle(), titles.get(item.sessionId())))
+                .toList();
+        sessionMapper.updateTitles(updates);
+
+        // 回读确认实际写入的标题，用户已改名或已删除的会话不通知
+        Map<Long, Session> sessions = sessionMapper.selectBatchIds(titles.keySet()).stream()
+                .collect(Collectors.toMap(Session::getSessionId, Function.identity()));
+        int applied = 0;
+        for (Map.Entry<Long, String> entry : titles.entrySet()) {
+            Session session = sessions.get(entry.getKey());
+            if (session != null && entry.getValue().equals(session.getTitle())) {
+                applied++;
+                eventPublisher.publishEvent(new SessionTitleGeneratedEvent(entry.getKey(), entry.getValue()));
+            }
+        }
+        generatedCounter.increment(applied);
+        log.info("已生成会话标题，本批 {} 个，写回 {} 个", batch.size(), applied);
+    }
+
+    /**
+     * 调用模型生成一个标题，失败或结果为空时返回空
+     */
+    private Mono<String> generate(Pending item) {
+        String firstMessage = item.firstMessage().strip();
+        if (firstMessage.length() > properties.getMaxPromptChars()) {
+            firstMessage = firstMessage.substring(0, properties.getMaxPromptChars());
+        }
+        List<Message> instruction = List.of(new SystemMessage(INSTRUCTION.formatted(properties.getMaxChars())));
+        OpenAiChatOptions options = OpenAiChatOptions.builder()
+                .maxTokens(properties.getMaxTokens())
+                .build();
+        return modelRouter.stream(item.sessionId(), instruction, firstMessage, options, model -> {
+                })
+                .collect(Collectors.joining())
+                .timeout(Duration.ofSeconds(properties.getTimeoutSeconds()))
+                .map(this::clean)
+                .filter(title -> !title.isEmpty())
+                .switchIfEmpty(Mono.fromRunnable(failureCounter::increment))
+                .onErrorResume(error -> {
+                    failureCounter.increment();
+                    log.warn("生成会话标题失败，sessionId={}: {}", item.sessionId(), error.toString());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * 去掉模型输出中的换行、引号、"标题："前缀和句末标点，并限制长度
+     */
+    private String clean(String raw) {
+        String title = raw.strip();
+        int newline = title.indexOf('\n');
+        if (newline >= 0) {
+            title = title.substring(0, newline).strip();
+        }
+        if (title.startsWith("标题：") || title.startsWith("标题:")) {
+            title = title.substring(3).strip();
+        }
+        title = title.replaceAll("^[\"'“”‘’《》「」]+|[\"'“”‘’《》「」。．.！!？?]+$", "").strip();
+        if (title.length() > properties.getMaxChars()) {
+            title = title.substring(0, properties.getMaxChars());
+        }
+        return title;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
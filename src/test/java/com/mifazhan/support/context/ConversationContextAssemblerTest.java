@@ -0,0 +1,61 @@
+package com.mifazhan.support.context;
+
+import com.mifazhan.config.ChatContextProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.mapper.SessionSummaryMapper;
+import com.mifazhan.service.MessageService;
+import com.mifazhan.support.persist.MessageWriteBehind;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConversationContextAssemblerTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2026, 3, 1, 10, 0);
+
+    private final MessageService messageService = mock(MessageService.class);
+    private final MessageWriteBehind messageWriteBehind = mock(MessageWriteBehind.class);
+
+    private ConversationContextAssembler create() {
+        ChatContextProperties properties = new ChatContextProperties();
+        properties.setMaxCachedSessions(1);
+        return new ConversationContextAssembler(properties, messageService, mock(SessionSummaryMapper.class), messageWriteBehind);
+    }
+
+    @Test
+    public void testReloadedWindowIncludesUnpersistedMessages() {
+        ConversationContextAssembler assembler = create();
+        Message saved = message(1L, "user", "第一问", 0);
+        Message persistedMeanwhile = message(2L, "assistant", "第一答", 1);
+        Message queued = message(null, "user", "第二问", 2);
+        Message retrying = message(null, "assistant", "第二答", 3);
+        // 快照之后 persistedMeanwhile 落库，同时出现在快照和查询结果中
+        when(messageWriteBehind.unpersisted(1L)).thenReturn(List.of(persistedMeanwhile, retrying, queued));
+        when(messageService.getRecentBySessionId(eq(1L), anyInt())).thenReturn(List.of(saved, persistedMeanwhile));
+
+        // 会话 1 的窗口被会话 2 挤出后重新加载
+        assembler.startSession(1L);
+        assembler.startSession(2L);
+        List<org.springframework.ai.chat.messages.Message> history = assembler.history(1L);
+
+        assertEquals(List.of("第一问", "第一答", "第二问", "第二答"),
+                history.stream().map(org.springframework.ai.chat.messages.Message::getText).toList());
+    }
+
+    private static Message message(Long id, String role, String content, int seconds) {
+        Message message = new Message();
+        message.setId(id);
+        message.setSessionId(1L);
+        message.setRole(role);
+        message.setContent(content);
+        message.setCreationTime(TIME.plusSeconds(seconds));
+        return message;
+    }
+}
@@ -0,0 +1,79 @@
+package com.mifazhan.support.page;
+
+import com.mifazhan.exception.BusinessException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PageCursorTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2026, 2, 20, 19, 56, 50);
+
+    @Test
+    public void testEncodeDecodeRoundTrip() {
+        PageCursor cursor = PageCursor.of(TIME.withNano(123_456_789), 42L);
+
+        PageCursor decoded = PageCursor.decode(cursor.encode());
+
+        assertEquals(cursor, decoded);
+        // 时间截断到秒，与 datetime 列一致
+        assertEquals(TIME, decoded.time());
+        assertEquals(42L, decoded.id());
+    }
+
+    @Test
+    public void testBlankCursorIsFirstPage() {
+        assertNull(PageCursor.decode(null));
+        assertNull(PageCursor.decode(""));
+        assertNull(PageCursor.decode("  "));
+    }
+
+    @Test
+    public void testMalformedCursorIsRejected() {
+        assertInvalid("不是base64!");
+        assertInvalid(base64("1771617410"));
+        assertInvalid(base64("abc:1"));
+        assertInvalid(base64("1771617410:"));
+        assertInvalid(base64(":1"));
+    }
+
+    @Test
+    public void testIsOlderBreaksTiesById() {
+        PageCursor cursor = PageCursor.of(TIME, 10L);
+
+        assertTrue(cursor.isOlder(TIME.minusSeconds(1), 99L));
+        assertFalse(cursor.isOlder(TIME.plusSeconds(1), 1L));
+        // 同一秒内按主键区分，游标本身不属于下一页
+        assertTrue(cursor.isOlder(TIME, 9L));
+        assertFalse(cursor.isOlder(TIME, 10L));
+        assertFalse(cursor.isOlder(TIME, 11L));
+        // 比较前同样截断到秒
+        assertTrue(cursor.isOlder(TIME.withNano(999_000_000), 9L));
+        assertFalse(cursor.isOlder(TIME.withNano(999_000_000), 11L));
+    }
+
+    @Test
+    public void testNormalizeSize() {
+        assertEquals(PageCursor.DEFAULT_SIZE, PageCursor.normalizeSize(null));
+        assertEquals(PageCursor.DEFAULT_SIZE, PageCursor.normalizeSize(0));
+        assertEquals(5, PageCursor.normalizeSize(5));
+        assertEquals(PageCursor.MAX_SIZE, PageCursor.normalizeSize(1000));
+    }
+
+    private static void assertInvalid(String cursor) {
+        BusinessException error = assertThrows(BusinessException.class, () -> PageCursor.decode(cursor));
+        assertEquals(400, error.getCode());
+    }
+
+    private static String base64(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,259 @@
+package com.mifazhan.support.persist;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mifazhan.config.MessagePersistProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.event.MessagesPersistedEvent;
+import com.mifazhan.service.MessageService;
+import com.mifazhan.service.SessionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageWriteBehindTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MessageService messageService = mock(MessageService.class);
+    private final SessionService sessionService = mock(SessionService.class);
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MessageWriteBehind writeBehind;
+
+    private MessageWriteBehind create(int queueCapacity) {
+        return create(queueCapacity, 300_000);
+    }
+
+    private MessageWriteBehind create(int queueCapacity, long retryWindowMs) {
+        MessagePersistProperties properties = new MessagePersistProperties();
+        // 关闭定时刷盘的干扰，由测试显式调用 flush
+        properties.setFlushIntervalMs(3_600_000);
+        properties.setBatchSize(100);
+        properties.setQueueCapacity(queueCapacity);
+        properties.setMaxRetries(2);
+        properties.setRetryWindowMs(retryWindowMs);
+        properties.setFlushOnShutdown(false);
+        properties.setDeadLetterFile(tempDir.resolve("dead-letter.jsonl").toString());
+        writeBehind = new MessageWriteBehind(properties, messageService, sessionService, eventPublisher,
+                new ObjectMapper().findAndRegisterModules(), meterRegistry);
+        return writeBehind;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        writeBehind.destroy();
+    }
+
+    @Test
+    public void testFlushWritesQueuedMessagesInOneBatch() {
+        MessageWriteBehind writeBehind = create(100);
+        Message first = message("a");
+        Message second = message("b");
+        writeBehind.enqueue(first);
+        writeBehind.enqueue(second);
+
+        verify(messageService, never()).saveBatch(anyCollection(), anyInt());
+        writeBehind.flush();
+
+        ArgumentCaptor<Collection<Message>> batch = captor();
+        verify(messageService).saveBatch(batch.capture(), anyInt());
+        assertEquals(List.of(first, second), new ArrayList<>(batch.getValue()));
+        verify(eventPublisher).publishEvent(any(MessagesPersistedEvent.class));
+        assertEquals(2.0, meterRegistry.counter("chat.persist.flushed.messages").count());
+    }
+
+    @Test
+    public void testTouchesOfSameSessionMergeToLatest() {
+        MessageWriteBehind writeBehind = create(100);
+        LocalDateTime base = LocalDateTime.of(2026, 1, 1, 12, 0);
+        writeBehind.touchSession(1L, base.plusSeconds(1));
+        writeBehind.touchSession(1L, base.plusSeconds(5));
+        writeBehind.touchSession(1L, base);
+        writeBehind.touchSession(2L, base);
+
+        writeBehind.flush();
+
+        ArgumentCaptor<Collection<Session>> touches = captor();
+        verify(sessionService).updateBatchById(touches.capture(), anyInt());
+        assertEquals(2, touches.getValue().size());
+        Session first = touches.getValue().stream().filter(s -> s.getSessionId() == 1L).findFirst().orElseThrow();
+        assertEquals(base.plusSeconds(5), first.getUpdateTime());
+    }
+
+    @Test
+    public void testFailedTouchesAreRetriedOnNextFlush() {
+        MessageWriteBehind writeBehind = create(100);
+        LocalDateTime base = LocalDateTime.of(2026, 1, 1, 12, 0);
+        List<LocalDateTime> written = new ArrayList<>();
+        when(sessionService.updateBatchById(anyCollection(), anyInt()))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenAnswer(invocation -> {
+                    Collection<Session> touches = invocation.getArgument(0);
+                    touches.forEach(touch -> written.add(touch.getUpdateTime()));
+                    return true;
+                });
+        writeBehind.touchSession(1L, base.plusSeconds(5));
+
+        try {
+            writeBehind.flush();
+        } catch (IllegalStateException expected) {
+            // 第一次刷盘失败
+        }
+        // 失败期间更早的刷新不覆盖放回的时间
+        writeBehind.touchSession(1L, base);
+        writeBehind.flush();
+
+        assertEquals(List.of(base.plusSeconds(5)), written);
+    }
+
+    @Test
+    public void testFullQueueFallsBackToSynchronousSave() {
+        MessageWriteBehind writeBehind = create(1);
+        Message queued = message("a");
+        Message overflow = message("b");
+        writeBehind.enqueue(queued);
+        writeBehind.enqueue(overflow);
+
+        verify(messageService).save(overflow);
+        verify(messageService, never()).save(queued);
+        assertEquals(1.0, meterRegistry.counter("chat.persist.sync.fallback").count());
+    }
+
+    @Test
+    public void testFailedRowIsRetriedThenDeadLettered() throws Exception {
+        MessageWriteBehind writeBehind = create(100);
+        Message good = message("good");
+        Message bad = message("bad");
+        doThrow(new IllegalStateException("batch failed")).when(messageService).saveBatch(anyCollection(), anyInt());
+        when(messageService.save(argThat(m -> m == bad))).thenThrow(new IllegalStateException("row failed"));
+        doAnswer(invocation -> true).when(messageService).save(argThat(m -> m == good));
+        writeBehind.enqueue(good);
+        writeBehind.enqueue(bad);
+
+        writeBehind.flush();
+        verify(messageService, times(1)).save(good);
+        verify(messageService, times(1)).save(bad);
+        Path deadLetter = tempDir.resolve("dead-letter.jsonl");
+        assertFalse(Files.exists(deadLetter));
+
+        // maxRetries = 2：随后两次刷盘各重试一次，第二次重试仍失败时写入死信文件
+        writeBehind.flush();
+        assertFalse(Files.exists(deadLetter));
+        writeBehind.flush();
+
+        verify(messageService, times(3)).save(bad);
+        verify(messageService, times(1)).save(good);
+        assertTrue(Files.readString(deadLetter).contains("\"content\":\"bad\""));
+        assertEquals(1.0, meterRegistry.counter("chat.persist.dead.letters").count());
+
+        writeBehind.flush();
+        verify(messageService, times(3)).save(bad);
+    }
+
+    @Test
+    public void testBatchIsKeptWhileDatabaseIsDown() {
+        MessageWriteBehind writeBehind = create(100);
+        Message first = message("a");
+        Message second = message("b");
+        doThrow(new DataAccessResourceFailureException("db down"))
+                .doThrow(new DataAccessResourceFailureException("db down"))
+                .doThrow(new DataAccessResourceFailureException("db down"))
+                .doThrow(new DataAccessResourceFailureException("db down"))
+                .doAnswer(invocation -> true)
+                .when(messageService).saveBatch(anyCollection(), anyInt());
+        writeBehind.enqueue(first);
+        writeBehind.enqueue(second);
+
+        // 超过 maxRetries 次的刷盘都因数据库不可用失败，不逐条重试，也不写入死信文件
+        for (int i = 0; i < 4; i++) {
+            writeBehind.flush();
+        }
+        verify(messageService, never()).save(any(Message.class));
+        assertFalse(Files.exists(tempDir.resolve("dead-letter.jsonl")));
+        assertEquals(2.0, meterRegistry.get("chat.persist.retry.messages").gauge().value());
+
+        writeBehind.flush();
+
+        ArgumentCaptor<Collection<Message>> batch = captor();
+        verify(messageService, times(5)).saveBatch(batch.capture(), anyInt());
+        assertEquals(List.of(first, second), new ArrayList<>(batch.getValue()));
+        assertEquals(0.0, meterRegistry.get("chat.persist.retry.messages").gauge().value());
+        assertEquals(0.0, meterRegistry.counter("chat.persist.dead.letters").count());
+    }
+
+    @Test
+    public void testDeadLetteredAfterRetryWindow() throws Exception {
+        MessageWriteBehind writeBehind = create(100, 50);
+        doThrow(new DataAccessResourceFailureException("db down")).when(messageService).saveBatch(anyCollection(), anyInt());
+        writeBehind.enqueue(message("a"));
+
+        writeBehind.flush();
+        assertFalse(Files.exists(tempDir.resolve("dead-letter.jsonl")));
+        Thread.sleep(100);
+        writeBehind.flush();
+
+        assertEquals(1, Files.readAllLines(tempDir.resolve("dead-letter.jsonl")).size());
+        assertEquals(1.0, meterRegistry.counter("chat.persist.dead.letters").count());
+    }
+
+    @Test
+    public void testUnpersistedMessagesAreTrackedUntilSaved() {
+        MessageWriteBehind writeBehind = create(100);
+        doThrow(new DataAccessResourceFailureException("db down"))
+                .doAnswer(invocation -> true)
+                .when(messageService).saveBatch(anyCollection(), anyInt());
+        Message first = message("a");
+        Message second = message("b");
+        writeBehind.enqueue(first);
+        writeBehind.enqueue(second);
+        assertEquals(List.of(first, second), writeBehind.unpersisted(1L));
+
+        // 等待重试期间仍视为未落库
+        writeBehind.flush();
+        assertEquals(List.of(first, second), writeBehind.unpersisted(1L));
+
+        writeBehind.flush();
+        assertTrue(writeBehind.unpersisted(1L).isEmpty());
+    }
+
+    private static Message message(String content) {
+        Message message = new Message();
+        message.setSessionId(1L);
+        message.setRole("user");
+        message.setContent(content);
+        return message;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> ArgumentCaptor<Collection<T>> captor() {
+        return (ArgumentCaptor) ArgumentCaptor.forClass(Collection.class);
+    }
+}
@@ -0,0 +1,151 @@
+package com.mifazhan.support.persist;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mifazhan.config.MessagePersistProperties;
+import com.mifazhan.config.ReplyJournalProperties;
+import com.mifazhan.domain.entity.Message;
+import com.mifazhan.domain.entity.Session;
+import com.mifazhan.domain.event.MessagesPersistedEvent;
+import com.mifazhan.mapper.SessionMapper;
+import com.mifazhan.service.MessageService;
+import com.mifazhan.service.SessionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReplyJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MessageWriteBehind messageWriteBehind = mock(MessageWriteBehind.class);
+    private final SessionMapper sessionMapper = mock(SessionMapper.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ReplyJournal journal;
+
+    private ReplyJournal create() {
+        return create(messageWriteBehind, 2);
+    }
+
+    private ReplyJournal create(MessageWriteBehind messageWriteBehind, int maxResubmits) {
+        ReplyJournalProperties properties = new ReplyJournalProperties();
+        properties.setEnabled(true);
+        properties.setDir(tempDir.resolve("journal").toString());
+        properties.setSegmentSizeBytes(4096);
+        properties.setForceIntervalMs(0);
+        // 写入后立即视为超时，每秒检查一次
+        properties.setRetryAfterSeconds(0);
+        properties.setMaxResubmits(maxResubmits);
+        journal = new ReplyJournal(properties, messageWriteBehind, sessionMapper, meterRegistry);
+        return journal;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        journal.destroy();
+    }
+
+    @Test
+    public void testUnackedReplyIsDroppedAfterMaxResubmits() {
+        when(sessionMapper.selectById(1L)).thenReturn(new Session());
+        ReplyJournal journal = create();
+        Message reply = reply("hello");
+        journal.append(reply);
+        assertNotNull(reply.getJournalId());
+
+        ArgumentCaptor<Message> deadLetter = ArgumentCaptor.forClass(Message.class);
+        verify(messageWriteBehind, timeout(10_000)).deadLetterExternal(deadLetter.capture());
+
+        verify(messageWriteBehind, times(2)).enqueue(any(Message.class));
+        assertEquals("hello", deadLetter.getValue().getContent());
+        assertEquals(reply.getJournalId(), deadLetter.getValue().getJournalId());
+        assertEquals(1.0, meterRegistry.counter("chat.journal.dropped").count());
+        assertEquals(0.0, meterRegistry.get("chat.journal.pending").gauge().value());
+    }
+
+    @Test
+    public void testAckedReplyIsNotResubmitted() throws Exception {
+        ReplyJournal journal = create();
+        Message reply = reply("hello");
+        journal.append(reply);
+        journal.onMessagesPersisted(new MessagesPersistedEvent(List.of(reply)));
+
+        Thread.sleep(1500);
+
+        verify(messageWriteBehind, never()).enqueue(any(Message.class));
+        verify(messageWriteBehind, never()).deadLetterExternal(any(Message.class));
+        assertEquals(0.0, meterRegistry.get("chat.journal.pending").gauge().value());
+    }
+
+    @Test
+    public void testReplyIsDeadLetteredOnceWhileDatabaseStaysDown() throws Exception {
+        when(sessionMapper.selectById(1L)).thenReturn(new Session());
+        MessageService messageService = mock(MessageService.class);
+        doThrow(new DataAccessResourceFailureException("db down")).when(messageService).saveBatch(anyCollection(), anyInt());
+        Path deadLetter = tempDir.resolve("dead-letter.jsonl");
+        MessagePersistProperties persistProperties = new MessagePersistProperties();
+        persistProperties.setFlushIntervalMs(50);
+        persistProperties.setMaxBackoffMs(100);
+        persistProperties.setMaxRetries(1);
+        persistProperties.setFlushOnShutdown(false);
+        persistProperties.setDeadLetterFile(deadLetter.toString());
+        MessageWriteBehind writeBehind = new MessageWriteBehind(persistProperties, messageService, mock(SessionService.class),
+                mock(ApplicationEventPublisher.class), new ObjectMapper().findAndRegisterModules(), meterRegistry);
+        try {
+            // 提交失败后重新提交一次仍失败，再下一次检查时转存死信文件
+            ReplyJournal journal = create(writeBehind, 1);
+            Message reply = reply("hello");
+            journal.append(reply);
+            writeBehind.enqueue(reply);
+
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (meterRegistry.counter("chat.journal.dropped").count() < 1) {
+                if (System.nanoTime() > deadline) {
+                    fail("等待转存死信超时");
+                }
+                Thread.sleep(50);
+            }
+            // 再经过几次刷盘，写入端也不会另外转存
+            Thread.sleep(500);
+
+            verify(messageService, times(2)).saveBatch(anyCollection(), anyInt());
+            assertEquals(1, Files.readAllLines(deadLetter).size());
+            assertEquals(0.0, meterRegistry.counter("chat.persist.dead.letters").count());
+            assertEquals(0.0, meterRegistry.get("chat.persist.retry.messages").gauge().value());
+        } finally {
+            writeBehind.destroy();
+        }
+    }
+
+    private static Message reply(String content) {
+        Message message = new Message();
+        message.setSessionId(1L);
+        message.setRole("assistant");
+        message.setContent(content);
+        message.setCreationTime(LocalDateTime.now());
+        return message;
+    }
+}
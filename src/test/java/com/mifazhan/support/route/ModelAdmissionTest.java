@@ -0,0 +1,165 @@
+package com.mifazhan.support.route;
+
+import com.mifazhan.config.AdmissionProperties;
+import com.mifazhan.exception.BusinessException;
+import com.mifazhan.support.context.TokenEstimator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ModelAdmissionTest {
+
+    private static final String ROUTE = "a";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final Map<String, Throwable> errors = new ConcurrentHashMap<>();
+    private ModelAdmission admission;
+
+    /**
+     * 时钟由测试推进，定时唤醒由测试直接调用
+     */
+    private ModelAdmission.Limiter create(long requestsPerMinute, long tokensPerMinute, long maxWaitMs) {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setEnabled(true);
+        properties.setExpectedReplyTokens(512);
+        properties.setMaxWaitMs(maxWaitMs);
+        admission = new ModelAdmission(properties, meterRegistry, clock::get);
+        return admission.limiter(ROUTE, requestsPerMinute, tokensPerMinute);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        admission.destroy();
+    }
+
+    @Test
+    public void testQueuedRequestAdmittedAfterRefill() {
+        ModelAdmission.Limiter limiter = create(2, 0, 0);
+        submit(limiter, 1L, "a");
+        submit(limiter, 1L, "b");
+        submit(limiter, 1L, "c");
+        assertEquals(List.of("a", "b"), started);
+        assertEquals(1.0, queued());
+
+        // 每 30 秒补充一个请求配额
+        advanceSeconds(29);
+        limiter.wakeup();
+        assertEquals(List.of("a", "b"), started);
+
+        advanceSeconds(1);
+        limiter.wakeup();
+        assertEquals(List.of("a", "b", "c"), started);
+        assertEquals(0.0, queued());
+        assertEquals(3.0, meterRegistry.counter("chat.admission.admitted").count());
+    }
+
+    @Test
+    public void testRejectedWhenExpectedWaitExceedsDeadline() {
+        ModelAdmission.Limiter limiter = create(1, 0, 10_000);
+        submit(limiter, 1L, "a");
+        submit(limiter, 2L, "b");
+
+        // 下一个请求配额要 60 秒后才补充，超过最长等待时间，直接拒绝而不排队
+        assertEquals(List.of("a"), started);
+        BusinessException error = assertInstanceOf(BusinessException.class, errors.get("b"));
+        assertEquals(429, error.getCode());
+        assertEquals(1.0, meterRegistry.counter("chat.admission.rejected", "reason", "deadline").count());
+        assertEquals(0.0, queued());
+    }
+
+    @Test
+    public void testCallersAdmittedRoundRobin() {
+        ModelAdmission.Limiter limiter = create(1, 0, 0);
+        submit(limiter, 1L, "a1");
+        submit(limiter, 1L, "a2");
+        submit(limiter, 1L, "a3");
+        submit(limiter, 2L, "b1");
+        assertEquals(List.of("a1"), started);
+
+        // 会话 1 先排队，放行 a2 后轮到会话 2，b1 不必等 a3
+        for (int i = 0; i < 3; i++) {
+            advanceSeconds(60);
+            limiter.wakeup();
+        }
+        assertEquals(List.of("a1", "a2", "b1", "a3"), started);
+    }
+
+    @Test
+    public void testWithdrawRefundsGrantedAndDequeuesWaiting() {
+        ModelAdmission.Limiter limiter = create(1, 10_000, 0);
+        ModelAdmission.Waiter granted = new ModelAdmission.Waiter(1L, 1_000);
+        ModelAdmission.Waiter waiting = new ModelAdmission.Waiter(2L, 1_000);
+        limiter.acquire(granted);
+        limiter.acquire(waiting);
+        assertEquals(0.0, available("requests"));
+        assertEquals(9_000.0, available("tokens"));
+        assertEquals(1.0, queued());
+
+        limiter.withdraw(waiting);
+        assertEquals(0.0, queued());
+        assertEquals(9_000.0, available("tokens"));
+
+        // 已放行但没有开始调用，退还两种配额
+        limiter.withdraw(granted);
+        assertEquals(1.0, available("requests"));
+        assertEquals(10_000.0, available("tokens"));
+    }
+
+    @Test
+    public void testSettleReconcilesReservedTokens() {
+        ModelAdmission.Limiter limiter = create(0, 10_000, 0);
+        Sinks.Many<String> reply = Sinks.many().unicast().onBackpressureBuffer();
+        limiter.admit(1L, 100, reply.asFlux()).subscribe();
+
+        // 调用期间按提示词加预留的回复 token 数扣减
+        assertEquals(10_000.0 - 100 - 512, available("tokens"));
+
+        reply.tryEmitNext("你好");
+        reply.tryEmitNext("世界");
+        reply.tryEmitComplete();
+
+        // 结束后按实际回复长度结算，多预留的部分退还
+        assertEquals(10_000.0 - 100 - TokenEstimator.estimate("你好世界"), available("tokens"));
+    }
+
+    /**
+     * 申请配额后调用模型，调用在获得配额后登记为已开始且不会结束
+     */
+    private void submit(ModelAdmission.Limiter limiter, Long caller, String name) {
+        Flux<String> call = Flux.defer(() -> {
+            started.add(name);
+            return Flux.never();
+        });
+        limiter.admit(caller, 0, call).subscribe(chunk -> {
+        }, error -> errors.put(name, error));
+    }
+
+    private void advanceSeconds(long seconds) {
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private double queued() {
+        return meterRegistry.get("chat.admission.queued").tag("route", ROUTE).gauge().value();
+    }
+
+    private double available(String resource) {
+        double value = meterRegistry.get("chat.admission.available").tags("route", ROUTE, "resource", resource).gauge().value();
+        assertTrue(value <= meterRegistry.get("chat.admission.limit").tags("route", ROUTE, "resource", resource).gauge().value());
+        return value;
+    }
+}
@@ -0,0 +1,108 @@
+package com.mifazhan.support.route;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ModelRouteTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * 连续失败 2 次熔断，熔断期为 0，打开后立即可以探测
+     */
+    private ModelRoute openRoute() {
+        ModelRoute route = new ModelRoute("a", "model-a", null, null, true, 0.3, 2, 0, meterRegistry);
+        route.started();
+        route.started();
+        route.failed(false, null);
+        route.failed(false, null);
+        assertFalse(route.closed());
+        return route;
+    }
+
+    @Test
+    public void testOnlyOneProbeAtATime() {
+        ModelRoute route = openRoute();
+        ModelRoute.Probe probe = route.tryProbe(System.nanoTime());
+
+        assertNotNull(probe);
+        assertNull(route.tryProbe(System.nanoTime()));
+    }
+
+    @Test
+    public void testOnlyProbeSuccessClosesBreaker() {
+        ModelRoute route = openRoute();
+        // 熔断前已在进行中的普通请求
+        route.started();
+        ModelRoute.Probe probe = route.tryProbe(System.nanoTime());
+        route.started();
+
+        route.succeeded(null);
+        assertFalse(route.closed());
+
+        route.succeeded(probe);
+        assertTrue(route.closed());
+    }
+
+    @Test
+    public void testOrdinaryFailureDoesNotEndProbe() {
+        ModelRoute route = openRoute();
+        route.started();
+        ModelRoute.Probe probe = route.tryProbe(System.nanoTime());
+        route.started();
+
+        // 普通请求失败未达到阈值，不影响进行中的探测
+        route.failed(false, null);
+        assertNull(route.tryProbe(System.nanoTime()));
+
+        route.failed(false, probe);
+        assertFalse(route.closed());
+        assertNotNull(route.tryProbe(System.nanoTime()));
+    }
+
+    @Test
+    public void testCancelledProbeAllowsNextProbe() {
+        ModelRoute route = openRoute();
+        ModelRoute.Probe probe = route.tryProbe(System.nanoTime());
+        route.started();
+
+        route.cancelled(probe);
+
+        assertFalse(route.closed());
+        ModelRoute.Probe next = route.tryProbe(System.nanoTime());
+        assertNotNull(next);
+        // 已失效的凭据不能结束新的探测
+        route.started();
+        route.succeeded(probe);
+        assertFalse(route.closed());
+        assertNull(route.tryProbe(System.nanoTime()));
+    }
+
+    @Test
+    public void testLateFailuresDoNotRetripOpenRoute() {
+        // 熔断前已发出的两个请求
+        ModelRoute route = openRoute();
+        route.started();
+        route.started();
+        long afterTrip = System.nanoTime();
+
+        route.failed(true, null);
+        // 熔断期没有被推迟，期满后照常探测
+        ModelRoute.Probe probe = route.tryProbe(afterTrip);
+        assertNotNull(probe);
+        route.started();
+
+        // 探测期间到达的限流失败不重新打开熔断，探测成功即关闭
+        route.failed(true, null);
+        route.succeeded(probe);
+
+        assertTrue(route.closed());
+        assertEquals(1.0, meterRegistry.get("chat.route.circuit.trips").counter().count());
+    }
+}
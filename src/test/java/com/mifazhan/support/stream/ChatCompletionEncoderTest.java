@@ -0,0 +1,58 @@
+package com.mifazhan.support.stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChatCompletionEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testEncodeRoundTrip() throws Exception {
+        ChatCompletionEncoder encoder = new ChatCompletionEncoder("glm-4.5-flash");
+        String content = "你好\"世界\"\\\n\r\t\b\f\u0000\u001f 结束";
+
+        JsonNode chunk = objectMapper.readTree(encoder.encode(content));
+
+        assertEquals(encoder.id(), chunk.get("id").asText());
+        assertEquals("chat.completion.chunk", chunk.get("object").asText());
+        assertEquals("glm-4.5-flash", chunk.get("model").asText());
+        assertEquals(content, chunk.at("/choices/0/delta/content").asText());
+        assertTrue(chunk.at("/choices/0/finish_reason").isNull());
+    }
+
+    @Test
+    public void testIdStableAcrossChunks() throws Exception {
+        ChatCompletionEncoder encoder = new ChatCompletionEncoder("glm-4.5-flash");
+
+        JsonNode first = objectMapper.readTree(encoder.encode("a"));
+        JsonNode second = objectMapper.readTree(encoder.encode("b"));
+
+        assertEquals(first.get("id").asText(), second.get("id").asText());
+        assertEquals(first.get("created").asLong(), second.get("created").asLong());
+        assertEquals("b", second.at("/choices/0/delta/content").asText());
+    }
+
+    @Test
+    public void testEncodeFinish() throws Exception {
+        ChatCompletionEncoder encoder = new ChatCompletionEncoder("glm-4.5-flash");
+
+        JsonNode chunk = objectMapper.readTree(encoder.encodeFinish("stop"));
+
+        assertEquals(encoder.id(), chunk.get("id").asText());
+        assertTrue(chunk.at("/choices/0/delta").isEmpty());
+        assertEquals("stop", chunk.at("/choices/0/finish_reason").asText());
+    }
+
+    @Test
+    public void testEncodeError() throws Exception {
+        JsonNode error = objectMapper.readTree(ChatCompletionEncoder.encodeError("bad \"input\"\n", "invalid_request_error"));
+
+        assertEquals("bad \"input\"\n", error.at("/error/message").asText());
+        assertEquals("invalid_request_error", error.at("/error/type").asText());
+    }
+}
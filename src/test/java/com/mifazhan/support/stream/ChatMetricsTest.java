@@ -0,0 +1,56 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ModelRoutingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class ChatMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ChatMetrics create() {
+        ModelRoutingProperties.Route route = new ModelRoutingProperties.Route();
+        route.setName("backup");
+        route.setModel("backup-model");
+        ModelRoutingProperties properties = new ModelRoutingProperties();
+        properties.setEnabled(true);
+        properties.setRoutes(List.of(route));
+        return new ChatMetrics(meterRegistry, properties, "default-model");
+    }
+
+    @Test
+    public void testStreamMetersTaggedWithRoutedModel() {
+        ChatMetrics metrics = create();
+        // 各线路的模型在启动时注册
+        assertNotNull(meterRegistry.find("chat.stream.first.chunk").tag("model", "backup-model").timer());
+
+        ChatMetrics.StreamRecorder recorder = metrics.startStream();
+        recorder.model("default-model");
+        // 首个片段之前切换线路，以最终使用的线路为准
+        recorder.model("backup-model");
+        recorder.onChunk("你好");
+        recorder.finish(ChatMetrics.Outcome.SUCCESS);
+
+        assertEquals(1, meterRegistry.get("chat.stream.first.chunk").tag("model", "backup-model").timer().count());
+        assertEquals(2.0, meterRegistry.get("chat.stream.chars").tag("model", "backup-model").counter().count());
+        assertEquals(1, meterRegistry.get("chat.stream.duration").tags("model", "backup-model", "outcome", "success").timer().count());
+        assertEquals(0, meterRegistry.get("chat.stream.duration").tags("model", "default-model", "outcome", "success").timer().count());
+    }
+
+    @Test
+    public void testReplayWithoutModelCallTaggedNone() {
+        ChatMetrics metrics = create();
+        ChatMetrics.StreamRecorder recorder = metrics.startStream();
+        recorder.onChunk("缓存");
+        recorder.finish(ChatMetrics.Outcome.SUCCESS);
+
+        assertEquals(1, meterRegistry.get("chat.stream.duration").tags("model", ChatMetrics.NO_MODEL, "outcome", "success").timer().count());
+        // 会话处理和入库耗时与模型无关，不带 model 标签
+        assertEquals(0, meterRegistry.get("chat.session.prepare").timer().getId().getTags().size());
+    }
+}
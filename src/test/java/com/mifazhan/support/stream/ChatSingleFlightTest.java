@@ -0,0 +1,68 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ChatSingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ChatSingleFlight create() {
+        ChatStreamProperties properties = new ChatStreamProperties();
+        properties.getSingleFlight().setEnabled(true);
+        return new ChatSingleFlight(properties, meterRegistry, "default-model");
+    }
+
+    @Test
+    public void testJoinedRequestReceivesRoutedModel() {
+        ChatSingleFlight singleFlight = create();
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger calls = new AtomicInteger();
+        List<String> leader = new CopyOnWriteArrayList<>();
+        List<String> joiner = new CopyOnWriteArrayList<>();
+
+        singleFlight.join(List.of(), "hello", model -> leader.add("model:" + model), routedModel -> {
+            calls.incrementAndGet();
+            // 与路由一致：首个片段发出之前报告模型
+            return upstream.asFlux().doOnSubscribe(subscription -> routedModel.accept("route-b"));
+        }).subscribe(leader::add);
+        upstream.tryEmitNext("a");
+
+        singleFlight.join(List.of(), "hello", model -> joiner.add("model:" + model), routedModel -> {
+            calls.incrementAndGet();
+            return Flux.just("unexpected");
+        }).subscribe(joiner::add);
+        upstream.tryEmitNext("b");
+        upstream.tryEmitComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(List.of("model:route-b", "a", "b"), leader);
+        assertEquals(List.of("model:route-b", "a", "b"), joiner);
+        assertEquals(1.0, meterRegistry.counter("chat.singleflight.shared", "model", "default-model").count());
+    }
+
+    @Test
+    public void testFinishedCallIsNotShared() {
+        ChatSingleFlight singleFlight = create();
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            singleFlight.join(List.of(), "hello", model -> {
+            }, routedModel -> {
+                calls.incrementAndGet();
+                return Flux.just("a");
+            }).blockLast();
+        }
+
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,199 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplayableStreamTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private StreamReplayRegistry registry;
+
+    private StreamReplayRegistry create(int maxEventsPerStream, long graceMs) {
+        ChatStreamProperties properties = new ChatStreamProperties();
+        properties.getReplay().setMaxEventsPerStream(maxEventsPerStream);
+        properties.getReplay().setGraceMs(graceMs);
+        registry = new StreamReplayRegistry(properties, meterRegistry);
+        return registry;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    public void testResumeReplaysEventsAfterLastEventId() {
+        StreamReplayRegistry registry = create(16, 60_000);
+        ReplayableStream stream = registry.open();
+        RecordingListener first = new RecordingListener();
+        stream.subscribe(0, first);
+        stream.append("a");
+        stream.append("b");
+        stream.append("c");
+        stream.unsubscribe(first);
+
+        RecordingListener second = new RecordingListener();
+        assertEquals(stream, registry.resume(stream.id() + "-1", second));
+        stream.complete("[DONE]");
+
+        assertEquals(List.of(stream.id() + "-2:b", stream.id() + "-3:c", stream.id() + "-4:[DONE]!"), second.received);
+        assertEquals(1.0, meterRegistry.counter("chat.stream.replay.resumed").count());
+        assertEquals(2.0, meterRegistry.counter("chat.stream.replay.events").count());
+    }
+
+    @Test
+    public void testResumeFinishedStreamEndsWithLastEvent() {
+        StreamReplayRegistry registry = create(16, 60_000);
+        ReplayableStream stream = registry.open();
+        stream.subscribe(0, new RecordingListener());
+        stream.append("a");
+        stream.complete("[DONE]");
+
+        RecordingListener listener = new RecordingListener();
+        assertNotNull(registry.resume(stream.id() + "-1", listener));
+
+        assertEquals(List.of(stream.id() + "-2:[DONE]!"), listener.received);
+        assertTrue(stream.isFinished());
+    }
+
+    @Test
+    public void testResumeFailsWhenEventsEvicted() {
+        StreamReplayRegistry registry = create(2, 60_000);
+        ReplayableStream stream = registry.open();
+        stream.subscribe(0, new RecordingListener());
+        stream.append("a");
+        stream.append("b");
+        stream.append("c");
+
+        // 缓冲区只剩事件 2、3，从头续传所需的事件 1 已被淘汰
+        RecordingListener listener = new RecordingListener();
+        assertNull(registry.resume(stream.id() + "-0", listener));
+        assertNull(registry.resume("unknown-1", listener));
+        assertNull(registry.resume(stream.id() + "-x", listener));
+        assertTrue(listener.received.isEmpty());
+        assertEquals(3.0, meterRegistry.counter("chat.stream.replay.expired").count());
+
+        assertNotNull(registry.resume(stream.id() + "-1", listener));
+        assertEquals(List.of(stream.id() + "-2:b", stream.id() + "-3:c"), listener.received);
+    }
+
+    @Test
+    public void testAbandonedStreamCancelledAfterGracePeriod() throws Exception {
+        StreamReplayRegistry registry = create(16, 100);
+        ReplayableStream stream = registry.open();
+        Disposable upstream = Disposables.single();
+        stream.setUpstream(upstream);
+        CountDownLatch terminated = new CountDownLatch(1);
+        stream.onTermination(terminated::countDown);
+        RecordingListener listener = new RecordingListener();
+        stream.subscribe(0, listener);
+        stream.append("a");
+
+        stream.unsubscribe(listener);
+        assertFalse(upstream.isDisposed());
+
+        assertTrue(terminated.await(5, TimeUnit.SECONDS));
+        assertTrue(upstream.isDisposed());
+        assertTrue(stream.isFinished());
+        assertNull(registry.resume(stream.id() + "-1", new RecordingListener()));
+    }
+
+    @Test
+    public void testReconnectWithinGracePeriodKeepsUpstream() throws Exception {
+        StreamReplayRegistry registry = create(16, 100);
+        ReplayableStream stream = registry.open();
+        Disposable upstream = Disposables.single();
+        stream.setUpstream(upstream);
+        RecordingListener first = new RecordingListener();
+        stream.subscribe(0, first);
+        stream.append("a");
+        stream.unsubscribe(first);
+
+        assertNotNull(registry.resume(stream.id() + "-1", new RecordingListener()));
+        Thread.sleep(300);
+
+        assertFalse(upstream.isDisposed());
+        assertFalse(stream.isFinished());
+    }
+
+    @Test
+    public void testFailedListenerIsRemoved() {
+        StreamReplayRegistry registry = create(16, 60_000);
+        ReplayableStream stream = registry.open();
+        AtomicInteger calls = new AtomicInteger();
+        stream.subscribe(0, (eventId, data, last) -> {
+            calls.incrementAndGet();
+            return false;
+        });
+        RecordingListener healthy = new RecordingListener();
+        stream.subscribe(0, healthy);
+
+        stream.append("a");
+        stream.append("b");
+
+        assertEquals(1, calls.get());
+        assertEquals(2, healthy.received.size());
+    }
+
+    @Test
+    public void testSlowListenerDoesNotBlockAppend() throws Exception {
+        StreamReplayRegistry registry = create(16, 60_000);
+        ReplayableStream stream = registry.open();
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        stream.subscribe(0, (eventId, data, last) -> {
+            received.add(data);
+            if ("a".equals(data)) {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        });
+
+        CompletableFuture<Void> slowSend = CompletableFuture.runAsync(() -> stream.append("a"));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        // 发送 a 的线程阻塞在连接写入上，不持有流的锁，后续事件照常入队
+        CompletableFuture.runAsync(() -> stream.append("b")).get(1, TimeUnit.SECONDS);
+        assertTrue(stream.bytes() > 0);
+        release.countDown();
+        slowSend.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("a", "b"), received);
+    }
+
+    /**
+     * 按 "id:data" 记录收到的事件，最后一个事件以 ! 结尾
+     */
+    private static final class RecordingListener implements ReplayableStream.Listener {
+
+        private final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Override
+        public boolean onEvent(String eventId, String data, boolean last) {
+            received.add(eventId + ":" + data + (last ? "!" : ""));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.mifazhan.support.stream;
+
+import com.mifazhan.config.ChatStreamProperties;
+import com.mifazhan.exception.BusinessException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class SessionTurnSchedulerTest {
+
+    private static final Long SESSION_ID = 1L;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final List<String> cancelled = new CopyOnWriteArrayList<>();
+    private final List<String> completed = new CopyOnWriteArrayList<>();
+    private final Map<String, Throwable> errors = new ConcurrentHashMap<>();
+    private final Map<String, Sinks.Many<String>> sinks = new ConcurrentHashMap<>();
+
+    private SessionTurnScheduler create(ChatStreamProperties.TurnPolicy policy, int maxQueued, long queueTimeoutMs) {
+        ChatStreamProperties properties = new ChatStreamProperties();
+        properties.getTurn().setPolicy(policy);
+        properties.getTurn().setMaxQueued(maxQueued);
+        properties.getTurn().setQueueTimeoutMs(queueTimeoutMs);
+        return new SessionTurnScheduler(properties, meterRegistry);
+    }
+
+    @Test
+    public void testQueuedTurnsRunInArrivalOrder() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.QUEUE, 4, 0);
+        submit(scheduler, "a");
+        submit(scheduler, "b");
+        submit(scheduler, "c");
+
+        assertEquals(List.of("a"), started);
+        assertEquals(1.0, sessions());
+
+        finish("a");
+        await(() -> started.size() == 2);
+        finish("b");
+        await(() -> started.size() == 3);
+        finish("c");
+
+        assertEquals(List.of("a", "b", "c"), started);
+        await(() -> completed.size() == 3);
+        assertEquals(0.0, sessions());
+    }
+
+    @Test
+    public void testDifferentSessionsRunConcurrently() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.QUEUE, 4, 0);
+        submit(scheduler, 1L, "a");
+        submit(scheduler, 2L, "b");
+        submit(scheduler, null, "c");
+
+        assertEquals(List.of("a", "b", "c"), started);
+    }
+
+    @Test
+    public void testRejectPolicyReturns409() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.REJECT, 4, 0);
+        submit(scheduler, "a");
+        submit(scheduler, "b");
+
+        assertEquals(List.of("a"), started);
+        assertRejected("b", 409);
+        assertEquals(1.0, meterRegistry.counter("chat.turn.rejected").count());
+
+        finish("a");
+        await(() -> sessions() == 0.0);
+        submit(scheduler, "c");
+        assertEquals(List.of("a", "c"), started);
+    }
+
+    @Test
+    public void testMaxQueuedReturns429() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.QUEUE, 1, 0);
+        submit(scheduler, "a");
+        submit(scheduler, "b");
+        submit(scheduler, "c");
+
+        assertRejected("c", 429);
+        assertFalse(errors.containsKey("b"));
+
+        finish("a");
+        await(() -> started.contains("b"));
+        assertFalse(started.contains("c"));
+    }
+
+    @Test
+    public void testQueueTimeoutReturns429() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.QUEUE, 4, 100);
+        submit(scheduler, "a");
+        submit(scheduler, "b");
+
+        await(() -> errors.containsKey("b"));
+        assertRejected("b", 429);
+        assertEquals(1.0, meterRegistry.counter("chat.turn.rejected").count());
+
+        // 超时的轮次已移出队列，上一轮结束后会话即空闲
+        finish("a");
+        await(() -> sessions() == 0.0);
+        assertEquals(List.of("a"), started);
+    }
+
+    @Test
+    public void testCancelPreviousEndsRunningTurn() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.CANCEL_PREVIOUS, 4, 0);
+        submit(scheduler, "a");
+        sinks.get("a").tryEmitNext("partial");
+        submit(scheduler, "b");
+
+        assertRejected("a", 409);
+        assertEquals(List.of("a"), cancelled);
+        assertEquals(1.0, meterRegistry.counter("chat.turn.preempted").count());
+
+        await(() -> started.contains("b"));
+        finish("b");
+        await(() -> completed.contains("b"));
+        assertEquals(0.0, sessions());
+    }
+
+    @Test
+    public void testCancelPreviousKeepsOnlyLatestTurn() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.CANCEL_PREVIOUS, 4, 0);
+        submit(scheduler, "a");
+        submit(scheduler, "b");
+        submit(scheduler, "c");
+
+        // b 可能已开始也可能仍在等待 a 释放，两种情况都以取代的错误结束
+        await(() -> errors.containsKey("b"));
+        assertRejected("a", 409);
+        assertRejected("b", 409);
+        await(() -> started.contains("c"));
+        assertTrue(cancelled.containsAll(started.stream().filter(name -> !"c".equals(name)).toList()));
+        assertEquals(2.0, meterRegistry.counter("chat.turn.preempted").count());
+
+        finish("c");
+        await(() -> completed.contains("c"));
+        assertEquals(0.0, sessions());
+    }
+
+    @Test
+    public void testCancelledQueuedTurnIsRemovedFromMailbox() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.QUEUE, 1, 0);
+        submit(scheduler, "a");
+        Disposable queued = submit(scheduler, "b");
+
+        queued.dispose();
+        // 排队名额已归还
+        submit(scheduler, "c");
+        assertFalse(errors.containsKey("c"));
+
+        finish("a");
+        await(() -> started.contains("c"));
+        finish("c");
+        await(() -> sessions() == 0.0);
+        assertEquals(List.of("a", "c"), started);
+    }
+
+    @Test
+    public void testCancelledRunningTurnStartsNext() {
+        SessionTurnScheduler scheduler = create(ChatStreamProperties.TurnPolicy.QUEUE, 4, 0);
+        Disposable running = submit(scheduler, "a");
+        submit(scheduler, "b");
+
+        running.dispose();
+
+        assertEquals(List.of("a"), cancelled);
+        await(() -> started.contains("b"));
+    }
+
+    private Disposable submit(SessionTurnScheduler scheduler, String name) {
+        return submit(scheduler, SESSION_ID, name);
+    }
+
+    /**
+     * 提交一轮对话，轮次在订阅时登记为已开始，由测试通过 sinks 控制输出和结束
+     */
+    private Disposable submit(SessionTurnScheduler scheduler, Long sessionId, String name) {
+        Sinks.Many<String> sink = Sinks.many().unicast().onBackpressureBuffer();
+        sinks.put(name, sink);
+        Flux<String> turn = Flux.defer(() -> {
+            started.add(name);
+            return sink.asFlux();
+        }).doOnCancel(() -> cancelled.add(name));
+        return scheduler.serialize(sessionId, turn).subscribe(
+                chunk -> {
+                },
+                error -> errors.put(name, error),
+                () -> completed.add(name));
+    }
+
+    private void finish(String name) {
+        sinks.get(name).tryEmitComplete();
+    }
+
+    private void assertRejected(String name, int code) {
+        Throwable error = errors.get(name);
+        assertInstanceOf(BusinessException.class, error);
+        assertEquals(code, ((BusinessException) error).getCode());
+        assertFalse(completed.contains(name));
+    }
+
+    private double sessions() {
+        return meterRegistry.get("chat.turn.sessions").gauge().value();
+    }
+
+    /**
+     * 排队的轮次在 boundedElastic 上开始，等待异步状态到达
+     */
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("等待超时");
+            }
+            Thread.onSpinWait();
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}